@@ -0,0 +1,83 @@
+package automata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import theory.characters.CharPred;
+
+/*
+ * The moves out of one state, indexed by the intervals of their guards: the intervals are sorted by their left
+ * ends, and the move whose guard contains a character is found by binary search. Only built when the guards are
+ * disjoint (as they are in a minterm reduced or deterministic automaton), so that at most one move matches.
+ */
+public class IntervalIndex<M> {
+	/* Fields/instance variables */
+	final char[] lefts;
+	final char[] rights;
+	final Object[] moves;
+
+	/* Constructor */
+	IntervalIndex(char[] lefts, char[] rights, Object[] moves) {
+		this.lefts = lefts;
+		this.rights = rights;
+		this.moves = moves;
+	}
+
+	/* Index of moves.get(i) under guards.get(i); returns null if two of the guards overlap */
+	public static <M> IntervalIndex<M> build(List<CharPred> guards, List<M> moves) {
+		List<ImmutablePair<ImmutablePair<Character, Character>, M>> intervals =
+				new ArrayList<ImmutablePair<ImmutablePair<Character, Character>, M>>();
+		for (int i = 0; i < guards.size(); i++) {
+			for (ImmutablePair<Character, Character> interval : guards.get(i).intervals) {
+				intervals.add(new ImmutablePair<ImmutablePair<Character, Character>, M>(interval, moves.get(i)));
+			}
+		}
+
+		Collections.sort(intervals, new Comparator<ImmutablePair<ImmutablePair<Character, Character>, M>>() {
+			public int compare(ImmutablePair<ImmutablePair<Character, Character>, M> p1,
+					ImmutablePair<ImmutablePair<Character, Character>, M> p2) {
+				return Character.compare(p1.left.left, p2.left.left);
+			}
+		});
+
+		int n = intervals.size();
+		char[] lefts = new char[n];
+		char[] rights = new char[n];
+		Object[] indexed = new Object[n];
+		for (int i = 0; i < n; i++) {
+			ImmutablePair<Character, Character> interval = intervals.get(i).left;
+			if (i > 0 && interval.left <= rights[i - 1]) return null;
+
+			lefts[i] = interval.left;
+			rights[i] = interval.right;
+			indexed[i] = intervals.get(i).right;
+		}
+
+		return new IntervalIndex<M>(lefts, rights, indexed);
+	}
+
+	/* The move whose guard contains c, null if there is none */
+	@SuppressWarnings("unchecked")
+	public M get(char c) {
+		/* last interval with left end <= c */
+		int lo = 0;
+		int hi = lefts.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (lefts[mid] <= c) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		if (found == -1 || c > rights[found]) return null;
+		return (M) moves[found];
+	}
+}
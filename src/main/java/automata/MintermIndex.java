@@ -0,0 +1,74 @@
+package automata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sat4j.specs.TimeoutException;
+
+import theory.BooleanAlgebra;
+import theory.characters.CharPred;
+import utilities.Pair;
+
+/*
+ * The minterms of an idToMinterm map, indexed by their intervals: the minterm of a character is found by binary
+ * search instead of testing every minterm. Build one index per minterm set and share it between all the strings
+ * and transitions that are finitized with it. The witness of each minterm id is computed once, on first use.
+ */
+public class MintermIndex {
+	/* Fields/instance variables */
+	Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm;
+	IntervalIndex<Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>>> index; 	// null if minterms overlap
+	HashMap<CharPred, Character> witnesses;
+
+	/* Constructor */
+	public MintermIndex(Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm) {
+		this.idToMinterm = idToMinterm;
+		this.witnesses = new HashMap<CharPred, Character>();
+
+		List<CharPred> guards = new ArrayList<CharPred>();
+		List<Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>>> entries =
+				new ArrayList<Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>>>();
+		for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
+			guards.add(entry.getValue().first);
+			entries.add(entry);
+		}
+		this.index = IntervalIndex.build(guards, entries);
+	}
+
+	/* Entry of the minterm that c satisfies, null if there is none */
+	Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> find(char c) {
+		if (index != null) return index.get(c);
+
+		for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
+			if (entry.getValue().first.isSatisfiedBy(c)) return entry;
+		}
+		return null;
+	}
+
+	/* The minterm that c satisfies (as SFAOperations.findSatisfyingMinterm), null if there is none */
+	public Pair<CharPred, ArrayList<Integer>> getMinterm(char c) {
+		Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry = find(c);
+		return entry == null ? null : entry.getValue();
+	}
+
+	/* The id of the minterm that c satisfies, null if there is none */
+	public CharPred getId(char c) {
+		Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry = find(c);
+		return entry == null ? null : entry.getKey();
+	}
+
+	/* The witness of the id of the minterm that c satisfies, null if there is none */
+	public synchronized Character getWitness(char c, BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		CharPred id = getId(c);
+		if (id == null) return null;
+
+		Character witness = witnesses.get(id);
+		if (witness == null) {
+			witness = ba.generateWitness(id);
+			witnesses.put(id, witness);
+		}
+		return witness;
+	}
+}
@@ -2,12 +2,14 @@ package automata;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.sat4j.specs.TimeoutException;
 
@@ -27,8 +29,37 @@ import utilities.Triple;
  */
 public class SFAOperations {
 	
+	/* Interval indices of the states of each SFA, built on first use (null for a state with overlapping guards) */
+	private static Map<SFA<CharPred, Character>, HashMap<Integer, IntervalIndex<SFAInputMove<CharPred, Character>>>> indices = 
+			Collections.synchronizedMap(new WeakHashMap<SFA<CharPred, Character>, HashMap<Integer, IntervalIndex<SFAInputMove<CharPred, Character>>>>());
+	
+	public static HashMap<Integer, IntervalIndex<SFAInputMove<CharPred, Character>>> getIntervalIndices(SFA<CharPred, Character> aut) {
+		HashMap<Integer, IntervalIndex<SFAInputMove<CharPred, Character>>> stateIndices = indices.get(aut);
+		if (stateIndices != null) return stateIndices;
+		
+		stateIndices = new HashMap<Integer, IntervalIndex<SFAInputMove<CharPred, Character>>>();
+		for (Integer state : aut.getStates()) {
+			List<CharPred> guards = new ArrayList<CharPred>();
+			List<SFAInputMove<CharPred, Character>> moves = new ArrayList<SFAInputMove<CharPred, Character>>();
+			for (SFAInputMove<CharPred, Character> transition : aut.getInputMovesFrom(state)) {
+				guards.add(transition.guard);
+				moves.add(transition);
+			}
+			stateIndices.put(state, IntervalIndex.build(guards, moves));
+		}
+		
+		indices.put(aut, stateIndices);
+		return stateIndices;
+	}
+	
 	public static Integer getSuccessorState(SFA<CharPred, Character> aut, Integer state, Character move, 
 			BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		IntervalIndex<SFAInputMove<CharPred, Character>> index = getIntervalIndices(aut).get(state);
+		if (index != null) {
+			SFAInputMove<CharPred, Character> transition = index.get(move);
+			return transition == null ? -1 : transition.to;
+		}
+		
 		Collection<SFAMove<CharPred, Character>> transitions = aut.getTransitionsFrom(state);
 		
 		// assumes disjoint and total set of transitions (minterm reduced)
@@ -47,6 +78,9 @@ public class SFAOperations {
 	 */
 	public static boolean hasTransition(SFA<CharPred, Character> aut, Integer state, Character move, 
 			BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		IntervalIndex<SFAInputMove<CharPred, Character>> index = getIntervalIndices(aut).get(state);
+		if (index != null) return index.get(move) != null;
+		
 		Collection<SFAMove<CharPred, Character>> transitions = aut.getTransitionsFrom(state);
 		
 		// assumes disjoint and total set of transitions (minterm reduced)
@@ -448,16 +482,16 @@ public class SFAOperations {
 	/* Reduce each char of string to its corresponding minterm */
 	public static String finitizeStringMinterms(String str, Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm, 
 			BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
+		return finitizeStringMinterms(str, new MintermIndex(idToMinterm), ba);
+	}
+	
+	public static String finitizeStringMinterms(String str, MintermIndex minterms, 
+			BooleanAlgebra<CharPred, Character> ba) throws TimeoutException {
 		StringBuilder newString = new StringBuilder();
 		for (int i = 0; i < str.length(); i++) {
-			char currentChar = str.charAt(i);
-			
-			for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
-				CharPred minterm = entry.getValue().first;
-				
-				if (minterm.isSatisfiedBy(currentChar)) { 	// only 1 minterm should be satisfied, since they are disjoint
-					newString.append(ba.generateWitness(entry.getKey())); 	// should only be 1 witness too
-				}
+			Character witness = minterms.getWitness(str.charAt(i), ba); 	// only 1 minterm should be satisfied, since they are disjoint
+			if (witness != null) {
+				newString.append(witness);
 			}
 		}
 		
@@ -2,12 +2,14 @@ package automata;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.sat4j.specs.TimeoutException;
@@ -34,6 +36,29 @@ public class SFTOperations {
 	
 	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 	
+	/* Interval indices of the states of each SFT, built on first use (null for a state with overlapping guards) */
+	private static Map<SFT<CharPred, CharFunc, Character>, HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>>> indices = 
+			Collections.synchronizedMap(new WeakHashMap<SFT<CharPred, CharFunc, Character>, HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>>>());
+	
+	public static HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>> getIntervalIndices(SFT<CharPred, CharFunc, Character> trans) {
+		HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>> stateIndices = indices.get(trans);
+		if (stateIndices != null) return stateIndices;
+		
+		stateIndices = new HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>>();
+		for (Integer state : trans.getStates()) {
+			List<CharPred> guards = new ArrayList<CharPred>();
+			List<SFTInputMove<CharPred, CharFunc, Character>> moves = new ArrayList<SFTInputMove<CharPred, CharFunc, Character>>();
+			for (SFTInputMove<CharPred, CharFunc, Character> transition : trans.getInputMovesFrom(state)) {
+				guards.add(transition.guard);
+				moves.add(transition);
+			}
+			stateIndices.put(state, IntervalIndex.build(guards, moves));
+		}
+		
+		indices.put(trans, stateIndices);
+		return stateIndices;
+	}
+	
 	/* 
 	 * Returns output string given a transducer and an input string. Assumes the alphabet of
 	 * trans includes the character in inputStr. This function is meant for a finite 
@@ -42,9 +67,24 @@ public class SFTOperations {
 	public static String getOutputString(SFT<CharPred, CharFunc, Character> trans, String inputStr) throws TimeoutException {
 		StringBuilder outputStr = new StringBuilder("");
 		Integer state = trans.getInitialState();
+		HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>> stateIndices = getIntervalIndices(trans);
 		
 		for (int i = 0; i < inputStr.length(); i++) {
 			Character next = inputStr.charAt(i);
+			IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>> index = stateIndices.get(state);
+			if (index != null) {
+				SFTInputMove<CharPred, CharFunc, Character> transition = index.get(next);
+				if (transition != null) {
+					for (CharFunc f: transition.outputFunctions) {
+						if (f != null) {
+							outputStr.append(ba.MkSubstFuncConst(f, next));
+						}
+					}
+					state = transition.to;
+				}
+				continue;
+			}
+			
 			Collection<SFTInputMove<CharPred, CharFunc, Character>> transitions = trans.getInputMovesFrom(state);
 			
 			for (SFTInputMove<CharPred, CharFunc, Character> transition : transitions) {
@@ -70,9 +110,20 @@ public class SFTOperations {
 	public static List<SFTInputMove<CharPred, CharFunc, Character>> getTransitionsTaken(SFT<CharPred, CharFunc, Character> trans, String inputStr) throws TimeoutException {
 		List<SFTInputMove<CharPred, CharFunc, Character>> transitionsTaken = new ArrayList<SFTInputMove<CharPred, CharFunc, Character>>();
 		Integer state = trans.getInitialState();
+		HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>> stateIndices = getIntervalIndices(trans);
 		
 		for (int i = 0; i < inputStr.length(); i++) {
 			Character next = inputStr.charAt(i);
+			IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>> index = stateIndices.get(state);
+			if (index != null) {
+				SFTInputMove<CharPred, CharFunc, Character> transition = index.get(next);
+				if (transition != null) {
+					transitionsTaken.add(transition);
+					state = transition.to;
+				}
+				continue;
+			}
+			
 			Collection<SFTInputMove<CharPred, CharFunc, Character>> transitions = trans.getInputMovesFrom(state);
 			
 			for (SFTInputMove<CharPred, CharFunc, Character> transition : transitions) {
@@ -174,6 +225,7 @@ public class SFTOperations {
 	public static SFT<CharPred, CharFunc, Character> mintermExpansion(SFT<CharPred, CharFunc, Character> trans,
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm) throws TimeoutException {
 		Collection<SFTMove<CharPred, CharFunc, Character>> newTransitions = new ArrayList<SFTMove<CharPred, CharFunc, Character>>();
+		MintermIndex index = new MintermIndex(idToMinterm);
 		
 		for (Integer state : trans.getStates()) {
 			for (SFTInputMove<CharPred, CharFunc, Character> transition : trans.getInputMovesFrom(state)) {
@@ -193,8 +245,8 @@ public class SFTOperations {
 							if (c.equals(out)) {
 								output.add(CharOffset.IDENTITY); // identity if input/output minterms are the same
 							} else {
-								CharPred inputMinterm = SFAOperations.findSatisfyingMinterm(c, idToMinterm).first;
-								CharPred outputMinterm = SFAOperations.findSatisfyingMinterm(out, idToMinterm).first;
+								CharPred inputMinterm = index.getMinterm(c).first;
+								CharPred outputMinterm = index.getMinterm(out).first;
 								
 								if (inputMinterm.intervals.size() == 1 && outputMinterm.intervals.size() == 1) {
 									ImmutablePair<Character, Character> inputInterval = inputMinterm.intervals.get(0);
@@ -332,6 +384,13 @@ public class SFTOperations {
 			Collection<Pair<CharPred, ArrayList<Integer>>> minterms,
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm,
 			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) throws TimeoutException {
+		return mkFinite(aut, minterms, new MintermIndex(idToMinterm), mintermToId);
+	}
+	
+	public static FST<Character, Character> mkFinite(SFT<CharPred, CharFunc, Character> aut, 
+			Collection<Pair<CharPred, ArrayList<Integer>>> minterms,
+			MintermIndex index,
+			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) throws TimeoutException {
 		Collection<FSTMove<Character, Character>> transitions = new ArrayList<FSTMove<Character, Character>>();
 		
 		for (Integer state : aut.getStates()) {
@@ -346,7 +405,7 @@ public class SFTOperations {
 						for (CharFunc f : transition.outputFunctions) {
 							// use instantiate, then find satisfying minterm, and then reduce
 							Character out = f.instantiateWith(input);
-							Pair<CharPred, ArrayList<Integer>> satMinterm = SFAOperations.findSatisfyingMinterm(out, idToMinterm);
+							Pair<CharPred, ArrayList<Integer>> satMinterm = index.getMinterm(out);
 							
 							outputs.add(ba.generateWitness(mintermToId.get(satMinterm)));
 						}
@@ -368,6 +427,13 @@ public class SFTOperations {
 			Collection<Pair<CharPred, ArrayList<Integer>>> minterms,
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm,
 			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) throws TimeoutException {
+		return mkTransitionsFinite(transitions, minterms, new MintermIndex(idToMinterm), mintermToId);
+	}
+	
+	public static Collection<FSTMove<Character, Character>> mkTransitionsFinite(Collection<SFTInputMove<CharPred, CharFunc, Character>> transitions, 
+			Collection<Pair<CharPred, ArrayList<Integer>>> minterms,
+			MintermIndex index,
+			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) throws TimeoutException {
 		Collection<FSTMove<Character, Character>> newTransitions = new ArrayList<FSTMove<Character, Character>>();
 		
 		for (SFTInputMove<CharPred, CharFunc, Character> transition : transitions) {
@@ -380,7 +446,7 @@ public class SFTOperations {
 					List<Character> outputs = new ArrayList<Character>();
 					for (CharFunc f : transition.outputFunctions) {
 						Character out = f.instantiateWith(input);
-						Pair<CharPred, ArrayList<Integer>> satMinterm = SFAOperations.findSatisfyingMinterm(out, idToMinterm);
+						Pair<CharPred, ArrayList<Integer>> satMinterm = index.getMinterm(out);
 						
 						outputs.add(ba.generateWitness(mintermToId.get(satMinterm)));
 					}
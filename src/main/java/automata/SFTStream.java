@@ -0,0 +1,343 @@
+package automata;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+
+/*
+ * Runs a deterministic SFT over a stream, keeping only the current state: input is pulled from a CharBuffer or
+ * Reader and the output is pushed to an Appendable or Writer chunk by chunk, so memory does not grow with the
+ * input; transduceFile does the same for a memory-mapped file. Characters are read as in
+ * SFTOperations.getOutputString (a character without a transition is skipped); at the end of the stream,
+ * finish() appends the tail of the state if it is final.
+ */
+public class SFTStream {
+	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
+
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	/* Files are mapped in regions of at most this many bytes */
+	static final long MAP_REGION = 1L << 28;
+
+	static final char REPLACEMENT = '\uFFFD';
+
+	/* Fields/instance variables */
+	SFT<CharPred, CharFunc, Character> trans;
+	HashMap<Integer, IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>>> stateIndices;
+	Integer state;
+
+	/* Constructor */
+	public SFTStream(SFT<CharPred, CharFunc, Character> trans) {
+		this.trans = trans;
+		this.stateIndices = SFTOperations.getIntervalIndices(trans);
+		this.state = trans.getInitialState();
+	}
+
+	public Integer getState() {
+		return state;
+	}
+
+	/* Back to the initial state, to read a new stream */
+	public void reset() {
+		state = trans.getInitialState();
+	}
+
+	/* The transition on next from the current state, null if there is none */
+	SFTInputMove<CharPred, CharFunc, Character> transitionOn(char next) {
+		IntervalIndex<SFTInputMove<CharPred, CharFunc, Character>> index = stateIndices.get(state);
+		if (index != null) return index.get(next);
+
+		Collection<SFTInputMove<CharPred, CharFunc, Character>> transitions = trans.getInputMovesFrom(state);
+		for (SFTInputMove<CharPred, CharFunc, Character> transition : transitions) {
+			if (transition.guard.isSatisfiedBy(next)) { 	// only 1 transition should be sat
+				return transition;
+			}
+		}
+		return null;
+	}
+
+	/* Reads next, appending its output to out */
+	public void feed(char next, Appendable out) throws IOException {
+		SFTInputMove<CharPred, CharFunc, Character> transition = transitionOn(next);
+		if (transition == null) return;
+
+		for (CharFunc f : transition.outputFunctions) {
+			if (f != null) {
+				out.append(ba.MkSubstFuncConst(f, next));
+			}
+		}
+		state = transition.to;
+	}
+
+	/* Reads all remaining characters of in, appending their outputs to out */
+	public void feed(CharBuffer in, Appendable out) throws IOException {
+		while (in.hasRemaining()) {
+			feed(in.get(), out);
+		}
+	}
+
+	/*
+	 * Reads all remaining bytes of in as single byte characters, without decoding them into a buffer first; a
+	 * byte above maxChar (0x7F for US-ASCII, 0xFF for ISO-8859-1) is read as the replacement character
+	 */
+	public void feed(ByteBuffer in, int maxChar, Appendable out) throws IOException {
+		while (in.hasRemaining()) {
+			int b = in.get() & 0xFF;
+			feed(b <= maxChar ? (char) b : REPLACEMENT, out);
+		}
+	}
+
+	/*
+	 * End of stream: appends the tail of the current state (the first one, if there are several) and returns
+	 * whether the state is final. The output of a non-final run is left as it is.
+	 */
+	public boolean finish(Appendable out) throws IOException {
+		if (!trans.isFinalState(state)) return false;
+
+		Set<List<Character>> tails = trans.getFinalStatesAndTails().get(state);
+		if (tails != null && !tails.isEmpty()) {
+			for (Character c : tails.iterator().next()) {
+				out.append(c);
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Transduces all of in to out through buffers of chunkSize characters, and returns whether the input was
+	 * accepted. The writer is flushed but not closed.
+	 */
+	public static boolean transduce(SFT<CharPred, CharFunc, Character> trans, Reader in, Writer out,
+			int chunkSize) throws IOException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be positive");
+		}
+
+		SFTStream stream = new SFTStream(trans);
+		CharBuffer input = CharBuffer.allocate(chunkSize);
+		StringBuilder output = new StringBuilder(chunkSize);
+
+		while (in.read(input) != -1) {
+			input.flip();
+			stream.feed(input, output);
+			input.clear();
+
+			if (output.length() >= chunkSize) {
+				out.append(output);
+				output.setLength(0);
+			}
+		}
+
+		boolean accepted = stream.finish(output);
+		out.append(output);
+		out.flush();
+		return accepted;
+	}
+
+	public static boolean transduce(SFT<CharPred, CharFunc, Character> trans, Reader in, Writer out)
+			throws IOException {
+		return transduce(trans, in, out, DEFAULT_CHUNK_SIZE);
+	}
+
+	/* Largest character of a single byte charset (US-ASCII or ISO-8859-1), -1 for any other charset */
+	static int singleByteMax(Charset charset) {
+		if (charset.equals(StandardCharsets.US_ASCII)) return 0x7F;
+		if (charset.equals(StandardCharsets.ISO_8859_1)) return 0xFF;
+		return -1;
+	}
+
+	/*
+	 * Smallest chunk size of transduceFile in charset, which is also the smallest region: a buffer must hold the
+	 * bytes and the characters of a surrogate pair, or the encoder and decoder overflow without making progress
+	 */
+	static int minChunkSize(Charset charset) {
+		if (singleByteMax(charset) != -1) return 1;
+
+		int pairBytes = 2 * (int) Math.ceil(charset.newEncoder().maxBytesPerChar());
+		int pairChars = Math.max(2, (int) Math.ceil(charset.newDecoder().maxCharsPerByte()));
+		return Math.max(pairBytes, pairChars);
+	}
+
+	/*
+	 * Output to a channel through a direct buffer of bytes: single byte charsets are written byte by byte, others
+	 * through a buffer of characters that is encoded when full. Unmappable characters are replaced.
+	 */
+	static class ChannelOutput implements Appendable {
+		/* Fields/instance variables */
+		WritableByteChannel channel;
+		ByteBuffer bytes;
+		int maxChar;
+		CharBuffer chars;
+		CharsetEncoder encoder;
+
+		/* Constructor */
+		ChannelOutput(WritableByteChannel channel, Charset charset, int chunkSize) {
+			this.channel = channel;
+			this.bytes = ByteBuffer.allocateDirect(chunkSize);
+			this.maxChar = singleByteMax(charset);
+			if (maxChar == -1) {
+				this.chars = CharBuffer.allocate(chunkSize);
+				this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			if (maxChar != -1) {
+				if (!bytes.hasRemaining()) drain();
+				bytes.put((byte) (c <= maxChar ? c : '?'));
+			} else {
+				if (!chars.hasRemaining()) encode(false);
+				chars.put(c);
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			return append(csq, 0, csq.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			for (int i = start; i < end; i++) {
+				append(csq.charAt(i));
+			}
+			return this;
+		}
+
+		/* Encodes the buffered characters, keeping an unpaired surrogate at the end unless endOfInput */
+		void encode(boolean endOfInput) throws IOException {
+			chars.flip();
+			while (encoder.encode(chars, bytes, endOfInput).isOverflow()) {
+				drain();
+			}
+			chars.compact();
+		}
+
+		void drain() throws IOException {
+			bytes.flip();
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			bytes.clear();
+		}
+
+		/* Writes out everything that is buffered */
+		void finish() throws IOException {
+			if (maxChar == -1) {
+				encode(true);
+				while (encoder.flush(bytes).isOverflow()) {
+					drain();
+				}
+			}
+			drain();
+		}
+	}
+
+	/*
+	 * Transduces the file input into the file output, both in charset, and returns whether the input was accepted.
+	 * The input is mapped region by region with FileChannel.map: US-ASCII and ISO-8859-1 are read byte by byte from
+	 * the mapping, other charsets are decoded in bulk into a buffer of chunkSize characters. The output goes
+	 * through a direct buffer of chunkSize bytes. chunkSize must be at least minChunkSize(charset), e.g. 6 for UTF-8.
+	 */
+	public static boolean transduceFile(SFT<CharPred, CharFunc, Character> trans, Path input, Path output,
+			Charset charset, int chunkSize) throws IOException {
+		return transduceFile(trans, input, output, charset, chunkSize, MAP_REGION);
+	}
+
+	/* transduceFile with regions of at most regionSize bytes */
+	static boolean transduceFile(SFT<CharPred, CharFunc, Character> trans, Path input, Path output,
+			Charset charset, int chunkSize, long regionSize) throws IOException {
+		int minSize = minChunkSize(charset);
+		if (chunkSize < minSize) {
+			throw new IllegalArgumentException("The chunk size must be at least " + minSize + " for " + charset);
+		}
+		if (regionSize < minSize) {
+			throw new IllegalArgumentException("The region size must be at least " + minSize + " for " + charset);
+		}
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			SFTStream stream = new SFTStream(trans);
+			ChannelOutput channelOutput = new ChannelOutput(out, charset, chunkSize);
+
+			int maxChar = singleByteMax(charset);
+			CharsetDecoder decoder = null;
+			CharBuffer chars = null;
+			if (maxChar == -1) {
+				decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+				chars = CharBuffer.allocate(chunkSize);
+			}
+
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				long length = Math.min(regionSize, size - position);
+				MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+				if (maxChar != -1) {
+					stream.feed(region, maxChar, channelOutput);
+				} else {
+					boolean endOfInput = position + length == size;
+					while (decoder.decode(region, chars, endOfInput).isOverflow()) {
+						chars.flip();
+						stream.feed(chars, channelOutput);
+						chars.clear();
+					}
+					chars.flip();
+					stream.feed(chars, channelOutput);
+					chars.clear();
+				}
+
+				/* the bytes of a character split between two regions are mapped again with the next one */
+				position += region.position();
+			}
+
+			if (decoder != null) {
+				if (size == 0) decoder.decode(ByteBuffer.allocate(0), chars, true);
+				while (decoder.flush(chars).isOverflow()) {
+					chars.flip();
+					stream.feed(chars, channelOutput);
+					chars.clear();
+				}
+				chars.flip();
+				stream.feed(chars, channelOutput);
+			}
+
+			boolean accepted = stream.finish(channelOutput);
+			channelOutput.finish();
+			return accepted;
+		}
+	}
+
+	public static boolean transduceFile(SFT<CharPred, CharFunc, Character> trans, Path input, Path output,
+			Charset charset) throws IOException {
+		return transduceFile(trans, input, output, charset, DEFAULT_CHUNK_SIZE);
+	}
+}
@@ -0,0 +1,132 @@
+package automata.fsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Immutable runtime of a deterministic character FSA, with the same tables as CompiledFST but no outputs:
+ * states 0, ..., n - 1, input characters 0, ..., k - 1 and the successor of (state, symbol) in
+ * next[state * k + symbol], -1 if there is none.
+ */
+public class CompiledFSA {
+	/* Fields/instance variables */
+	final int initialState;
+	final int[] stateIds; 		// state number -> state of the FSA
+	final BitSet finalStates;
+
+	/* input characters: symbolOf[c - minChar] is the number of c, -1 if no transition reads c */
+	final char minChar;
+	final int[] symbolOf;
+	final int numSymbols;
+
+	final int[] next;
+
+	/* Constructor */
+	CompiledFSA(int initialState, int[] stateIds, BitSet finalStates, char minChar, int[] symbolOf, int numSymbols, int[] next) {
+		this.initialState = initialState;
+		this.stateIds = stateIds;
+		this.finalStates = finalStates;
+		this.minChar = minChar;
+		this.symbolOf = symbolOf;
+		this.numSymbols = numSymbols;
+		this.next = next;
+	}
+
+	/* Tables of fsa, which must be deterministic */
+	public static CompiledFSA compile(FSA<Character> fsa) {
+		/* number the states, the initial state first */
+		Map<Integer, Integer> stateNumbers = new HashMap<Integer, Integer>();
+		List<Integer> stateIds = new ArrayList<Integer>();
+		stateNumbers.put(fsa.getInitialState(), 0);
+		stateIds.add(fsa.getInitialState());
+		for (Integer state : fsa.getStates()) {
+			if (!stateNumbers.containsKey(state)) {
+				stateNumbers.put(state, stateIds.size());
+				stateIds.add(state);
+			}
+		}
+
+		Collection<FSAMove<Character>> transitions = fsa.getTransitionsFrom(fsa.getStates());
+
+		/* number the input characters */
+		char minChar = Character.MAX_VALUE;
+		char maxChar = Character.MIN_VALUE;
+		for (FSAMove<Character> transition : transitions) {
+			minChar = (char) Math.min(minChar, transition.input);
+			maxChar = (char) Math.max(maxChar, transition.input);
+		}
+		int[] symbolOf = new int[transitions.isEmpty() ? 0 : maxChar - minChar + 1];
+		Arrays.fill(symbolOf, -1);
+		int numSymbols = 0;
+		for (FSAMove<Character> transition : transitions) {
+			if (symbolOf[transition.input - minChar] == -1) symbolOf[transition.input - minChar] = numSymbols++;
+		}
+
+		int numStates = stateIds.size();
+		int[] next = new int[numStates * numSymbols];
+		Arrays.fill(next, -1);
+
+		for (FSAMove<Character> transition : transitions) {
+			int index = stateNumbers.get(transition.from) * numSymbols + symbolOf[transition.input - minChar];
+			if (next[index] != -1) {
+				throw new IllegalArgumentException("The FSA is not deterministic");
+			}
+			next[index] = stateNumbers.get(transition.to);
+		}
+
+		BitSet finalStates = new BitSet(numStates);
+		for (Integer state : fsa.getFinalStates()) {
+			finalStates.set(stateNumbers.get(state));
+		}
+
+		int[] ids = new int[numStates];
+		for (int i = 0; i < numStates; i++) {
+			ids[i] = stateIds.get(i);
+		}
+
+		return new CompiledFSA(0, ids, finalStates, minChar, symbolOf, numSymbols, next);
+	}
+
+	public int getInitialState() {
+		return initialState;
+	}
+
+	/* Successor of state on c, -1 if there is none (as FSA.getSuccessorState) */
+	public int getSuccessorState(int state, char c) {
+		int i = c - minChar;
+		if (i < 0 || i >= symbolOf.length || symbolOf[i] == -1) return -1;
+		return next[state * numSymbols + symbolOf[i]];
+	}
+
+	/* State reached on input from the initial state, -1 if the run gets stuck */
+	public int run(CharSequence input) {
+		int state = initialState;
+		for (int pos = 0; pos < input.length() && state != -1; pos++) {
+			state = getSuccessorState(state, input.charAt(pos));
+		}
+		return state;
+	}
+
+	public boolean accepts(CharSequence input) {
+		int state = run(input);
+		return state != -1 && finalStates.get(state);
+	}
+
+	public boolean isFinal(int state) {
+		return finalStates.get(state);
+	}
+
+	/* The state of the FSA that state stands for */
+	public int getStateId(int state) {
+		return stateIds[state];
+	}
+
+	public int stateCount() {
+		return stateIds.length;
+	}
+}
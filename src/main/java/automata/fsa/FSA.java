@@ -75,7 +75,7 @@ public class FSA<P> extends FAutomaton<P> {
 		List<Integer> states = new ArrayList<Integer>();
 		
 		for (FSAMove<P> transition : getInputMovesTo(state)) {
-			if (transition.input == input) {
+			if (transition.input.equals(input)) {
 				states.add(transition.from);
 			}
 		}
@@ -85,7 +85,7 @@ public class FSA<P> extends FAutomaton<P> {
 	
 	public Integer getSuccessorState(Integer state, P input) {
 		for (FSAMove<P> transition : getInputMovesFrom(state)) {
-			if (transition.input == input) {
+			if (transition.input.equals(input)) {
 				return transition.to; 		// assumes disjoint transitions
 			}
 		}
@@ -1,5 +1,7 @@
 package automata.fsa;
 
+import java.util.Objects;
+
 import automata.FMove;
 import automata.fst.FSTMove;
 
@@ -27,15 +29,20 @@ public class FSAMove<P> extends FMove {
 		
 		FSAMove<P> t = (FSAMove<P>) obj;
 		
-		if (t.from != this.from)
+		if (!t.from.equals(this.from))
 			return false;
 		
-		if (t.to != this.to)
+		if (!t.to.equals(this.to))
 			return false;
 		
-		if (t.input != this.input)
+		if (!Objects.equals(t.input, this.input))
 			return false;
 		
 		return true;
 	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(from, to, input);
+	}
 }
@@ -0,0 +1,158 @@
+package automata.fst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Immutable runtime of a deterministic character FST: states are numbered 0, ..., n - 1 and input characters
+ * 0, ..., k - 1, the successor of (state, symbol) is next[state * k + symbol] (-1 if there is none), and its
+ * output is outputs[offset[state * k + symbol] ...] of length length[state * k + symbol], all outputs sharing
+ * one char array. Running it allocates nothing per character.
+ */
+public class CompiledFST {
+	/* Fields/instance variables */
+	final int initialState;
+	final int[] stateIds; 		// state number -> state of the FST
+	final BitSet finalStates;
+
+	/* input characters: symbolOf[c - minChar] is the number of c, -1 if no transition reads c */
+	final char minChar;
+	final int[] symbolOf;
+	final int numSymbols;
+
+	final int[] next;
+	final int[] offset;
+	final int[] length;
+	final char[] outputs;
+
+	/* Constructor */
+	CompiledFST(int initialState, int[] stateIds, BitSet finalStates, char minChar, int[] symbolOf, int numSymbols,
+			int[] next, int[] offset, int[] length, char[] outputs) {
+		this.initialState = initialState;
+		this.stateIds = stateIds;
+		this.finalStates = finalStates;
+		this.minChar = minChar;
+		this.symbolOf = symbolOf;
+		this.numSymbols = numSymbols;
+		this.next = next;
+		this.offset = offset;
+		this.length = length;
+		this.outputs = outputs;
+	}
+
+	/* Tables of fst, which must be deterministic */
+	public static CompiledFST compile(FST<Character, Character> fst) {
+		/* number the states, the initial state first */
+		Map<Integer, Integer> stateNumbers = new HashMap<Integer, Integer>();
+		List<Integer> stateIds = new ArrayList<Integer>();
+		stateNumbers.put(fst.getInitialState(), 0);
+		stateIds.add(fst.getInitialState());
+		for (Integer state : fst.getStates()) {
+			if (!stateNumbers.containsKey(state)) {
+				stateNumbers.put(state, stateIds.size());
+				stateIds.add(state);
+			}
+		}
+
+		Collection<FSTMove<Character, Character>> transitions = fst.getTransitionsFrom(fst.getStates());
+
+		/* number the input characters */
+		char minChar = Character.MAX_VALUE;
+		char maxChar = Character.MIN_VALUE;
+		for (FSTMove<Character, Character> transition : transitions) {
+			minChar = (char) Math.min(minChar, transition.input);
+			maxChar = (char) Math.max(maxChar, transition.input);
+		}
+		int[] symbolOf = new int[transitions.isEmpty() ? 0 : maxChar - minChar + 1];
+		Arrays.fill(symbolOf, -1);
+		int numSymbols = 0;
+		for (FSTMove<Character, Character> transition : transitions) {
+			if (symbolOf[transition.input - minChar] == -1) symbolOf[transition.input - minChar] = numSymbols++;
+		}
+
+		int numStates = stateIds.size();
+		int[] next = new int[numStates * numSymbols];
+		int[] offset = new int[numStates * numSymbols];
+		int[] length = new int[numStates * numSymbols];
+		Arrays.fill(next, -1);
+
+		StringBuilder outputs = new StringBuilder();
+		for (FSTMove<Character, Character> transition : transitions) {
+			int index = stateNumbers.get(transition.from) * numSymbols + symbolOf[transition.input - minChar];
+			if (next[index] != -1) {
+				throw new IllegalArgumentException("The FST is not deterministic");
+			}
+
+			next[index] = stateNumbers.get(transition.to);
+			offset[index] = outputs.length();
+			length[index] = transition.outputs.size();
+			for (Character output : transition.outputs) {
+				outputs.append(output.charValue());
+			}
+		}
+
+		BitSet finalStates = new BitSet(numStates);
+		for (Integer state : fst.getFinalStates()) {
+			finalStates.set(stateNumbers.get(state));
+		}
+
+		char[] outputChars = new char[outputs.length()];
+		outputs.getChars(0, outputs.length(), outputChars, 0);
+
+		int[] ids = new int[numStates];
+		for (int i = 0; i < numStates; i++) {
+			ids[i] = stateIds.get(i);
+		}
+
+		return new CompiledFST(0, ids, finalStates, minChar, symbolOf, numSymbols, next, offset, length, outputChars);
+	}
+
+	/* Index into the tables of (state, c), -1 if no transition reads c */
+	int index(int state, char c) {
+		int i = c - minChar;
+		if (i < 0 || i >= symbolOf.length || symbolOf[i] == -1) return -1;
+		return state * numSymbols + symbolOf[i];
+	}
+
+	/*
+	 * Appends the output on input to out and returns the number of the state reached. Like FST.outputOn, a
+	 * character without a transition is skipped and the state stays the same.
+	 */
+	public int transduce(CharSequence input, StringBuilder out) {
+		int state = initialState;
+
+		for (int pos = 0; pos < input.length(); pos++) {
+			int index = index(state, input.charAt(pos));
+			if (index == -1 || next[index] == -1) continue;
+
+			out.append(outputs, offset[index], length[index]);
+			state = next[index];
+		}
+
+		return state;
+	}
+
+	public String outputOn(String input) {
+		StringBuilder out = new StringBuilder(input.length());
+		transduce(input, out);
+		return out.toString();
+	}
+
+	public boolean isFinal(int state) {
+		return finalStates.get(state);
+	}
+
+	/* The state of the FST that state stands for */
+	public int getStateId(int state) {
+		return stateIds[state];
+	}
+
+	public int stateCount() {
+		return stateIds.length;
+	}
+}
@@ -93,7 +93,7 @@ public class FST<P, S> extends FAutomaton<P> {
 		
 		for (P input : inputs) {
 			for (FSTMove<P, S> transition : getTransitionsFrom(state)) { 	// assumes determinism
-				if (transition.input == input) {
+				if (transition.input.equals(input)) {
 					outputs.addAll(transition.outputs);
 					state = transition.to;
 				}
@@ -151,7 +151,7 @@ public class FST<P, S> extends FAutomaton<P> {
 		Collection<FSTMove<P, S>> trset = new HashSet<FSTMove<P, S>>();
 		
 		for (Integer state : states) {
-			trset.addAll(transitionsFrom.get(state));
+			trset.addAll(getTransitionsFrom(state));
 		}
 		
 		return trset;
@@ -1,6 +1,7 @@
 package automata.fst;
 
 import java.util.List;
+import java.util.Objects;
 
 import automata.FMove;
 
@@ -32,13 +33,13 @@ public class FSTMove<P, S> extends FMove {
 		
 		FSTMove<P, S> t = (FSTMove<P, S>) obj;
 		
-		if (t.from != this.from)
+		if (!t.from.equals(this.from))
 			return false;
 		
-		if (t.to != this.to)
+		if (!t.to.equals(this.to))
 			return false;
 		
-		if (t.input != this.input)
+		if (!Objects.equals(t.input, this.input))
 			return false;
 		
 		if (!(t.outputs.equals(this.outputs)))
@@ -46,4 +47,9 @@ public class FSTMove<P, S> extends FMove {
 		
 		return true;
 	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(from, to, input, outputs);
+	}
 }
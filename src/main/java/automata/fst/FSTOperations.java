@@ -11,7 +11,7 @@ import java.util.Set;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.sat4j.specs.TimeoutException;
 
-import automata.SFAOperations;
+import automata.MintermIndex;
 import theory.BooleanAlgebraSubst;
 import theory.characters.CharConstant;
 import theory.characters.CharFunc;
@@ -28,6 +28,7 @@ public class FSTOperations {
 	public static SFT<CharPred, CharFunc, Character> mintermExpansion(FST<Character, Character> aut,
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
 		Collection<SFTMove<CharPred, CharFunc, Character>> newTransitions = new ArrayList<SFTMove<CharPred, CharFunc, Character>>();
+		MintermIndex index = new MintermIndex(idToMinterm);
 		
 		for (Integer state : aut.getStates()) {
 			for (FSTMove<Character, Character> transition : aut.getTransitionsFrom(state)) {
@@ -40,8 +41,8 @@ public class FSTOperations {
 					if (c.equals(f)) {
 						output.add(CharOffset.IDENTITY); // identity if input/output minterms are the same
 					} else {
-						CharPred inputMinterm = SFAOperations.findSatisfyingMinterm(c, idToMinterm).first;
-						CharPred outputMinterm = SFAOperations.findSatisfyingMinterm(f, idToMinterm).first;
+						CharPred inputMinterm = index.getMinterm(c).first;
+						CharPred outputMinterm = index.getMinterm(f).first;
 
 						if (inputMinterm.intervals.size() == 1 && outputMinterm.intervals.size() == 1) {
 							ImmutablePair<Character, Character> inputInterval = inputMinterm.intervals.get(0);
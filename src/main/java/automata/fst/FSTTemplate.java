@@ -7,6 +7,7 @@ import java.util.Map;
 
 import org.sat4j.specs.TimeoutException;
 
+import automata.MintermIndex;
 import automata.SFTOperations;
 import automata.SFTTemplate;
 import theory.characters.CharFunc;
@@ -39,11 +40,12 @@ public class FSTTemplate {
 			Collection<Pair<CharPred, ArrayList<Integer>>> minterms,
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm,
 			Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId) throws TimeoutException {
-		FST<Character, Character> finAut = SFTOperations.mkFinite(aut, minterms, idToMinterm, mintermToId);
+		MintermIndex index = new MintermIndex(idToMinterm);
+		FST<Character, Character> finAut = SFTOperations.mkFinite(aut, minterms, index, mintermToId);
 		this.aut = finAut;
 		
 		Collection<FSTMove<Character, Character>> finBadTransitions = 
-				SFTOperations.mkTransitionsFinite(badTransitions, minterms, idToMinterm, mintermToId);
+				SFTOperations.mkTransitionsFinite(badTransitions, minterms, index, mintermToId);
 		this.badTransitions = finBadTransitions;
 		
 		Collection<FSTMove<Character, Character>> currentTransitions = new LinkedList<FSTMove<Character, Character>>();
@@ -60,11 +62,12 @@ public class FSTTemplate {
 		SFT<CharPred, CharFunc, Character> sft = sftTemplate.getAut();
 		Collection<SFTInputMove<CharPred, CharFunc, Character>> badSFTTransitions = sftTemplate.getBadTransitions();
 		
-		FST<Character, Character> finAut = SFTOperations.mkFinite(sft, minterms, idToMinterm, mintermToId);
+		MintermIndex index = new MintermIndex(idToMinterm);
+		FST<Character, Character> finAut = SFTOperations.mkFinite(sft, minterms, index, mintermToId);
 		this.aut = finAut;
 		
 		Collection<FSTMove<Character, Character>> finBadTransitions = 
-				SFTOperations.mkTransitionsFinite(badSFTTransitions, minterms, idToMinterm, mintermToId);
+				SFTOperations.mkTransitionsFinite(badSFTTransitions, minterms, index, mintermToId);
 		this.badTransitions = finBadTransitions;
 		
 		Collection<FSTMove<Character, Character>> currentTransitions = new LinkedList<FSTMove<Character, Character>>();
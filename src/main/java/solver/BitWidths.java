@@ -0,0 +1,100 @@
+package solver;
+
+import java.util.List;
+
+import com.microsoft.z3.BitVecExpr;
+import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+
+import automata.sfa.SFA;
+import theory.characters.CharPred;
+import utilities.Pair;
+
+/*
+ * Widths of the bit-vector sorts of an encoding, computed from the source, target and examples instead
+ * of a fixed 8 bits. The state, character and position sorts are unsigned and only need to hold their
+ * largest value; the energy sort is signed and wide enough that m - n x ed_dist and the differences of
+ * energy values along a run cannot overflow.
+ */
+public class BitWidths {
+	/* Fields/instance variables */
+	public final int stateWidth;
+	public final int charWidth;
+	public final int posWidth;
+	public final int energyWidth;
+
+	/* Constructor */
+	public BitWidths(long maxState, long maxChar, long maxPos, long maxEnergy) {
+		this.stateWidth = bitsFor(maxState);
+		this.charWidth = bitsFor(maxChar);
+		this.posWidth = bitsFor(maxPos);
+
+		/* sign bit, and lengths (positions) must fit when they are extended to energy values */
+		this.energyWidth = Math.max(bitsFor(maxEnergy), posWidth) + 1;
+	}
+
+	/*
+	 * Widths for an encoding with numStates transducer states and output bound outputBound. productStates is
+	 * the number of (q_R, q, q_T) triples for which energy is encoded: a simple path through them changes the
+	 * energy by at most productStates x (|m| + |n| x outputBound).
+	 */
+	public static BitWidths mkWidths(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			int numStates, int outputBound, int alphabetSize, List<Pair<String, String>> ioExamples,
+			int[] distance, long productStates) {
+		long maxState = Math.max(numStates, Math.max(source.getMaxStateId(), target.getMaxStateId()));
+
+		long maxPos = outputBound;
+		if (ioExamples != null) {
+			for (Pair<String, String> example : ioExamples) {
+				maxPos = Math.max(maxPos, Math.max(example.first.length(), example.second.length()));
+			}
+		}
+
+		long m = (distance == null) ? 0 : Math.abs((long) distance[0]);
+		long n = (distance == null) ? 0 : Math.abs((long) distance[1]);
+		long step = m + n * outputBound + 1;
+		long maxEnergy = (productStates + 2) * step;
+
+		return new BitWidths(maxState, alphabetSize, maxPos, maxEnergy);
+	}
+
+	/* Number of bits needed for the unsigned values 0, ..., maxValue */
+	public static int bitsFor(long maxValue) {
+		int bits = 1;
+		while (bits < 63 && (maxValue >> bits) != 0) {
+			bits++;
+		}
+		return bits;
+	}
+
+	/* A length (position sort) as an energy value, so that ed_dist can be defined from out_len */
+	public BitVecExpr toEnergy(Context ctx, Expr<BitVecSort> length) {
+		return ctx.mkZeroExt(energyWidth - posWidth, length);
+	}
+
+	/*
+	 * The signed t1 - t2 neither overflows nor underflows. Widths from mkWidths are enough for every energy function
+	 * that stays within maxEnergy, but nothing stops the solver from picking a larger one that wraps around, so the
+	 * energy arithmetic is guarded with these. Both guards only use standard SMT-LIB operators (sign_extend, bvsub,
+	 * bvmul), since the assertions are also written out for other solvers: the operation is done on sign-extended
+	 * operands, where it cannot wrap, and compared with the narrow result extended the same way.
+	 */
+	public static BoolExpr mkSubNoWrap(Context ctx, Expr<BitVecSort> t1, Expr<BitVecSort> t2) {
+		return ctx.mkEq(ctx.mkBVSub(ctx.mkSignExt(1, t1), ctx.mkSignExt(1, t2)),
+				ctx.mkSignExt(1, ctx.mkBVSub(t1, t2)));
+	}
+
+	/* The signed t1 x t2 neither overflows nor underflows */
+	public static BoolExpr mkMulNoWrap(Context ctx, Expr<BitVecSort> t1, Expr<BitVecSort> t2) {
+		int width = t1.getSort().getSize();
+		return ctx.mkEq(ctx.mkBVMul(ctx.mkSignExt(width, t1), ctx.mkSignExt(width, t2)),
+				ctx.mkSignExt(width, ctx.mkBVMul(t1, t2)));
+	}
+
+	@Override
+	public String toString() {
+		return "states: " + stateWidth + ", chars: " + charWidth + ", positions: " + posWidth + ", energy: " + energyWidth;
+	}
+}
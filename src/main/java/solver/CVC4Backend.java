@@ -0,0 +1,337 @@
+package solver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.BoolExpr;
+
+/*
+ * Checks the constraints with a cvc4 process: the assertions of the ConstraintsSolver are written to its
+ * stdin as SMT-LIB2 (the same text mkConstraints writes to smtFile), followed by (get-value ...) for d2,
+ * out_len and d1, and the values are parsed back from its stdout.
+ */
+public class CVC4Backend implements SolverBackend {
+	/* Fields/instance variables */
+	String path;
+	long timeout; 	// milliseconds, 0 for none
+
+	/* Process of the check that is running, to interrupt it */
+	volatile Process process;
+	volatile boolean interrupted;
+
+	/* System property with the path of the cvc4 binary */
+	public static final String PATH_PROPERTY = "cvc4.path";
+
+	/* Constructors */
+	public CVC4Backend() {
+		this(findBinary(), 0);
+	}
+
+	public CVC4Backend(String path, long timeout) {
+		this.path = path;
+		this.timeout = timeout;
+	}
+
+	/*
+	 * The cvc4 binary: the cvc4.path system property if it is set, otherwise the first cvc4 on the PATH, otherwise
+	 * the lib/cvc4 of the project, looked up from where the classes were loaded rather than from the working
+	 * directory; null if there is none
+	 */
+	public static String findBinary() {
+		String path = System.getProperty(PATH_PROPERTY);
+		if (path != null) return path;
+
+		String dirs = System.getenv("PATH");
+		if (dirs != null) {
+			for (String dir : dirs.split(File.pathSeparator)) {
+				File binary = new File(dir, "cvc4");
+				if (binary.isFile() && binary.canExecute()) return binary.getAbsolutePath();
+			}
+		}
+
+		CodeSource classes = CVC4Backend.class.getProtectionDomain().getCodeSource();
+		if (classes != null) {
+			try {
+				for (File dir = new File(classes.getLocation().toURI()); dir != null; dir = dir.getParentFile()) {
+					File binary = new File(new File(dir, "lib"), "cvc4");
+					if (binary.isFile() && binary.canExecute()) return binary.getAbsolutePath();
+				}
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				/* not loaded from a file */
+			}
+		}
+		return null;
+	}
+
+	/* Whether the binary exists and can be run */
+	public boolean isAvailable() {
+		return path != null && new File(path).canExecute();
+	}
+
+	public Callable<TransducerModel> prepare(final ConstraintsSolver c, final BoolExpr... assumptions) {
+		final String script = mkScript(c, assumptions);
+		final int numStates = c.numStates;
+		final int alphabetSize = c.alphabetMap.size();
+		final int outputBound = c.outputBound;
+
+		return () -> {
+			return run(script, numStates, alphabetSize, outputBound);
+		};
+	}
+
+	public void interrupt() {
+		interrupted = true;
+		Process current = process;
+		if (current != null) current.destroy();
+	}
+
+	/* SMT-LIB2 script: the assertions of c, the check and the values of d2, out_len and d1 for all q and a */
+	static String mkScript(ConstraintsSolver c, BoolExpr... assumptions) {
+		StringBuilder script = new StringBuilder();
+		script.append("(set-option :produce-models true)\n");
+		script.append("(set-logic ALL)\n");
+		script.append(c.solver.toString());
+		script.append("\n");
+
+		if (assumptions.length == 0) {
+			script.append("(check-sat)\n");
+		} else {
+			script.append("(check-sat-assuming (");
+			for (BoolExpr assumption : assumptions) {
+				script.append(assumption.toString()).append(" ");
+			}
+			script.append("))\n");
+		}
+
+		/* parseModel matches the values back to these terms */
+		script.append("(get-value (");
+		for (int q = 0; q < c.numStates; q++) {
+			for (int a = 0; a < c.alphabetMap.size(); a++) {
+				script.append(c.terms.apply(c.d2, c.terms.num(q, c.stateBV), c.terms.num(a, c.charBV))).append(" ");
+				script.append(c.terms.apply(c.out_len, c.terms.num(q, c.stateBV), c.terms.num(a, c.charBV))).append(" ");
+				for (int l = 0; l < c.outputBound; l++) {
+					script.append(c.terms.apply(c.d1, c.terms.num(q, c.stateBV), c.terms.num(a, c.charBV), c.terms.num(l, c.posBV))).append(" ");
+				}
+			}
+		}
+		script.append("))\n");
+		script.append("(exit)\n");
+
+		return script.toString();
+	}
+
+	/*
+	 * Run cvc4 on the script; returns the model, or null if UNSAT. Only stdout is parsed: stderr is read on its own
+	 * thread, so that warnings neither end up in the response nor fill the pipe, and is only used in error messages.
+	 */
+	TransducerModel run(String script, int numStates, int alphabetSize, int outputBound) throws TimeoutException, IOException, InterruptedException {
+		if (path == null) {
+			throw new TimeoutException("cvc4: no binary, set -D" + PATH_PROPERTY + " or put cvc4 on the PATH");
+		}
+
+		List<String> command = new ArrayList<String>();
+		command.add(path);
+		command.add("--lang=smt2");
+		command.add("--incremental");
+		if (timeout > 0) command.add("--tlimit=" + timeout);
+
+		interrupted = false;
+		process = new ProcessBuilder(command).start();
+		String response;
+		String errors;
+		try {
+			final InputStream stderr = process.getErrorStream();
+			FutureTask<String> errorReader = new FutureTask<String>(() -> {
+				return readAll(stderr);
+			});
+			new Thread(errorReader, "cvc4 stderr").start();
+
+			OutputStream stdin = process.getOutputStream();
+			stdin.write(script.getBytes(StandardCharsets.US_ASCII));
+			stdin.close();
+
+			response = readAll(process.getInputStream());
+			process.waitFor();
+			try {
+				errors = errorReader.get();
+			} catch (ExecutionException e) {
+				errors = e.getCause().toString();
+			}
+		} finally {
+			process = null;
+		}
+
+		if (interrupted) throw new TimeoutException("cvc4: interrupted");
+
+		String result = response.trim().split("\\s+", 2)[0];
+		if (result.equals("unsat")) return null;
+		if (!result.equals("sat")) throw new TimeoutException("cvc4: " + response.trim() + " " + errors.trim());
+
+		return parseModel(response.substring(response.indexOf("sat") + 3), numStates, alphabetSize, outputBound);
+	}
+
+	static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * Parses one s-expression of text from pos[0], advancing pos[0] past it: an atom is a String (a |quoted|
+	 * symbol without its bars), a list is a List of its elements. Returns null at the end of the text.
+	 */
+	static Object parseSExpr(String text, int[] pos) throws TimeoutException {
+		int i = pos[0];
+		while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+		if (i == text.length()) {
+			pos[0] = i;
+			return null;
+		}
+
+		char c = text.charAt(i);
+		if (c == ')') throw new TimeoutException("cvc4: unbalanced get-value response");
+
+		if (c == '(') {
+			List<Object> list = new ArrayList<Object>();
+			pos[0] = i + 1;
+			while (true) {
+				int j = pos[0];
+				while (j < text.length() && Character.isWhitespace(text.charAt(j))) j++;
+				if (j == text.length()) throw new TimeoutException("cvc4: unbalanced get-value response");
+				if (text.charAt(j) == ')') {
+					pos[0] = j + 1;
+					return list;
+				}
+				pos[0] = j;
+				list.add(parseSExpr(text, pos));
+			}
+		}
+
+		if (c == '|') {
+			int close = text.indexOf('|', i + 1);
+			if (close == -1) throw new TimeoutException("cvc4: unbalanced get-value response");
+			pos[0] = close + 1;
+			return text.substring(i + 1, close);
+		}
+
+		int j = i;
+		while (j < text.length() && !Character.isWhitespace(text.charAt(j)) && text.charAt(j) != '(' && text.charAt(j) != ')') j++;
+		pos[0] = j;
+		return text.substring(i, j);
+	}
+
+	/* Value of a bit-vector constant: #b0101, #x5 or (_ bv5 4) */
+	@SuppressWarnings("unchecked")
+	static int bvValue(Object constant) throws TimeoutException {
+		if (constant instanceof String) {
+			String atom = (String) constant;
+			if (atom.startsWith("#b")) return new BigInteger(atom.substring(2), 2).intValue();
+			if (atom.startsWith("#x")) return new BigInteger(atom.substring(2), 16).intValue();
+		} else {
+			List<Object> list = (List<Object>) constant;
+			if (list.size() == 3 && "_".equals(list.get(0)) && list.get(1) instanceof String
+					&& ((String) list.get(1)).startsWith("bv")) {
+				return new BigInteger(((String) list.get(1)).substring(2)).intValue();
+			}
+		}
+		throw new TimeoutException("cvc4: unexpected bit-vector value " + constant);
+	}
+
+	/*
+	 * The response is ((term value) ...) where every term is (f q a) or (d1 q a l): each value is stored under the
+	 * function and the arguments of its own term, so that the order of the entries does not matter, and every
+	 * value that was asked for must be there
+	 */
+	@SuppressWarnings("unchecked")
+	static TransducerModel parseModel(String values, int numStates, int alphabetSize, int outputBound) throws TimeoutException {
+		Object response = parseSExpr(values, new int[] { 0 });
+		if (!(response instanceof List)) {
+			throw new TimeoutException("cvc4: unexpected get-value response");
+		}
+
+		final int[][] d2Vals = new int[numStates][alphabetSize];
+		final int[][] lenVals = new int[numStates][alphabetSize];
+		final int[][][] d1Vals = new int[numStates][alphabetSize][outputBound];
+
+		boolean[][] d2Set = new boolean[numStates][alphabetSize];
+		boolean[][] lenSet = new boolean[numStates][alphabetSize];
+		boolean[][][] d1Set = new boolean[numStates][alphabetSize][outputBound];
+
+		for (Object entry : (List<Object>) response) {
+			if (!(entry instanceof List) || ((List<Object>) entry).size() != 2 || !(((List<Object>) entry).get(0) instanceof List)) {
+				throw new TimeoutException("cvc4: unexpected get-value entry " + entry);
+			}
+			List<Object> term = (List<Object>) ((List<Object>) entry).get(0);
+			int value = bvValue(((List<Object>) entry).get(1));
+
+			Object f = term.isEmpty() ? null : term.get(0);
+			int arity = "d1".equals(f) ? 3 : 2;
+			if (term.size() != arity + 1 || !("d1".equals(f) || "d2".equals(f) || "out_len".equals(f))) {
+				throw new TimeoutException("cvc4: unexpected get-value term " + term);
+			}
+
+			int q = bvValue(term.get(1));
+			int a = bvValue(term.get(2));
+			int l = arity == 3 ? bvValue(term.get(3)) : 0;
+			if (q < 0 || q >= numStates || a < 0 || a >= alphabetSize || l < 0 || (arity == 3 && l >= outputBound)) {
+				throw new TimeoutException("cvc4: get-value term out of range " + term);
+			}
+
+			if (f.equals("d2")) {
+				d2Vals[q][a] = value;
+				d2Set[q][a] = true;
+			} else if (f.equals("out_len")) {
+				lenVals[q][a] = value;
+				lenSet[q][a] = true;
+			} else {
+				d1Vals[q][a][l] = value;
+				d1Set[q][a][l] = true;
+			}
+		}
+
+		for (int q = 0; q < numStates; q++) {
+			for (int a = 0; a < alphabetSize; a++) {
+				if (!d2Set[q][a] || !lenSet[q][a]) {
+					throw new TimeoutException("cvc4: no value for d2 or out_len at (" + q + ", " + a + ")");
+				}
+				for (int l = 0; l < outputBound; l++) {
+					if (!d1Set[q][a][l]) {
+						throw new TimeoutException("cvc4: no value for d1 at (" + q + ", " + a + ", " + l + ")");
+					}
+				}
+			}
+		}
+
+		return new TransducerModel() {
+			public int d2(int q, int a) {
+				return d2Vals[q][a];
+			}
+
+			public int outLen(int q, int a) {
+				return lenVals[q][a];
+			}
+
+			public int d1(int q, int a, int index) {
+				return d1Vals[q][a][index];
+			}
+		};
+	}
+}
@@ -534,14 +534,12 @@ public class Constraints {
 						Expr cExpr = energy.apply(qR, q, qT);
 						
 						for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
+							if (inputArr[i] != alphabetMap.get(move)) continue; 	// only positions where this transition reads input[i+1]
+							
 							for (int j = 0; j <= outputLen; j++) {	// but output is already completely generated
 								Expr<IntSort> inputPosition = ctx.mkInt(i);
 								Expr<IntSort> outputPosition = ctx.mkInt(j);
 								
-								/* input[i+1] = a */
-								Expr nextInputPosition = ctx.mkInt(inputArr[i]);
-								Expr inputEq = ctx.mkEq(nextInputPosition, a);
-								
 								/* output needs be <= outputLen - j */
 								int possibleOutputLen = Math.min(outputLen - j, length);
 								Expr possibleOutputLength = ctx.mkInt(possibleOutputLen);
@@ -591,7 +589,7 @@ public class Constraints {
 								
 								
 								/* make big constraint */
-								Expr antecedent = ctx.mkAnd(eExpr, xExpr, inputEq);
+								Expr antecedent = ctx.mkAnd(eExpr, xExpr);
 								solver.add(ctx.mkImplies(antecedent, consequent));
 							}
 						}
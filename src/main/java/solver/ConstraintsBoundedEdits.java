@@ -97,154 +97,162 @@ public class ConstraintsBoundedEdits {
 			SFA<CharPred, Character> source, SFA<CharPred, Character> target, int numStates, int length, int numEdits, 
 			List<Pair<String, String>> ioExamples, SFA<CharPred, Character> template, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba, 
 			String smtFile, boolean debug) throws TimeoutException {
-		/* bit-vec and bool sorts */
-		BitVecSort BV = ctx.mkBitVecSort(8);
+		/* bit-vec and bool sorts, wide enough for the states, alphabet, examples and energy values */
+		long productStates = (long) numStates * source.stateCount() * target.stateCount();
+		BitWidths widths = BitWidths.mkWidths(source, target, numStates, length, alphabetMap.size(), ioExamples, 
+				new int[] { numEdits, 1 }, productStates);
+		BitVecSort stateBV = ctx.mkBitVecSort(widths.stateWidth);
+		BitVecSort charBV = ctx.mkBitVecSort(widths.charWidth);
+		BitVecSort posBV = ctx.mkBitVecSort(widths.posWidth);
+		BitVecSort energyBV = ctx.mkBitVecSort(widths.energyWidth);
 		Sort B = ctx.getBoolSort();
 		
+		/* numerals and applications are built once and shared by all constraints */
+		TermCache terms = new TermCache(ctx);
+		
 		/* some useful constants */
-		BitVecExpr numStatesInt = (BitVecNum) ctx.mkNumeral(numStates, BV);
-		BitVecExpr alphabetSize = (BitVecNum) ctx.mkNumeral(alphabetMap.size(), BV);
-		BitVecExpr zero = (BitVecNum) ctx.mkNumeral(0, BV);
-		BitVecExpr bound = (BitVecNum) ctx.mkNumeral(length, BV);
-		BitVecExpr editsBound = (BitVecNum) ctx.mkNumeral(numEdits, BV);
+		BitVecExpr numStatesInt = terms.num(numStates, stateBV);
+		BitVecExpr alphabetSize = terms.num(alphabetMap.size(), charBV);
+		BitVecExpr initState = terms.num(0, stateBV);
+		BitVecExpr posZero = terms.num(0, posBV);
+		BitVecExpr energyZero = terms.num(0, energyBV);
+		BitVecExpr bound = terms.num(length, posBV);
+		BitVecExpr editsBound = terms.num(numEdits, energyBV);
 		
 		/* declare d_1:  */
-		Sort[] argsToD1 = new Sort[]{ BV, BV, BV };
-		FuncDecl<BitVecSort> d1 = ctx.mkFuncDecl("d1", argsToD1, BV);
+		Sort[] argsToD1 = new Sort[]{ stateBV, charBV, posBV };
+		FuncDecl<BitVecSort> d1 = ctx.mkFuncDecl("d1", argsToD1, charBV);
 		
 		/* declare out_len */
-		Sort[] argsToOutLen = new Sort[]{ BV, BV };
-		FuncDecl<BitVecSort> out_len = ctx.mkFuncDecl("out_len", argsToOutLen, BV);
+		Sort[] argsToOutLen = new Sort[]{ stateBV, charBV };
+		FuncDecl<BitVecSort> out_len = ctx.mkFuncDecl("out_len", argsToOutLen, posBV);
 		
 		/* declare d_2 : Q x \Sigma -> Q */
-		Sort[] argsToD2 = new Sort[]{ BV, BV };
-		FuncDecl<BitVecSort> d2 = ctx.mkFuncDecl("d2", argsToD2, BV);
+		Sort[] argsToD2 = new Sort[]{ stateBV, charBV };
+		FuncDecl<BitVecSort> d2 = ctx.mkFuncDecl("d2", argsToD2, stateBV);
 		
 		/* restrict range of d_1, d_2 and out_len */
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int move : alphabetMap.values())  {
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+				BitVecExpr a = terms.num(move, charBV);
 				
 				/* 0 <= out_len(q, a) <= l */
-				Expr outLenExpr = out_len.apply(q, a);
-				solver.add(ctx.mkBVSLE(zero, outLenExpr));
-				solver.add(ctx.mkBVSLE(outLenExpr, bound));
+				Expr outLenExpr = terms.apply(out_len, q, a);
+				solver.add(ctx.mkBVULE(outLenExpr, bound));
 				
 				/* make variable q' = d2(q, a) */
-				Expr qPrime = d2.apply(q, a);
+				Expr qPrime = terms.apply(d2, q, a);
 				
 				/* 0 <= qPrime < numStates; range only needs to be encoded once */
-				solver.add(ctx.mkBVSLE(zero, qPrime));
-				solver.add(ctx.mkBVSLT(qPrime, numStatesInt));
+				solver.add(ctx.mkBVULT(qPrime, numStatesInt));
 				
 				for (int l = 0; l < length; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr d1exp = terms.apply(d1, q, a, index);
 					
 					/* 0 <= d1(q, a, index) < alphabetSize */
-					solver.add(ctx.mkBVSLE(zero, d1exp));
-					solver.add(ctx.mkBVSLT(d1exp, alphabetSize)); 
+					solver.add(ctx.mkBVULT(d1exp, alphabetSize)); 
 				}
 			}
 		}
 		
 		/* declare x : Q_R x Q x Q_T -> {1, 0} */
-		Sort[] argsToX = new Sort[]{ BV, BV, BV };
+		Sort[] argsToX = new Sort[]{ stateBV, stateBV, stateBV };
 		FuncDecl<Sort> x = ctx.mkFuncDecl("x", argsToX, B);
 		
 		/* initial states: x(q^0_R, q^0, q^0_T) */
-		BitVecExpr sourceInit = (BitVecNum) ctx.mkNumeral(source.getInitialState(), BV);
-		BitVecExpr targetInit = (BitVecNum) ctx.mkNumeral(target.getInitialState(), BV);
-		Expr res = x.apply(sourceInit, zero, targetInit);
+		BitVecExpr sourceInit = terms.num(source.getInitialState(), stateBV);
+		BitVecExpr targetInit = terms.num(target.getInitialState(), stateBV);
+		Expr res = terms.apply(x, sourceInit, initState, targetInit);
 		solver.add(res);
 		
 		/* d_R: transition relation of source */
-		Sort[] argsToDR = new Sort[]{ BV, BV };
-		FuncDecl<BitVecSort> dR = ctx.mkFuncDecl("dR", argsToDR, BV);
+		Sort[] argsToDR = new Sort[]{ stateBV, charBV };
+		FuncDecl<BitVecSort> dR = ctx.mkFuncDecl("dR", argsToDR, stateBV);
 		
 		/* encode d_R */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (SFAMove<CharPred, Character> transition : sourceTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.num(stateFrom, stateBV);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.num(stateTo, stateBV);
 			
-			Expr dexp = dR.apply(q1, a);
+			Expr dexp = terms.apply(dR, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* d_T: transition relation of target */
-		Sort[] argsToDT = new Sort[]{ BV, BV };
-		FuncDecl<BitVecSort> dT = ctx.mkFuncDecl("dT", argsToDT, BV);
+		Sort[] argsToDT = new Sort[]{ stateBV, charBV };
+		FuncDecl<BitVecSort> dT = ctx.mkFuncDecl("dT", argsToDT, stateBV);
 		
 		/* encode d_T */
 		Collection<SFAMove<CharPred, Character>> targetTransitions = target.getTransitions();
 		for (SFAMove<CharPred, Character> transition : targetTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.num(stateFrom, stateBV);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.num(stateTo, stateBV);
 			
-			Expr dexp = dT.apply(q1, a);
+			Expr dexp = terms.apply(dT, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* declare f_R : Q -> {0, 1} */
-		FuncDecl<Sort> f_R = ctx.mkFuncDecl("f_R", BV, B);
+		FuncDecl<Sort> f_R = ctx.mkFuncDecl("f_R", stateBV, B);
 		for (Integer sourceState : source.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-			Expr c = f_R.apply(stateInt);
+			BitVecExpr stateInt = terms.num(sourceState, stateBV);
+			Expr c = terms.apply(f_R, stateInt);
 			if (!source.isFinalState(sourceState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
 		
 		/* declare f_T : Q -> {0, 1} */
-		FuncDecl<Sort> f_T = ctx.mkFuncDecl("f_T", BV, B);
+		FuncDecl<Sort> f_T = ctx.mkFuncDecl("f_T", stateBV, B);
 		for (Integer targetState : target.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-			Expr c = f_T.apply(stateInt);
+			BitVecExpr stateInt = terms.num(targetState, stateBV);
+			Expr c = terms.apply(f_T, stateInt);
 			if (!target.isFinalState(targetState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
 		
 		/* declare edit-dist: Q x \Sigma -> Z */
-		Sort[] argsToEd = new Sort[]{ BV, BV };
-		FuncDecl<BitVecSort> edDist = ctx.mkFuncDecl("ed_dist", argsToEd, BV);
+		Sort[] argsToEd = new Sort[]{ stateBV, charBV };
+		FuncDecl<BitVecSort> edDist = ctx.mkFuncDecl("ed_dist", argsToEd, energyBV);
 		
 		/* declare C: Q_R x Q x Q_T -> Z */
-		Sort[] argsToC = new Sort[]{ BV, BV, BV };
-		FuncDecl<BitVecSort> energy = ctx.mkFuncDecl("C", argsToC, BV);
+		Sort[] argsToC = new Sort[]{ stateBV, stateBV, stateBV };
+		FuncDecl<BitVecSort> energy = ctx.mkFuncDecl("C", argsToC, energyBV);
 		
 		/* C(q^0_R, q^0, q^0_T) = numEdits */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), editsBound));
+		solver.add(ctx.mkEq(terms.apply(energy, initState, initState, initState), editsBound));
 		
 		
 		/* edit-distance constraints */
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 				
 				/* make variable out_len(q, a) */
-				Expr outLenExpr = out_len.apply(q, a);
+				Expr outLenExpr = terms.apply(out_len, q, a);
 				
 				/* make variable ed_dist(q, a) */
-				Expr edDistExpr = edDist.apply(q, a);
+				Expr edDistExpr = terms.apply(edDist, q, a);
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 				
@@ -255,10 +263,10 @@ public class ConstraintsBoundedEdits {
 				Expr disjunct = ctx.mkFalse();
 				
 				for (int l = 0; l < length; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp;
-					Expr lt = ctx.mkBVSLT(index, outLenExpr);
+					Expr lt = ctx.mkBVULT(index, outLenExpr);
 					Expr eq = ctx.mkEq(a, d1exp);
 					disjunct = ctx.mkOr(disjunct, ctx.mkAnd(lt, eq));
 				}
@@ -267,17 +275,17 @@ public class ConstraintsBoundedEdits {
 				Expr negDisjunct = ctx.mkNot(disjunct);
 				
 				/* (k = 0) ==> ed_dist(q, a) = 1 */
-				Expr lenEq = ctx.mkEq(outLenExpr, zero);
-				Expr edDistEqOne = ctx.mkEq(edDistExpr, ctx.mkNumeral(1, BV));
+				Expr lenEq = ctx.mkEq(outLenExpr, posZero);
+				Expr edDistEqOne = ctx.mkEq(edDistExpr, terms.num(1, energyBV));
 				Expr impl1 = ctx.mkImplies(lenEq, edDistEqOne);
 				
 				/* \neg (k = 0) ==> ed_dist(q, a) = k - 1 */
 				Expr lenNotZero = ctx.mkNot(lenEq);
-				Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, ctx.mkNumeral(1, BV))); 	
+				Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(widths.toEnergy(ctx, outLenExpr), terms.num(1, energyBV))); 	
 				Expr impl2 = ctx.mkImplies(lenNotZero, edDistKMinus1);
 				
 				/* \neg (k = 0) ==> ed_dist(q, a) = k */
-				Expr edDistK = ctx.mkEq(edDistExpr, outLenExpr); 
+				Expr edDistK = ctx.mkEq(edDistExpr, widths.toEnergy(ctx, outLenExpr)); 
 				Expr impl3 = ctx.mkImplies(lenNotZero, edDistK);
 				
 				/* ed_dist constraint 1 */
@@ -291,23 +299,23 @@ public class ConstraintsBoundedEdits {
 		}
 		
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 				
 				/* out_len(q, a) */
-				Expr outLenExpr = out_len.apply(q, a);
+				Expr outLenExpr = terms.apply(out_len, q, a);
 					
 				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr qRPrime = dR.apply(qR, a);
+				Expr qRPrime = terms.apply(dR, qR, a);
 				
 				
 				/* make variable q' = d2(q, a) */
-				Expr qPrime = d2.apply(q, a);
+				Expr qPrime = terms.apply(d2, q, a);
 							
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -316,16 +324,16 @@ public class ConstraintsBoundedEdits {
 				Expr[] outputChars = new Expr[length];
 				
 				for (int l = 0; l < length; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp; 
 				}
 				
 				/* ed_dist(q, a) */
-				Expr edDistExpr = edDist.apply(q, a);
+				Expr edDistExpr = terms.apply(edDist, q, a);
 				
 				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+					BitVecExpr qT = terms.num(targetFrom, stateBV);
 					
 					
 					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -333,28 +341,28 @@ public class ConstraintsBoundedEdits {
 					/* make array of destination states in target */
 					Expr[] dstStates = new Expr[length];
 					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
+					dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 					for (int l = 1; l < length; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+						dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 					}
 					
 					
 					/* x(q_R, q, q_T) */
-					Expr xExpr = x.apply(qR, q, qT);
+					Expr xExpr = terms.apply(x, qR, q, qT);
 		
 					/* C(q_R, q, q_T) */
-					Expr cExpr = energy.apply(qR, q, qT);
+					Expr cExpr = terms.apply(energy, qR, q, qT);
 					
 					/* expressions for implications: out_len(q, a) = 0 ==> 
 					 * x(qR', q', qT) /\ C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
 					
 					/* special case for 0 */
-					Expr lenEq = ctx.mkEq(outLenExpr, zero);
-					Expr xExprPrime = x.apply(qRPrime, qPrime, qT);
+					Expr lenEq = ctx.mkEq(outLenExpr, posZero);
+					Expr xExprPrime = terms.apply(x, qRPrime, qPrime, qT);
 					
 					/* C(qRPrime, qPrime, qT) = C(q_R, q, q_T) - ed_dist(q, a) */
-					Expr cExprPrime = energy.apply(qRPrime, qPrime, qT);
-					Expr cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
+					Expr cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
+					Expr cNewExpr = ctx.mkAnd(ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr)), BitWidths.mkSubNoWrap(ctx, cExpr, edDistExpr));
 					
 					Expr c = ctx.mkImplies(lenEq, ctx.mkAnd(xExprPrime, cNewExpr));
 					
@@ -363,11 +371,11 @@ public class ConstraintsBoundedEdits {
 					Expr consequent = c;
 					for (int l = 0; l < length; l++) {
 						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
-						xExprPrime = x.apply(qRPrime, qPrime, dstStates[l]);
+						lenEq = ctx.mkEq(outLenExpr, terms.num(outputLength, posBV));
+						xExprPrime = terms.apply(x, qRPrime, qPrime, dstStates[l]);
 						
-						cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
-						cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
+						cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
+						cNewExpr = ctx.mkAnd(ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr)), BitWidths.mkSubNoWrap(ctx, cExpr, edDistExpr));
 						
 						c = ctx.mkImplies(lenEq, ctx.mkAnd(xExprPrime, cNewExpr));
 						consequent = ctx.mkAnd(consequent, c);
@@ -385,21 +393,21 @@ public class ConstraintsBoundedEdits {
 		for (int i = 0; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
 				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+					BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+					BitVecExpr stateInt = terms.num(i, stateBV);
+					BitVecExpr targetInt = terms.num(targetState, stateBV);
 					
-					Expr xExpr = x.apply(sourceInt, stateInt, targetInt);
-					Expr fRExp = f_R.apply(sourceInt);
+					Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt);
+					Expr fRExp = terms.apply(f_R, sourceInt);
 					Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 					
-					Expr fTExp = f_T.apply(targetInt);
+					Expr fTExp = terms.apply(f_T, targetInt);
 					Expr consequent = fTExp;
 					Expr c = ctx.mkImplies(antecedent, consequent);
 					solver.add(c);
 					
-					Expr cExpr = energy.apply(sourceInt, stateInt, targetInt);
-					Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
+					Expr cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
+					Expr cGreaterExp = ctx.mkBVSGE(cExpr, energyZero);
 					solver.add(cGreaterExp);
 				}
 			}
@@ -408,10 +416,11 @@ public class ConstraintsBoundedEdits {
 		/* BV Pair datatype */
 		TupleSort pair = ctx.mkTupleSort(ctx.mkSymbol("mkPair"), // name of tuple constructor
 				 							new Symbol[] { ctx.mkSymbol("first"), ctx.mkSymbol("second") }, // names of projection operators
-				 							new Sort[] { BV, BV } // types of projection operators
+				 							new Sort[] { posBV, stateBV } // types of projection operators
 				 						);
 		FuncDecl first = pair.getFieldDecls()[0]; // declarations are for projections
 		FuncDecl second = pair.getFieldDecls()[1];
+		FuncDecl mkPair = pair.mkDecl();
 		
 		/* example constraints */
 		FuncDecl[] eFuncs = new FuncDecl[ioExamples.size()];
@@ -426,56 +435,54 @@ public class ConstraintsBoundedEdits {
 			int[] outputArr = stringToIntArray(alphabetMap, ioExample.second);
 			
 			/* declare function e_k: k x input_position -> (output_position, Q) */
-			Sort[] args = new Sort[] {BV};
+			Sort[] args = new Sort[] {posBV};
 			eFuncs[exampleCount] = ctx.mkFuncDecl("e " + String.valueOf(exampleCount), args, pair);
 			FuncDecl e = eFuncs[exampleCount];
 			
 			/* initial position : e_k(0) = (0, q_0) */
-			Expr initPair = pair.mkDecl().apply(zero, zero);
-			solver.add(ctx.mkEq(e.apply(zero), initPair));
+			Expr initPair = terms.apply(mkPair, posZero, initState);
+			solver.add(ctx.mkEq(terms.apply(e, posZero), initPair));
 			
 			int inputLen = ioExample.first.length();
-			BitVecExpr inputLength = (BitVecNum) ctx.mkNumeral(inputLen, BV);
+			BitVecExpr inputLength = terms.num(inputLen, posBV);
 			int outputLen = ioExample.second.length();
-			BitVecExpr outputLength = (BitVecNum) ctx.mkNumeral(outputLen, BV);
+			BitVecExpr outputLength = terms.num(outputLen, posBV);
 			
 			/* 0 <= e_k(l1).first <= outputLen and 0 <= e_k(l1).second < numStates */
 			for (int l = 0; l <= inputLen; l++) {
-					Expr eExpr = e.apply((BitVecNum) ctx.mkNumeral(l, BV));
-					Expr eExprFirst = first.apply(eExpr);
-					Expr eExprSecond = second.apply(eExpr);
+					Expr eExpr = terms.apply(e, terms.num(l, posBV));
+					Expr eExprFirst = terms.apply(first, eExpr);
+					Expr eExprSecond = terms.apply(second, eExpr);
 					
 					/* restrict values of first */
-					solver.add(ctx.mkBVSLE(zero, eExprFirst));
-					solver.add(ctx.mkBVSLE(eExprFirst, outputLength));
+					solver.add(ctx.mkBVULE(eExprFirst, outputLength));
 					
 					/* restrict values of second */
-					solver.add(ctx.mkBVSLE(zero, eExprSecond));
-					solver.add(ctx.mkBVSLT(eExprSecond, numStatesInt));
+					solver.add(ctx.mkBVULT(eExprSecond, numStatesInt));
 			}
 			
 			/* final position : e_k(l1).first = l2 */
-			Expr eExprFirst = first.apply(e.apply(inputLength));
+			Expr eExprFirst = terms.apply(first, terms.apply(e, inputLength));
 			solver.add(ctx.mkEq(eExprFirst, outputLength));
 			
 			for (int s = 0; s < numStates; s++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(s, BV);
+				BitVecExpr q = terms.num(s, stateBV);
 					
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.num(stateFrom, stateBV);
+					BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 					
 					/* out_len(q, a) */
-					Expr outLenExpr = out_len.apply(q, a);
+					Expr outLenExpr = terms.apply(out_len, q, a);
 						
 					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					Expr qRPrime = dR.apply(qR, a);
+					Expr qRPrime = terms.apply(dR, qR, a);
 					
 					
 					/* make variable q' = d2(q, a) */
-					Expr qPrime = d2.apply(q, a);
+					Expr qPrime = terms.apply(d2, q, a);
 								
 					
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -484,62 +491,60 @@ public class ConstraintsBoundedEdits {
 					Expr[] outputChars = new Expr[length];
 					
 					for (int l = 0; l < length; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, a, index);
+						BitVecExpr index = terms.num(l, posBV);
+						Expr d1exp = terms.apply(d1, q, a, index);
 						outputChars[l] = d1exp;
 					}
 					
 					/* ed_dist(q, a) */
-					Expr edDistExpr = edDist.apply(q, a);
+					Expr edDistExpr = terms.apply(edDist, q, a);
 					
 					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+						BitVecExpr qT = terms.num(targetFrom, stateBV);
 						
 						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
 						
 						/* make array of destination states in target */
 						Expr[] dstStates = new Expr[length];
 						
-						dstStates[0] = dT.apply(qT, outputChars[0]);
+						dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 						for (int l = 1; l < length; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]);
+							dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]);
 						}
 						
 						/* x(q_R, q, q_T) */
-						Expr xExpr = x.apply(qR, q, qT);
+						Expr xExpr = terms.apply(x, qR, q, qT);
 						
 						/* C(q_R, q, q_T) */
-						Expr cExpr = energy.apply(qR, q, qT);
+						Expr cExpr = terms.apply(energy, qR, q, qT);
 						
 						for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
+							if (inputArr[i] != alphabetMap.get(move)) continue; 	// only positions where this transition reads input[i+1]
+							
 							for (int j = 0; j <= outputLen; j++) {	// but output is already completely generated
-								BitVecExpr inputPosition = (BitVecNum) ctx.mkNumeral(i, BV);
-								BitVecExpr outputPosition = (BitVecNum) ctx.mkNumeral(j, BV);
-								
-								/* input[i+1] = a */
-								BitVecExpr nextInputPosition = (BitVecNum) ctx.mkNumeral(inputArr[i], BV);
-								Expr inputEq = ctx.mkEq(nextInputPosition, a);
+								BitVecExpr inputPosition = terms.num(i, posBV);
+								BitVecExpr outputPosition = terms.num(j, posBV);
 								
 								/* output needs be <= outputLen - j */
 								int possibleOutputLen = Math.min(outputLen - j, length);
-								BitVecExpr possibleOutputLength = (BitVecNum) ctx.mkNumeral(possibleOutputLen, BV);
+								BitVecExpr possibleOutputLength = terms.num(possibleOutputLen, posBV);
 								
-								Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
+								Expr outputLe = ctx.mkBVULE(outLenExpr, possibleOutputLength);
 								
 								/* e_k(i) = (j, q) */
-								Expr eExpr = ctx.mkEq(e.apply(inputPosition), pair.mkDecl().apply(outputPosition, q));
+								Expr eExpr = ctx.mkEq(terms.apply(e, inputPosition), terms.apply(mkPair, outputPosition, q));
 								
 								/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') 
 								 * /\ x(qR', q', qT) /\ C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
 								
 								/* special case for 0 */
-								Expr lenEq = ctx.mkEq(outLenExpr, zero);
-								Expr eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), pair.mkDecl().apply(outputPosition, qPrime));
-								Expr xExprPrime = x.apply(qRPrime, qPrime, qT);
+								Expr lenEq = ctx.mkEq(outLenExpr, posZero);
+								Expr eExprPrime = ctx.mkEq(terms.apply(e, terms.num(i + 1, posBV)), terms.apply(mkPair, outputPosition, qPrime));
+								Expr xExprPrime = terms.apply(x, qRPrime, qPrime, qT);
 								
 								/* C(qRPrime, qPrime, qT) = C(q_R, q, q_T) - ed_dist(q, a) */
-								Expr cExprPrime = energy.apply(qRPrime, qPrime, qT);
-								Expr cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
+								Expr cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
+								Expr cNewExpr = ctx.mkAnd(ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr)), BitWidths.mkSubNoWrap(ctx, cExpr, edDistExpr));
 								
 								Expr c = ctx.mkImplies(lenEq, ctx.mkAnd(eExprPrime, xExprPrime, cNewExpr));
 								
@@ -547,20 +552,20 @@ public class ConstraintsBoundedEdits {
 								Expr consequent = ctx.mkAnd(outputLe, c);
 								for (int l = 0; l < possibleOutputLen; l++) { 
 									int outputGenLength = l + 1;
-									lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputGenLength, BV));
-									eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-											pair.mkDecl().apply((BitVecNum) ctx.mkNumeral(j + outputGenLength, BV), qPrime));
-									xExprPrime = x.apply(qRPrime, qPrime, dstStates[l]);
+									lenEq = ctx.mkEq(outLenExpr, terms.num(outputGenLength, posBV));
+									eExprPrime = ctx.mkEq(terms.apply(e, terms.num(i + 1, posBV)), 
+											terms.apply(mkPair, terms.num(j + outputGenLength, posBV), qPrime));
+									xExprPrime = terms.apply(x, qRPrime, qPrime, dstStates[l]);
 									
 									/* C(qRPrime, qPrime, qT) = C(q_R, q, q_T) - ed_dist(q, a) */
-									cExprPrime = energy.apply(qRPrime, qPrime, qT);
-									cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
+									cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
+									cNewExpr = ctx.mkAnd(ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr)), BitWidths.mkSubNoWrap(ctx, cExpr, edDistExpr));
 									
 									/* equalities */
 									Expr stringEqualities = ctx.mkTrue();
 									for (int inc = 1; inc <= outputGenLength; inc++) {
 										int index = (j + inc) - 1;
-										BitVecExpr nextPosition = (BitVecNum) ctx.mkNumeral(outputArr[index], BV);
+										BitVecExpr nextPosition = terms.num(outputArr[index], charBV);
 										Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
 										stringEqualities = ctx.mkAnd(stringEqualities, eq);
 									}
@@ -571,7 +576,7 @@ public class ConstraintsBoundedEdits {
 								
 								
 								/* make big constraint */
-								Expr antecedent = ctx.mkAnd(eExpr, xExpr, inputEq);
+								Expr antecedent = ctx.mkAnd(eExpr, xExpr);
 								solver.add(ctx.mkImplies(antecedent, consequent));
 							}
 						}
@@ -591,11 +596,11 @@ public class ConstraintsBoundedEdits {
 				Character move = transition.getWitness(ba);
 				Integer stateTo = transition.to;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
+				BitVecExpr qPrime = terms.num(stateTo, stateBV);
 				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+				solver.add(ctx.mkEq(terms.apply(d2, q, a), qPrime));
 			}
 		}
 		
@@ -630,25 +635,25 @@ public class ConstraintsBoundedEdits {
 				
 				/* d1 and d2 */	
 				for (int q1 = 0; q1 < numStates; q1++) {
-					BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
+					BitVecExpr state = terms.num(q1, stateBV);
 					
 					for (int move : alphabetMap.values())  { 
 						Character input = revAlphabetMap.get(move);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+						BitVecExpr a = terms.num(move, charBV); 
 						
 						/* get state to */
-						Expr d2exp = d2.apply(state, a);
+						Expr d2exp = terms.apply(d2, state, a);
 						int q2 = ((BitVecNum) m.evaluate(d2exp, false)).getInt();
 						
 						/* output_len */
-						Expr outputLenExpr = out_len.apply(state, a);
+						Expr outputLenExpr = terms.apply(out_len, state, a);
 						int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 						
 						/* get output */
 						StringBuilder outputStr = new StringBuilder("");
 						for (int i = 0; i < outputLen; i++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-							Expr d1exp = d1.apply(state, a, index);
+							BitVecExpr index = terms.num(i, posBV);
+							Expr d1exp = terms.apply(d1, state, a, index);
 							int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 							Character output = revAlphabetMap.get(outMove);
 							outputStr.append(output);
@@ -658,7 +663,7 @@ public class ConstraintsBoundedEdits {
 						System.out.println("d(" + q1 + ", " + input + ", " + outputStr + ", " + q2 + ")");
 						
 						/* edit-distance of transitions */
-						Expr edDistExpr = edDist.apply(state, a);
+						Expr edDistExpr = terms.apply(edDist, state, a);
 						int editDist = ((BitVecNum) m.evaluate(edDistExpr, false)).getInt();
 						System.out.println("edit-distance(" + q1 + ", " + input + ", " + outputStr + ") = " + editDist);
 					}
@@ -668,12 +673,12 @@ public class ConstraintsBoundedEdits {
 				for (int i = 0; i < numStates; i++) {
 					for (Integer sourceState : source.getStates()) {
 						for (Integer targetState : target.getStates()) {
-							BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-							BitVecNum stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-							BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+							BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+							BitVecNum stateInt = terms.num(i, stateBV);
+							BitVecExpr targetInt = terms.num(targetState, stateBV);
 								
-							Expr exp1 = x.apply(sourceInt, stateInt, targetInt);
-							Expr exp2 = energy.apply(sourceInt, stateInt, targetInt);
+							Expr exp1 = terms.apply(x, sourceInt, stateInt, targetInt);
+							Expr exp2 = terms.apply(energy, sourceInt, stateInt, targetInt);
 							if (m.evaluate(exp1, false).isTrue()) {
 								System.out.println("x(" + sourceState + ", " + stateInt.getInt() + ", " + targetState + ")");
 								int energyVal = ((BitVecNum) m.evaluate(exp2, false)).getInt();
@@ -695,18 +700,18 @@ public class ConstraintsBoundedEdits {
 					Character move = transition.getWitness(ba);
 					Integer stateTo = transition.to;
 					
-					BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr q1 = terms.num(stateFrom, stateBV);
+					BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 					
 					/* output_len */
-					Expr outputLenExpr = out_len.apply(q1, a);
+					Expr outputLenExpr = terms.apply(out_len, q1, a);
 					int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 								
 					/* get output */
 					List<CharFunc> outputFunc = new ArrayList<CharFunc>();
 					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr d1exp = d1.apply(q1, a, index);
+						BitVecExpr index = terms.num(i, posBV);
+						Expr d1exp = terms.apply(d1, q1, a, index);
 						int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 						Character output = revAlphabetMap.get(outMove);
 						outputFunc.add(new CharConstant(output));
@@ -720,22 +725,22 @@ public class ConstraintsBoundedEdits {
 				for (int q1 = 0; q1 < numStates; q1++) {
 					for (int move : alphabetMap.values())  { 
 						Character input = revAlphabetMap.get(move);
-						BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+						BitVecExpr state = terms.num(q1, stateBV);
+						BitVecExpr a = terms.num(move, charBV); 
 							
 						/* get state to */
-						Expr d2exp = d2.apply(state, a);
+						Expr d2exp = terms.apply(d2, state, a);
 						int q2 = ((BitVecNum) m.evaluate(d2exp, false)).getInt();
 										
 						/* output_len */
-						Expr outputLenExpr = out_len.apply(state, a);
+						Expr outputLenExpr = terms.apply(out_len, state, a);
 						int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 										
 						/* get output */
 						List<CharFunc> outputFunc = new ArrayList<CharFunc>();
 						for (int i = 0; i < outputLen; i++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-							Expr d1exp = d1.apply(state, a, index);
+							BitVecExpr index = terms.num(i, posBV);
+							Expr d1exp = terms.apply(d1, state, a, index);
 							int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 							Character output = revAlphabetMap.get(outMove);
 							outputFunc.add(new CharConstant(output));
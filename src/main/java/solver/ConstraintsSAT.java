@@ -0,0 +1,753 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+import automata.fst.FSTTemplate;
+import automata.sfa.SFA;
+import automata.sfa.SFAMove;
+import theory.BooleanAlgebraSubst;
+import theory.characters.CharConstant;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+import transducers.sft.SFTMove;
+import utilities.Pair;
+
+/*
+ * SAT backend for the encoding of ConstraintsSolver. After minterm finitization everything but the energy is
+ * finite, so d2, out_len, d1, ed_dist, x and e_k are bit-blasted into one-hot Boolean variables, and the energy
+ * C(q_R, q, q_T) is a two's complement number, of the width BitWidths gives the energy sort, updated through
+ * ripple-carry adders and comparators: its clauses grow with the number of bits rather than with the range of
+ * the energy. The CNF is solved with sat4j, without going through Z3.
+ */
+public class ConstraintsSAT {
+	/* Fields/instance variables */
+	ISolver solver;
+	SFA<CharPred, Character> source;
+	SFA<CharPred, Character> target;
+	int numStates;
+	int outputBound;
+	String distanceType;
+	int[] distance;
+	List<Pair<String, String>> ioExamples;
+	SFA<CharPred, Character> template;
+	FSTTemplate ftTemplate;
+	SFT<CharPred, CharFunc, Character> solution;
+	Set<Character> alphabet;
+	HashMap<Character, Integer> alphabetMap;
+	Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterms;
+	BooleanAlgebraSubst<CharPred, CharFunc, Character> ba;
+
+	/* Config: which constraints are added to the solver */
+	ArrayList<Boolean> config;
+		// 0: examples, 1: types, 2: distance
+
+	/* Variable that is always true; -trueVar is false */
+	int trueVar;
+
+	/* Set if a clause was added that is already false, the CNF is then UNSAT */
+	boolean contradiction;
+
+	/* Source state -> target states that can occur together with it in a run */
+	Map<Integer, Set<Integer>> feasiblePairs;
+
+	/* Target states by index, and d_T on indices; targetStates.size() is a dead state for missing transitions */
+	List<Integer> targetStates;
+	HashMap<Integer, Integer> targetIndex;
+	int[][] targetDelta;
+
+	/* One-hot variables: d2Vars[q][a][q'], lenVars[q][a][k], d1Vars[q][a][l][b] and edDistVars[q][a][v] */
+	int[][][] d2Vars;
+	int[][][] lenVars;
+	int[][][][] d1Vars;
+	int[][][] edDistVars;
+
+	/* x(q_R, q, q_T) and the bits of C(q_R, q, q_T), least significant first, allocated when first used */
+	HashMap<List<Integer>, Integer> xVars;
+	HashMap<List<Integer>, int[]> energyVars;
+	int energyWidth;
+
+	/* Bits of ed_dist(q, a) (bounded) or of m - (n x ed_dist(q, a)) (mean), as energy values */
+	int[][][] edDistBits;
+
+	/* (q, a, q_T) -> one variable per target state (and the dead state) that holds after the output of (q, a) from q_T */
+	HashMap<List<Integer>, int[]> afterOutputVars;
+
+
+	/* Constructor */
+	public ConstraintsSAT(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			HashMap<Character, Integer> alphabetMap, int numStates, int outputBound,
+			List<Pair<String, String>> ioExamples,
+			String distanceType, int[] distance, SFA<CharPred, Character> template,
+			FSTTemplate ftTemplate, SFT<CharPred, CharFunc, Character> solution,
+			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config,
+			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) {
+		this.solver = SolverFactory.newDefault();
+		this.source = source;
+		this.target = target;
+		this.alphabet = alphabetMap.keySet();
+		this.numStates = numStates;
+		this.outputBound = outputBound;
+		this.ioExamples = ioExamples;
+		this.distanceType = distanceType;
+		this.distance = distance;
+		this.template = template;
+		this.ftTemplate = ftTemplate;
+		this.solution = solution;
+		this.alphabetMap = alphabetMap;
+		this.idToMinterms = minterms;
+		this.config = config;
+		this.ba = ba;
+	}
+
+	/* Fresh variable */
+	int newVar() {
+		return solver.nextFreeVarId(true);
+	}
+
+	/* Array of n fresh variables */
+	int[] newVars(int n) {
+		int[] vars = new int[n];
+		for (int i = 0; i < n; i++) {
+			vars[i] = newVar();
+		}
+		return vars;
+	}
+
+	/* Add a clause; trueVar satisfies it and -trueVar is dropped */
+	void addClause(int... lits) {
+		int[] clause = new int[lits.length];
+		int size = 0;
+		for (int lit : lits) {
+			if (lit == trueVar) return;
+			if (lit != -trueVar) clause[size++] = lit;
+		}
+
+		if (size == 0) {
+			contradiction = true;
+			return;
+		}
+
+		try {
+			solver.addClause(new VecInt(Arrays.copyOf(clause, size)));
+		} catch (ContradictionException e) {
+			contradiction = true;
+		}
+	}
+
+	/* Exactly one of vars is true */
+	void addExactlyOne(int[] vars) {
+		addClause(vars);
+		try {
+			solver.addAtMost(new VecInt(vars), 1);
+		} catch (ContradictionException e) {
+			contradiction = true;
+		}
+	}
+
+	/* Index of the true variable of a one-hot encoded value */
+	int oneHotValue(int[] vars) {
+		for (int i = 0; i < vars.length; i++) {
+			if (solver.model(vars[i])) return i;
+		}
+		return -1;
+	}
+
+	/* Energy value: energyWidth bits in two's complement, least significant first */
+	int[] mkEnergy() {
+		return newVars(energyWidth);
+	}
+
+	/* The bits of value as constant literals */
+	int[] constant(long value) {
+		if (value < -(1L << (energyWidth - 1)) || value >= (1L << (energyWidth - 1))) {
+			throw new IllegalArgumentException("Energy value " + value + " does not fit in " + energyWidth + " bits");
+		}
+
+		int[] bits = new int[energyWidth];
+		for (int i = 0; i < energyWidth; i++) {
+			bits[i] = (((value >> i) & 1) == 1) ? trueVar : -trueVar;
+		}
+		return bits;
+	}
+
+	/* Sign bit: set iff the value is negative */
+	int sign(int[] value) {
+		return value[energyWidth - 1];
+	}
+
+	/* cond ==> a = b, for a literal cond */
+	void addEqualIf(int cond, int[] a, int[] b) {
+		for (int i = 0; i < energyWidth; i++) {
+			addClause(-cond, -a[i], b[i]);
+			addClause(-cond, a[i], -b[i]);
+		}
+	}
+
+	/* The bits of a + b, modulo 2^energyWidth (see addNoOverflowIf) */
+	int[] mkSum(int[] a, int[] b) {
+		int[] sum = new int[energyWidth];
+		int carry = -trueVar;
+		for (int i = 0; i < energyWidth; i++) {
+			/* sum[i] = a[i] xor b[i] xor carry */
+			sum[i] = newVar();
+			addClause(-a[i], -b[i], -carry, sum[i]);
+			addClause(-a[i], b[i], carry, sum[i]);
+			addClause(a[i], -b[i], carry, sum[i]);
+			addClause(a[i], b[i], -carry, sum[i]);
+			addClause(a[i], b[i], carry, -sum[i]);
+			addClause(a[i], -b[i], -carry, -sum[i]);
+			addClause(-a[i], b[i], -carry, -sum[i]);
+			addClause(-a[i], -b[i], carry, -sum[i]);
+			if (i == energyWidth - 1) break;
+
+			/* next carry = majority(a[i], b[i], carry) */
+			int next = newVar();
+			addClause(-a[i], -b[i], next);
+			addClause(-a[i], -carry, next);
+			addClause(-b[i], -carry, next);
+			addClause(a[i], b[i], -next);
+			addClause(a[i], carry, -next);
+			addClause(b[i], carry, -next);
+			carry = next;
+		}
+		return sum;
+	}
+
+	/* cond ==> a + b does not overflow: operands of the same sign give a sum of that sign */
+	void addNoOverflowIf(int cond, int[] a, int[] b, int[] sum) {
+		addClause(-cond, -sign(a), -sign(b), sign(sum));
+		addClause(-cond, sign(a), sign(b), -sign(sum));
+	}
+
+	/*
+	 * cond ==> a >= b (signed). geq[i] implies that bits 0..i of a are at least those of b, comparing the sign
+	 * bits the other way round; only this direction is needed since geq is only asserted.
+	 */
+	void addGeqIf(int cond, int[] a, int[] b) {
+		int lower = trueVar; 	// the empty suffixes are equal
+		for (int i = 0; i < energyWidth; i++) {
+			int greater = (i == energyWidth - 1) ? -a[i] : a[i];
+			int notSmaller = (i == energyWidth - 1) ? b[i] : -b[i];
+
+			/* geq ==> majority(greater, notSmaller, lower) */
+			int geq = newVar();
+			addClause(-geq, greater, notSmaller);
+			addClause(-geq, greater, lower);
+			addClause(-geq, notSmaller, lower);
+			lower = geq;
+		}
+		addClause(-cond, lower);
+	}
+
+	/* x(q_R, q, q_T) */
+	int x(Integer sourceState, int q, Integer targetState) {
+		List<Integer> key = Arrays.asList(sourceState, q, targetState);
+		Integer var = xVars.get(key);
+		if (var == null) {
+			var = newVar();
+			xVars.put(key, var);
+		}
+		return var;
+	}
+
+	/* C(q_R, q, q_T) */
+	int[] energy(Integer sourceState, int q, Integer targetState) {
+		List<Integer> key = Arrays.asList(sourceState, q, targetState);
+		int[] vars = energyVars.get(key);
+		if (vars == null) {
+			vars = mkEnergy();
+			energyVars.put(key, vars);
+		}
+		return vars;
+	}
+
+	/* Target states that can occur together with sourceState */
+	Set<Integer> feasibleTargets(Integer sourceState) {
+		Set<Integer> targets = feasiblePairs.get(sourceState);
+		return (targets == null) ? Collections.<Integer>emptySet() : targets;
+	}
+
+	/*
+	 * Target state reached from q_T by the output of (q, a): q1 = dT(qT, c0), ..., q_l = dT(q_{l-1}, c_{l-1})
+	 * for l = out_len(q, a). The variables are only forced to be true, which is all the implications that use them need.
+	 */
+	int[] afterOutput(int q, int a, Integer targetState) {
+		List<Integer> key = Arrays.asList(q, a, targetState);
+		int[] after = afterOutputVars.get(key);
+		if (after != null) return after;
+
+		int dead = targetStates.size();
+		int start = targetIndex.get(targetState);
+
+		/* reached[l][t]: the state after the first l + 1 output characters is t */
+		int[][] reached = new int[outputBound][];
+		reached[0] = newVars(dead + 1);
+		for (int b = 0; b < alphabetMap.size(); b++) {
+			addClause(-d1Vars[q][a][0][b], reached[0][targetDelta[start][b]]);
+		}
+		for (int l = 1; l < outputBound; l++) {
+			reached[l] = newVars(dead + 1);
+			for (int t = 0; t < dead; t++) {
+				for (int b = 0; b < alphabetMap.size(); b++) {
+					addClause(-reached[l - 1][t], -d1Vars[q][a][l][b], reached[l][targetDelta[t][b]]);
+				}
+			}
+			addClause(-reached[l - 1][dead], reached[l][dead]);
+		}
+
+		/* out_len(q, a) = 0 ==> q_T, out_len(q, a) = k ==> q_k */
+		after = newVars(dead + 1);
+		addClause(-lenVars[q][a][0], after[start]);
+		for (int k = 1; k <= outputBound; k++) {
+			for (int t = 0; t <= dead; t++) {
+				addClause(-lenVars[q][a][k], -reached[k - 1][t], after[t]);
+			}
+		}
+
+		afterOutputVars.put(key, after);
+		return after;
+	}
+
+	public void encodeTypes() throws TimeoutException {
+		int dead = targetStates.size();
+
+		/* initial states: x(q^0_R, q^0, q^0_T) */
+		addClause(x(source.getInitialState(), 0, target.getInitialState()));
+
+		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
+		for (int q = 0; q < numStates; q++) {
+			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
+				Integer stateFrom = sourceTransition.from;
+				Integer sourceTo = sourceTransition.to;
+				int a = alphabetMap.get(sourceTransition.getWitness(ba));
+
+				for (Integer targetFrom : feasibleTargets(stateFrom)) {
+					int xVar = x(stateFrom, q, targetFrom);
+					int[] after = afterOutput(q, a, targetFrom);
+
+					/* x(q_R, q, q_T) /\ d2(q, a) = q' /\ (q_T reaches t) ==> x(q_R', q', t) */
+					addClause(-xVar, -after[dead]);
+					for (int qPrime = 0; qPrime < numStates; qPrime++) {
+						for (int t = 0; t < dead; t++) {
+							addClause(-xVar, -d2Vars[q][a][qPrime], -after[t], x(sourceTo, qPrime, targetStates.get(t)));
+						}
+					}
+				}
+			}
+		}
+
+		/* x(q_R, q, q_T) /\ f_R(q_R) -> f_T(q_T) */
+		for (int q = 0; q < numStates; q++) {
+			for (Integer sourceState : source.getStates()) {
+				if (!source.isFinalState(sourceState)) continue;
+
+				for (Integer targetState : feasibleTargets(sourceState)) {
+					if (!target.isFinalState(targetState)) addClause(-x(sourceState, q, targetState));
+				}
+			}
+		}
+	}
+
+	/* The energy C(q_R', q', t) of the triple after reading a in (q_R, q, q_T), as a fresh energy value */
+	int[] nextEnergy(Integer sourceTo, int q, int a, Integer targetFrom) {
+		int dead = targetStates.size();
+		int[] after = afterOutput(q, a, targetFrom);
+		int[] next = mkEnergy();
+
+		for (int qPrime = 0; qPrime < numStates; qPrime++) {
+			for (int t = 0; t < dead; t++) {
+				Integer targetTo = targetStates.get(t);
+				if (!feasibleTargets(sourceTo).contains(targetTo)) continue; 	// C is unconstrained there
+
+				/* d2(q, a) = q' /\ (q_T reaches t) ==> next = C(q_R', q', t) */
+				int cond = newVar();
+				addClause(-d2Vars[q][a][qPrime], -after[t], cond);
+				addEqualIf(cond, next, energy(sourceTo, qPrime, targetTo));
+			}
+		}
+
+		return next;
+	}
+
+	/* edDistBits[q][a] = the bits of value(v) for the v with ed_dist(q, a) = v */
+	void encodeEdDistBits(long base, long factor) {
+		edDistBits = new int[numStates][alphabetMap.size()][];
+		for (int q = 0; q < numStates; q++) {
+			for (int a = 0; a < alphabetMap.size(); a++) {
+				edDistBits[q][a] = mkEnergy();
+				for (int v = 0; v < edDistVars[q][a].length; v++) {
+					int[] bits = constant(base + factor * v);
+					for (int i = 0; i < energyWidth; i++) {
+						addClause(-edDistVars[q][a][v], (bits[i] == trueVar) ? edDistBits[q][a][i] : -edDistBits[q][a][i]);
+					}
+				}
+			}
+		}
+	}
+
+	public void encodeDistanceBounded() throws TimeoutException {
+		/* In this case, the fraction must be a whole number (it should have denominator 1) */
+		int numEdits = distance[0];
+
+		/* C(q^0_R, q^0, q^0_T) = numEdits */
+		int[] initEnergy = energy(source.getInitialState(), 0, target.getInitialState());
+		addEqualIf(trueVar, initEnergy, constant(numEdits));
+
+		/* x(q_R, q, q_T) ==> C(q_R', q', q_T') + ed_dist(q, a) = C(q_R, q, q_T) /\ C(q_R, q, q_T) >= 0 */
+		encodeEdDistBits(0, 1);
+		for (int q = 0; q < numStates; q++) {
+			for (SFAMove<CharPred, Character> sourceTransition : source.getTransitions()) {
+				Integer stateFrom = sourceTransition.from;
+				int a = alphabetMap.get(sourceTransition.getWitness(ba));
+
+				for (Integer targetFrom : feasibleTargets(stateFrom)) {
+					int xVar = x(stateFrom, q, targetFrom);
+					int[] c = energy(stateFrom, q, targetFrom);
+					int[] next = nextEnergy(sourceTransition.to, q, a, targetFrom);
+
+					int[] sum = mkSum(next, edDistBits[q][a]);
+					addNoOverflowIf(xVar, next, edDistBits[q][a], sum);
+					addEqualIf(xVar, sum, c);
+					addClause(-xVar, -sign(c));
+				}
+			}
+		}
+	}
+
+	public void encodeDistanceMean() throws TimeoutException {
+		/* C(q^0_R, q^0, q^0_T) = 0 */
+		int[] initEnergy = energy(source.getInitialState(), 0, target.getInitialState());
+		addEqualIf(trueVar, initEnergy, constant(0));
+
+		/* x(q_R, q, q_T) ==> C(q_R, q, q_T) + (m - (n x ed_dist(q, a))) >= C(q_R', q', q_T') */
+		encodeEdDistBits(distance[0], -distance[1]);
+		for (int q = 0; q < numStates; q++) {
+			for (SFAMove<CharPred, Character> sourceTransition : source.getTransitions()) {
+				Integer stateFrom = sourceTransition.from;
+				int a = alphabetMap.get(sourceTransition.getWitness(ba));
+
+				for (Integer targetFrom : feasibleTargets(stateFrom)) {
+					int xVar = x(stateFrom, q, targetFrom);
+					int[] c = energy(stateFrom, q, targetFrom);
+					int[] next = nextEnergy(sourceTransition.to, q, a, targetFrom);
+
+					int[] sum = mkSum(c, edDistBits[q][a]);
+					addNoOverflowIf(xVar, c, edDistBits[q][a], sum);
+					addGeqIf(xVar, sum, next);
+				}
+			}
+		}
+
+		/* x(q_R, q, q_T) /\ f_R(q_R) -> (C(q_R, q, q_T) >= 0) */
+		for (int q = 0; q < numStates; q++) {
+			for (Integer sourceState : source.getStates()) {
+				if (!source.isFinalState(sourceState)) continue;
+
+				for (Integer targetState : feasibleTargets(sourceState)) {
+					addClause(-x(sourceState, q, targetState), -sign(energy(sourceState, q, targetState)));
+				}
+			}
+		}
+	}
+
+	public void encodeDistancePreferential() throws TimeoutException {
+
+	}
+
+	public void encodeDistance() throws TimeoutException {
+		/* ed_dist(q, a) is 1 if out_len(q, a) = 0, otherwise out_len(q, a) - 1 if 'a' is in the output and out_len(q, a) if not */
+		int edDistBound = Math.max(outputBound, 1);
+		edDistVars = new int[numStates][alphabetMap.size()][];
+		for (int q = 0; q < numStates; q++) {
+			for (int a = 0; a < alphabetMap.size(); a++) {
+				edDistVars[q][a] = newVars(edDistBound + 1);
+				addExactlyOne(edDistVars[q][a]);
+
+				addClause(-lenVars[q][a][0], edDistVars[q][a][1]);
+				for (int k = 1; k <= outputBound; k++) {
+					int[] notInOutput = new int[k + 2];
+					for (int l = 0; l < k; l++) {
+						addClause(-lenVars[q][a][k], -d1Vars[q][a][l][a], edDistVars[q][a][k - 1]);
+						notInOutput[l] = d1Vars[q][a][l][a];
+					}
+					notInOutput[k] = -lenVars[q][a][k];
+					notInOutput[k + 1] = edDistVars[q][a][k];
+					addClause(notInOutput);
+				}
+			}
+		}
+
+		/*
+		 * Width of the energy values: the width of the energy sort of the Z3 encoders (see BitWidths), or more
+		 * if m - (n x ed_dist) needs it
+		 */
+		long productStates = 0;
+		for (Set<Integer> targets : feasiblePairs.values()) {
+			productStates += targets.size();
+		}
+		productStates *= numStates;
+		BitWidths widths = BitWidths.mkWidths(source, target, numStates, outputBound, alphabetMap.size(), ioExamples, 
+				distance, productStates);
+		long edDistRange = Math.abs((long) distance[0]) + Math.abs((long) distance[1]) * edDistBound;
+		energyWidth = Math.max(widths.energyWidth, BitWidths.bitsFor(edDistRange) + 1);
+
+		/* Different kinds of distances */
+		if (distanceType.equals("bounded")) encodeDistanceBounded();
+
+		else if (distanceType.equals("mean")) encodeDistanceMean();
+
+		else if (distanceType.equals("preferential")) encodeDistancePreferential();
+
+		else throw new IllegalArgumentException("Unsupported distanceType");
+	}
+
+	public void encodeExamples() throws TimeoutException {
+		for (Pair<String, String> ioExample : ioExamples) {
+			int[][] arrays = ConstraintsSolver.exampleToIntArrays(source, target, alphabetMap, ioExample, ba);
+			if (arrays == null) continue;
+			int[] inputArr = arrays[0];
+			int[] outputArr = arrays[1];
+			int inputLen = inputArr.length;
+			int outputLen = outputArr.length;
+
+			/* e[i][j][q]: e_k(i) = (j, q), only for the alignments in the band; the others are false */
+			int[][] band = ConstraintsSolver.exampleBand(inputLen, outputLen, outputBound);
+			int[][][] e = new int[inputLen + 1][outputLen + 1][];
+			for (int i = 0; i <= inputLen; i++) {
+				for (int j = 0; j <= outputLen; j++) {
+					if (j >= band[0][i] && j <= band[1][i]) {
+						e[i][j] = newVars(numStates);
+					} else {
+						e[i][j] = new int[numStates];
+						Arrays.fill(e[i][j], -trueVar);
+					}
+				}
+			}
+
+			/* initial position : e_k(0) = (0, q_0) */
+			addClause(e[0][0][0]);
+
+			/* final position : e_k(l1).first = l2 */
+			for (int j = 0; j < outputLen; j++) {
+				for (int q = 0; q < numStates; q++) {
+					addClause(-e[inputLen][j][q]);
+				}
+			}
+
+			for (int i = 0; i < inputLen; i++) {
+				int a = inputArr[i];
+
+				for (int j = band[0][i]; j <= band[1][i]; j++) {
+					/* output needs be <= outputLen - j */
+					int possibleOutputLen = Math.min(outputLen - j, outputBound);
+
+					for (int q = 0; q < numStates; q++) {
+						for (int k = possibleOutputLen + 1; k <= outputBound; k++) {
+							addClause(-e[i][j][q], -lenVars[q][a][k]);
+						}
+
+						/* e_k(i) = (j, q) /\ out_len(q, a) = k ==> output matches and e_k(i+1) = (j + k, d2(q, a)) */
+						for (int k = 0; k <= possibleOutputLen; k++) {
+							for (int l = 0; l < k; l++) {
+								addClause(-e[i][j][q], -lenVars[q][a][k], d1Vars[q][a][l][outputArr[j + l]]);
+							}
+							for (int qPrime = 0; qPrime < numStates; qPrime++) {
+								addClause(-e[i][j][q], -lenVars[q][a][k], -d2Vars[q][a][qPrime], e[i + 1][j + k][qPrime]);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	void encode() throws TimeoutException {
+		/* Ensures numStates is correct */
+		if (template != null) {
+			this.numStates = template.stateCount();
+		}
+
+		trueVar = newVar();
+		try {
+			solver.addClause(new VecInt(new int[] { trueVar }));
+		} catch (ContradictionException e) {
+			contradiction = true;
+		}
+
+		xVars = new HashMap<List<Integer>, Integer>();
+		energyVars = new HashMap<List<Integer>, int[]>();
+		afterOutputVars = new HashMap<List<Integer>, int[]>();
+
+		/* (q_R, q_T) pairs for which x and C are encoded */
+		feasiblePairs = ConstraintsSolver.mkFeasiblePairs(source, target, alphabet, outputBound, ba);
+
+		/* d_T on indices of target states; a missing transition goes to the dead state */
+		targetStates = new ArrayList<Integer>(target.getStates());
+		targetIndex = new HashMap<Integer, Integer>();
+		for (int t = 0; t < targetStates.size(); t++) {
+			targetIndex.put(targetStates.get(t), t);
+		}
+		targetDelta = new int[targetStates.size()][alphabetMap.size()];
+		for (int[] row : targetDelta) {
+			Arrays.fill(row, targetStates.size());
+		}
+		for (SFAMove<CharPred, Character> transition : target.getTransitions()) {
+			Character move = transition.getWitness(ba); // there should only be 1
+			targetDelta[targetIndex.get(transition.from)][alphabetMap.get(move)] = targetIndex.get(transition.to);
+		}
+
+		/* d2, out_len and d1: one value each */
+		d2Vars = new int[numStates][alphabetMap.size()][];
+		lenVars = new int[numStates][alphabetMap.size()][];
+		d1Vars = new int[numStates][alphabetMap.size()][outputBound][];
+		for (int q = 0; q < numStates; q++) {
+			for (int a = 0; a < alphabetMap.size(); a++) {
+				d2Vars[q][a] = newVars(numStates);
+				addExactlyOne(d2Vars[q][a]);
+
+				lenVars[q][a] = newVars(outputBound + 1);
+				addExactlyOne(lenVars[q][a]);
+
+				for (int l = 0; l < outputBound; l++) {
+					d1Vars[q][a][l] = newVars(alphabetMap.size());
+					addExactlyOne(d1Vars[q][a][l]);
+				}
+			}
+		}
+
+		/* If config provide, call encoding methods appropriately */
+		if (config != null) {
+			/* Input-Output Example Constraints */
+			if (config.get(0)) encodeExamples();
+
+			/* Input-Output Types Constraints */
+			if (config.get(1)) encodeTypes();
+
+			/* Input-Output Distance Constraints */
+			if (config.get(2)) encodeDistance();
+
+		} else {
+			encodeTypes();
+			encodeDistance();
+			encodeExamples();
+		}
+
+		/* Choices that the minterms and templates fix (see FixedChoices) */
+		FixedChoices choices = new FixedChoices(numStates, outputBound, template, ftTemplate, idToMinterms, alphabetMap, ba);
+
+		/* Single-char minterm cannot output multiple-char minterm */
+		for (int q = 0; q < numStates; q++) {
+			for (int a : choices.singleChars) {
+				for (int l = 0; l < outputBound; l++) {
+					for (int out : choices.multipleChars) {
+						addClause(-d1Vars[q][a][l][out]);
+					}
+				}
+			}
+		}
+
+		/* d2 and d1 of the template and ftTemplate */
+		for (int[] choice : choices.d2) {
+			addClause(d2Vars[choice[0]][choice[1]][choice[2]]);
+		}
+		for (int[] choice : choices.d1) {
+			addClause(d1Vars[choice[0]][choice[1]][choice[2]][choice[3]]);
+		}
+
+		/* If previous solution provided, block its assignment to d2, out_len and d1 */
+		if (solution != null) {
+			List<Integer> blockingClause = new ArrayList<Integer>();
+			for (SFTInputMove<CharPred, CharFunc, Character> transition : solution.getInputMovesFrom(solution.getStates())) {
+				int q = transition.from;
+				int a = alphabetMap.get(transition.getWitness(ba));
+				List<CharFunc> outputFunc = transition.outputFunctions;
+
+				blockingClause.add(-d2Vars[q][a][transition.to]);
+				blockingClause.add(-lenVars[q][a][outputFunc.size()]);
+
+				int index = 0;
+				for (CharFunc f : outputFunc) {
+					if (f != null && f instanceof CharConstant) { 	// all the CharFuncs should be constants
+						blockingClause.add(-d1Vars[q][a][index][alphabetMap.get(((CharConstant)f).c)]);
+					}
+					index++;
+				}
+			}
+
+			int[] clause = new int[blockingClause.size()];
+			for (int i = 0; i < clause.length; i++) {
+				clause[i] = blockingClause.get(i);
+			}
+			addClause(clause);
+		}
+	}
+
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraints(boolean debug) throws TimeoutException {
+		encode();
+		return constructSFT(debug);
+	}
+
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> constructSFT(boolean debug) throws TimeoutException {
+		/* Reconstruct transducer */
+		Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
+
+		long startTime = System.nanoTime();
+		long stopTime = 0; 	// gets set later
+		if (!contradiction && solver.isSatisfiable()) {
+			stopTime = System.nanoTime();
+
+			TransducerModel model = new TransducerModel() {
+				public int d2(int q, int a) {
+					return oneHotValue(d2Vars[q][a]);
+				}
+
+				public int outLen(int q, int a) {
+					return oneHotValue(lenVars[q][a]);
+				}
+
+				public int d1(int q, int a, int index) {
+					return oneHotValue(d1Vars[q][a][index]);
+				}
+			};
+
+			/* Debug */
+			if (debug) {
+				System.out.println("variables: " + solver.nVars() + ", constraints: " + solver.nConstraints());
+
+				for (Map.Entry<List<Integer>, Integer> entry : xVars.entrySet()) {
+					if (solver.model(entry.getValue())) {
+						List<Integer> key = entry.getKey();
+						System.out.println("x(" + key.get(0) + ", " + key.get(1) + ", " + key.get(2) + ")");
+					}
+				}
+			}
+
+			transitionsFT = ConstraintsSolver.mkTransitions(model, numStates, template, ftTemplate, alphabetMap, ba);
+
+		} else {
+			stopTime = System.nanoTime();
+		}
+
+		HashMap<Integer, Set<List<Character>>> finStates = new HashMap<Integer, Set<List<Character>>>();
+		SFT<CharPred, CharFunc, Character> mySFT = SFT.MkSFT(transitionsFT, 0, finStates, ba);
+
+		return new Pair<SFT<CharPred, CharFunc, Character>, Long>(mySFT, ((stopTime - startTime) / 1000000));
+	}
+
+}
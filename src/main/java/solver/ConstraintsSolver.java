@@ -5,31 +5,38 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.sat4j.specs.TimeoutException;
 
 import com.microsoft.z3.BitVecExpr;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.BoolSort;
 import com.microsoft.z3.BitVecNum;
 import com.microsoft.z3.BitVecSort;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
 import com.microsoft.z3.FuncDecl;
 import com.microsoft.z3.Model;
+import com.microsoft.z3.Optimize;
 import com.microsoft.z3.Params;
 import com.microsoft.z3.Solver;
 import com.microsoft.z3.Sort;
+import com.microsoft.z3.Statistics;
 import com.microsoft.z3.Status;
 import com.microsoft.z3.Symbol;
 import com.microsoft.z3.TupleSort;
 
 import automata.SFAOperations;
+import automata.SFTOperations;
 import automata.fst.FST;
 import automata.fst.FSTMove;
 import automata.fst.FSTTemplate;
@@ -63,14 +70,20 @@ public class ConstraintsSolver {
 	HashMap<Character, Integer> alphabetMap;
 	BooleanAlgebraSubst<CharPred, CharFunc, Character> ba;
 	
-	/* Sorts and FuncDecls */
-	BitVecSort BV;
+	/* Numerals and applications, built once and shared by all encode phases */
+	TermCache terms;
+	
+	/* Sorts and FuncDecls: states, characters and positions are unsigned, energy is signed */
+	BitWidths widths;
+	BitVecSort stateBV;
+	BitVecSort charBV;
+	BitVecSort posBV;
+	BitVecSort energyBV;
 	Sort B;
 	
 	BitVecExpr numStatesInt;
 	BitVecExpr numLookaheadStatesInt;
 	BitVecExpr alphabetSize;
-	BitVecExpr zero;
 	BitVecExpr bound;
 	
 	FuncDecl<BitVecSort> d1;
@@ -86,14 +99,61 @@ public class ConstraintsSolver {
 	
 	/* BV Pair Datatype */
 	TupleSort pair;
+	FuncDecl<TupleSort> mkPair;	// constructor
 	FuncDecl<BitVecSort> first;	// projections
 	FuncDecl<BitVecSort> second;
-	FuncDecl[] eFuncs;
+	
+	/* Examples: trie of the inputs and the run variable r_n of each node, indexed by node id, with the
+	 * tracking literal of the example that created the node (null without unsat cores) */
+	ExampleTrie exampleTrie;
+	List<Expr> runs;
+	List<BoolExpr> runGuards;
 	
 	FuncDecl<BitVecSort> dL;
 	
 	Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterms;
 	
+	/* Source state -> target states that can occur together with it in a run (see computeFeasiblePairs) */
+	Map<Integer, Set<Integer>> feasiblePairs;
+	
+	/* Activation literals for the incremental search: stateBoundLits[k - 1] restricts d2 to the 
+	 * states 0, ..., k - 1 and outputBoundLits[l] restricts out_len to at most l */
+	BoolExpr[] stateBoundLits;
+	BoolExpr[] outputBoundLits;
+	
+	/* Number the states in BFS order (see encodeSymmetryBreaking); ignored with a template or ftTemplate */
+	boolean symmetryBreaking = true;
+	
+	/* CEGIS: examples that are not encoded yet, added when a candidate gets them wrong (see mkConstraintsCEGIS) */
+	List<Pair<String, String>> pendingExamples;
+	
+	/* 
+	 * Unsat cores (see setCoreTracking): the types, distance and each example are guarded by tracking literals 
+	 * that every check assumes; coreNames also names the bound literals. group guards the constraints being 
+	 * added, unsatCore holds the names in the core of the last UNSAT check.
+	 */
+	boolean coreTracking;
+	List<BoolExpr> groupLits;
+	Map<BoolExpr, String> coreNames;
+	BoolExpr group;
+	List<String> unsatCore;
+	
+	/* Limits of every check: timeout in milliseconds and Z3 resource limit, 0 for none (see setTimeout) */
+	long timeout;
+	long rlimit;
+	
+	/* 
+	 * Lazy types (see setLazyTypes): the triples (q_R, q, q_T) whose type constraints are encoded, the group 
+	 * that guards them, and the model of the last SAT check, from which refineTypes follows the run
+	 */
+	boolean lazyTypes;
+	Set<List<Integer>> typedTriples;
+	BoolExpr typesGroup;
+	TransducerModel lastModel;
+	
+	/* Backend that checks the constraints; if null, solver is used directly */
+	SolverBackend backend;
+	
 	/* Config: which constraints are added to the solver */
 	ArrayList<Boolean> config;	
 		// 0: examples, 1: types, 2: distance
@@ -126,6 +186,56 @@ public class ConstraintsSolver {
 		this.ba = ba;
 	}
 	
+	public void setBackend(SolverBackend backend) {
+		this.backend = backend;
+	}
+	
+	public void setSymmetryBreaking(boolean symmetryBreaking) {
+		this.symmetryBreaking = symmetryBreaking;
+	}
+	
+	/* 
+	 * Limits for the checks, set as solver parameters, so that Z3 itself stops a search that takes too long; 
+	 * a check that hits a limit throws TimeoutException. Must be set before the constraints are encoded.
+	 */
+	public void setTimeout(long milliseconds) {
+		this.timeout = milliseconds;
+	}
+	
+	public void setRlimit(long rlimit) {
+		this.rlimit = rlimit;
+	}
+	
+	/* Peak memory of Z3 in MB so far (the "max memory" statistic of solver), -1 if not available */
+	public double getPeakMemory() {
+		Statistics.Entry entry = solver.getStatistics().get("max memory");
+		if (entry == null) return -1;
+		return entry.isDouble() ? entry.getDoubleValue() : entry.getUIntValue();
+	}
+	
+	/* 
+	 * Encode the type constraints only for the triples (q_R, q, q_T) that the candidates reach: a candidate whose 
+	 * run reaches a triple without constraints is refined and checked again (see refineTypes). Must be set before 
+	 * the constraints are encoded.
+	 */
+	public void setLazyTypes(boolean lazyTypes) {
+		this.lazyTypes = lazyTypes;
+	}
+	
+	/* Track the constraint groups for unsat cores; must be set before the constraints are encoded */
+	public void setCoreTracking(boolean coreTracking) {
+		this.coreTracking = coreTracking;
+	}
+	
+	/* 
+	 * Names of the groups in the core of the last check if it was UNSAT: "types", "distance", "example i" (the 
+	 * i-th of ioExamples), and "states" or "output" for the bounds of solveWithBounds. Null if the last check was 
+	 * SAT, or if no core is available (no tracking, or a backend did the check).
+	 */
+	public List<String> getUnsatCore() {
+		return unsatCore;
+	}
+	
 	/*
 	 * Reverse injective map
 	 */
@@ -152,87 +262,127 @@ public class ConstraintsSolver {
 		return arr;
 	}
 	
+	/* 
+	 * The input and output of an example as int arrays, or null if the source does not accept its input or the 
+	 * target its output; such an example is reported and left out
+	 */
+	static int[][] exampleToIntArrays(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			HashMap<Character, Integer> alphabetMap, Pair<String, String> ioExample, 
+			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
+		if (SFAOperations.getStateInFA(source, source.getInitialState(), ioExample.first, ba) == -1) { System.err.println("Illegal example for source: " + ioExample.first); return null; } 
+		if (SFAOperations.getStateInFA(target, target.getInitialState(), ioExample.second, ba) == -1) { System.err.println("Illegal example for target: " + ioExample.second); return null; } 
+		
+		return new int[][] { stringToIntArray(alphabetMap, ioExample.first), stringToIntArray(alphabetMap, ioExample.second) };
+	}
+	
+	/*
+	 * Pre-pass over the source automaton and the output-length-bounded target automaton: (qR, qT) is feasible 
+	 * if a run can be in qR and qT at the same time, for some transducer with output bound outputBound. Since 
+	 * d_R and d_T are known, x(qR, q, qT) and C(qR, q, qT) only need to be encoded for feasible pairs.
+	 */
+	void computeFeasiblePairs() throws TimeoutException {
+		feasiblePairs = mkFeasiblePairs(source, target, alphabet, outputBound, ba);
+	}
+	
+	static Map<Integer, Set<Integer>> mkFeasiblePairs(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			Set<Character> alphabet, int outputBound, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
+		/* target states reachable with at most outputBound output characters */
+		Map<Integer, Set<Integer>> targetReach = new HashMap<Integer, Set<Integer>>();
+		for (Integer targetState : target.getStates()) {
+			targetReach.put(targetState, reachWithin(target, alphabet, targetState, outputBound, ba));
+		}
+		
+		Map<Integer, Set<Integer>> feasiblePairs = new HashMap<Integer, Set<Integer>>();
+		LinkedList<Integer> sourceWorklist = new LinkedList<Integer>();
+		LinkedList<Integer> targetWorklist = new LinkedList<Integer>();
+		
+		addFeasiblePair(feasiblePairs, source.getInitialState(), target.getInitialState(), sourceWorklist, targetWorklist);
+		while (!sourceWorklist.isEmpty()) {
+			Integer sourceState = sourceWorklist.removeFirst();
+			Integer targetState = targetWorklist.removeFirst();
+			
+			for (SFAMove<CharPred, Character> sourceTransition : source.getTransitionsFrom(sourceState)) {
+				for (Integer targetTo : targetReach.get(targetState)) {
+					addFeasiblePair(feasiblePairs, sourceTransition.to, targetTo, sourceWorklist, targetWorklist);
+				}
+			}
+		}
+		
+		return feasiblePairs;
+	}
+	
+	static void addFeasiblePair(Map<Integer, Set<Integer>> feasiblePairs, Integer sourceState, Integer targetState, 
+			LinkedList<Integer> sourceWorklist, LinkedList<Integer> targetWorklist) {
+		Set<Integer> targets = feasiblePairs.get(sourceState);
+		if (targets == null) {
+			targets = new HashSet<Integer>();
+			feasiblePairs.put(sourceState, targets);
+		}
+		
+		if (targets.add(targetState)) {
+			sourceWorklist.add(sourceState);
+			targetWorklist.add(targetState);
+		}
+	}
+	
+	/* 
+	 * Target states reachable from targetState in at most bound steps. If a state is missing a transition 
+	 * for some character, d_T is unconstrained there and every target state is considered reachable.
+	 */
+	static Set<Integer> reachWithin(SFA<CharPred, Character> target, Set<Character> alphabet, Integer targetState, int bound, 
+			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
+		Set<Integer> reached = new HashSet<Integer>();
+		reached.add(targetState);
+		
+		Set<Integer> frontier = new HashSet<Integer>(reached);
+		for (int l = 0; l < bound && !frontier.isEmpty(); l++) {
+			Set<Integer> next = new HashSet<Integer>();
+			
+			for (Integer state : frontier) {
+				Set<Character> moves = new HashSet<Character>();
+				for (SFAMove<CharPred, Character> transition : target.getTransitionsFrom(state)) {
+					moves.add(transition.getWitness(ba));
+					if (reached.add(transition.to)) next.add(transition.to);
+				}
+				
+				if (!moves.containsAll(alphabet)) {
+					reached.addAll(target.getStates());
+					return reached;
+				}
+			}
+			frontier = next;
+		}
+		
+		return reached;
+	}
+	
+	/* Target states that can occur together with sourceState */
+	Set<Integer> feasibleTargets(Integer sourceState) {
+		Set<Integer> targets = feasiblePairs.get(sourceState);
+		return (targets == null) ? Collections.<Integer>emptySet() : targets;
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void encodeTypes() throws TimeoutException {
 		
 		/* initial states: x(q^0_R, q^0, q^0_T) */
-		BitVecExpr sourceInit = (BitVecNum) ctx.mkNumeral(source.getInitialState(), BV);
-		BitVecExpr targetInit = (BitVecNum) ctx.mkNumeral(target.getInitialState(), BV);
-		Expr res = x.apply(sourceInit, zero, targetInit);
-		solver.add(res);
+		BitVecExpr sourceInit = terms.num(source.getInitialState(), stateBV);
+		BitVecExpr targetInit = terms.num(target.getInitialState(), stateBV);
+		Expr res = terms.apply(x, sourceInit, terms.num(0, stateBV), targetInit);
+		add(res);
+		
+		/* the rest is added by refineTypes, for the triples that the runs of the candidates reach */
+		if (lazyTypes) {
+			typedTriples = new HashSet<List<Integer>>();
+			typesGroup = group;
+			return;
+		}
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
-				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
-				Integer stateFrom = sourceTransition.from;
-				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				
-				/* out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
-					
-				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr<BitVecSort> qRPrime = dR.apply(qR, a);
-				
-				
-				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
-							
-				
-				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
-				
-				/* make array of output chars */
-				Expr[] outputChars = new Expr[outputBound];
-				
-				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
-					outputChars[l] = d1exp; 
-				}
-				
-				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
-					
-					
-					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
-					
-					/* make array of destination states in target */
-					Expr[] dstStates = new Expr[outputBound];
-					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
-					for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
-					}
-					
-					
-					/* x(q_R, q, q_T) */
-					Expr xExpr = x.apply(qR, q, qT);
-					
-					/* expressions for implications: out_len(q, a) = 0 ==> x(qR', q', qT) */
-					
-					/* special case for 0 */
-					Expr lenEq = ctx.mkEq(outLenExpr, zero);
-					Expr xExprPrime = x.apply(qRPrime, qPrime, qT);
-					
-					Expr c = ctx.mkImplies(lenEq, xExprPrime);
-					
-					
-					/* loop for the rest */
-					Expr consequent = c;
-					for (int l = 0; l < outputBound; l++) {
-						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
-						xExprPrime = x.apply(qRPrime, qPrime, dstStates[l]);
-						
-						c = ctx.mkImplies(lenEq, xExprPrime);
-						consequent = ctx.mkAnd(consequent, c);
-					}
-					
-					/* make big constraint */
-					solver.add(ctx.mkImplies(xExpr, consequent));
+				for (Integer targetFrom : feasibleTargets(sourceTransition.from)) {
+					add(mkTypeStep(i, sourceTransition, targetFrom));
 				}
 			}
 		}
@@ -240,53 +390,187 @@ public class ConstraintsSolver {
 		/* x(q_R, q, q_T) /\ f_R(q_R) -> f_T(q_T) */
 		for (int i = 0; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
-				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-					
-					Expr xExpr = x.apply(sourceInt, stateInt, targetInt);
-					Expr fRExp = f_R.apply(sourceInt);
-					Expr antecedent = ctx.mkAnd(xExpr, fRExp);
-					
-					Expr fTExp = f_T.apply(targetInt);
-					Expr consequent = fTExp;
+				for (Integer targetState : feasibleTargets(sourceState)) {
+					add(mkTypeFinal(i, sourceState, targetState));
+				}
+			}
+		}
+	}
+	
+	/* x(q_R, q, q_T) ==> x(d_R(q_R, a), d2(q, a), q_T') for the target state q_T' after the output, per out_len(q, a) */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Expr<BoolSort> mkTypeStep(int i, SFAMove<CharPred, Character> sourceTransition, Integer targetFrom) throws TimeoutException {
+		BitVecExpr q = terms.num(i, stateBV);
+		Integer stateFrom = sourceTransition.from;
+		Character move = sourceTransition.getWitness(ba);
+		BitVecExpr qR = terms.num(stateFrom, stateBV);
+		BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
+		
+		/* out_len(q, a) */
+		Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
+			
+		/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
+		Expr<BitVecSort> qRPrime = terms.apply(dR, qR, a);
+		
+		
+		/* make variable q' = d2(q, a) */
+		Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 					
-					Expr c = ctx.mkImplies(antecedent, consequent);
-					solver.add(c);
+		
+		/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
+		
+		/* make array of output chars */
+		Expr[] outputChars = new Expr[outputBound];
+		
+		for (int l = 0; l < outputBound; l++) {
+			BitVecExpr index = terms.num(l, posBV);
+			Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
+			outputChars[l] = d1exp; 
+		}
+		
+		BitVecExpr qT = terms.num(targetFrom, stateBV);
+		
+		
+		/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
+		
+		/* make array of destination states in target */
+		Expr[] dstStates = new Expr[outputBound];
+		
+		dstStates[0] = terms.apply(dT, qT, outputChars[0]);
+		for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
+			dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
+		}
+		
+		
+		/* x(q_R, q, q_T) */
+		Expr xExpr = terms.apply(x, qR, q, qT);
+		
+		/* expressions for implications: out_len(q, a) = 0 ==> x(qR', q', qT) */
+		
+		/* special case for 0 */
+		Expr lenEq = ctx.mkEq(outLenExpr, terms.num(0, posBV));
+		Expr xExprPrime = terms.apply(x, qRPrime, qPrime, qT);
+		
+		Expr c = ctx.mkImplies(lenEq, xExprPrime);
+		
+		
+		/* loop for the rest */
+		Expr consequent = c;
+		for (int l = 0; l < outputBound; l++) {
+			int outputLength = l + 1;
+			lenEq = ctx.mkEq(outLenExpr, terms.num(outputLength, posBV));
+			xExprPrime = terms.apply(x, qRPrime, qPrime, dstStates[l]);
+			
+			c = ctx.mkImplies(lenEq, xExprPrime);
+			consequent = ctx.mkAnd(consequent, c);
+		}
+		
+		/* make big constraint */
+		return ctx.mkImplies(xExpr, consequent);
+	}
+	
+	/* x(q_R, q, q_T) /\ f_R(q_R) -> f_T(q_T) */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Expr<BoolSort> mkTypeFinal(int i, Integer sourceState, Integer targetState) {
+		BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+		BitVecExpr stateInt = terms.num(i, stateBV);
+		BitVecExpr targetInt = terms.num(targetState, stateBV);
+		
+		Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt);
+		Expr fRExp = terms.apply(f_R, sourceInt);
+		Expr antecedent = ctx.mkAnd(xExpr, fRExp);
+		
+		Expr fTExp = terms.apply(f_T, targetInt);
+		Expr consequent = fTExp;
+		
+		return ctx.mkImplies(antecedent, consequent);
+	}
+	
+	/* 
+	 * Lazy types: follows the run of the candidate in model through the product of source, candidate and target 
+	 * from the initial triple, and adds the type constraints of the triples it reaches that have none yet. Returns 
+	 * false if there were none, i.e. the candidate is typed correctly. Where target has no transition for an 
+	 * output character, d_T is unconstrained, so every feasible target state is taken.
+	 */
+	boolean refineTypes(TransducerModel model) throws TimeoutException {
+		stopIfInterrupted();
+		
+		HashMap<Integer, Character> revAlphabetMap = reverseMap(alphabetMap);
+		
+		List<List<Integer>> worklist = new ArrayList<List<Integer>>();
+		Set<List<Integer>> reached = new HashSet<List<Integer>>();
+		List<Integer> init = Arrays.asList(source.getInitialState(), 0, target.getInitialState());
+		worklist.add(init);
+		reached.add(init);
+		
+		int lemmas = 0;
+		group = typesGroup;
+		while (!worklist.isEmpty()) {
+			List<Integer> triple = worklist.remove(worklist.size() - 1);
+			Integer sourceState = triple.get(0);
+			int q = triple.get(1);
+			Integer targetState = triple.get(2);
+			
+			boolean isNew = typedTriples.add(triple);
+			if (isNew) {
+				add(mkTypeFinal(q, sourceState, targetState));
+				lemmas++;
+			}
+			
+			for (SFAMove<CharPred, Character> sourceTransition : source.getTransitionsFrom(sourceState)) {
+				if (isNew) add(mkTypeStep(q, sourceTransition, targetState));
+				
+				int a = alphabetMap.get(sourceTransition.getWitness(ba));
+				int qPrime = model.d2(q, a);
+				
+				/* target states after the output of (q, a) */
+				Set<Integer> targetStates = new HashSet<Integer>();
+				Integer targetTo = targetState;
+				for (int l = 0; l < model.outLen(q, a) && targetTo != -1; l++) {
+					targetTo = SFAOperations.getSuccessorState(target, targetTo, revAlphabetMap.get(model.d1(q, a, l)), ba);
+				}
+				if (targetTo != -1) targetStates.add(targetTo);
+				else targetStates.addAll(feasibleTargets(sourceTransition.to));
+				
+				for (Integer targetNext : targetStates) {
+					List<Integer> next = Arrays.asList(sourceTransition.to, qPrime, targetNext);
+					if (reached.add(next)) worklist.add(next);
 				}
 			}
 		}
+		group = null;
+		
+		return lemmas > 0;
 	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void encodeDistanceBounded() throws TimeoutException {
 		/* In this case, the fraction must be a whole number (it should have denominator 1) */
 		int numEdits = distance[0];
-		BitVecExpr editsBound = (BitVecNum) ctx.mkNumeral(numEdits, BV);
+		BitVecExpr editsBound = terms.num(numEdits, energyBV);
 		
 		/* C(q^0_R, q^0, q^0_T) = numEdits */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), editsBound));
+		add(ctx.mkEq(terms.apply(energy, terms.num(0, stateBV), terms.num(0, stateBV), terms.num(0, stateBV)), editsBound));
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 				
 				/* out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 					
 				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr<BitVecSort> qRPrime = dR.apply(qR, a);
+				Expr<BitVecSort> qRPrime = terms.apply(dR, qR, a);
 				
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 							
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -295,16 +579,16 @@ public class ConstraintsSolver {
 				Expr[] outputChars = new Expr[outputBound];
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp; 
 				}
 				
 				/* ed_dist(q, a) */
-				Expr<BitVecSort> edDistExpr = edDist.apply(q, a);
+				Expr<BitVecSort> edDistExpr = terms.apply(edDist, q, a);
 				
-				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+				for (Integer targetFrom : feasibleTargets(stateFrom)) {
+					BitVecExpr qT = terms.num(targetFrom, stateBV);
 					
 					
 					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -312,35 +596,35 @@ public class ConstraintsSolver {
 					/* make array of destination states in target */
 					Expr[] dstStates = new Expr[outputBound];
 					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
+					dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 					for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+						dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 					}
 		
 					/* C(q_R, q, q_T) */
-					Expr<BitVecSort> cExpr = energy.apply(qR, q, qT);
+					Expr<BitVecSort> cExpr = terms.apply(energy, qR, q, qT);
 					
 					/* special case for 0 */
-					Expr lenEq = ctx.mkEq(outLenExpr, zero);
+					Expr lenEq = ctx.mkEq(outLenExpr, terms.num(0, posBV));
 					
 					/* C(qRPrime, qPrime, qT) = C(q_R, q, q_T) - ed_dist(q, a) */
-					Expr<BitVecSort> cExprPrime = energy.apply(qRPrime, qPrime, qT);
-					Expr cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
+					Expr<BitVecSort> cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
+					Expr cNewExpr = ctx.mkAnd(ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr)), BitWidths.mkSubNoWrap(ctx, cExpr, edDistExpr));
 					
 					Expr c = ctx.mkImplies(lenEq, cNewExpr);
-					solver.add(c);
+					add(c);
 					
 					
 					/* loop for the rest */
 					for (int l = 0; l < outputBound; l++) {
 						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
+						lenEq = ctx.mkEq(outLenExpr, terms.num(outputLength, posBV));
 						
-						cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
-						cNewExpr = ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr));
+						cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
+						cNewExpr = ctx.mkAnd(ctx.mkEq(cExprPrime, ctx.mkBVSub(cExpr, edDistExpr)), BitWidths.mkSubNoWrap(ctx, cExpr, edDistExpr));
 						
 						c = ctx.mkImplies(lenEq, cNewExpr);
-						solver.add(c);
+						add(c);
 					}
 				}
 			}
@@ -349,14 +633,14 @@ public class ConstraintsSolver {
 		/* C(q_R, q, q_T) >= 0 */
 		for (int i = 0; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
-				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+				for (Integer targetState : feasibleTargets(sourceState)) {
+					BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+					BitVecExpr stateInt = terms.num(i, stateBV);
+					BitVecExpr targetInt = terms.num(targetState, stateBV);
 										
-					Expr<BitVecSort> cExpr = energy.apply(sourceInt, stateInt, targetInt);
-					Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
-					solver.add(cGreaterExp);
+					Expr<BitVecSort> cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
+					Expr cGreaterExp = ctx.mkBVSGE(cExpr, terms.num(0, energyBV));
+					add(cGreaterExp);
 				}
 			}
 		}
@@ -366,27 +650,27 @@ public class ConstraintsSolver {
 	public void encodeDistanceMean() throws TimeoutException {
 		
 		/* C(q^0_R, q^0, q^0_T) = 0 */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), zero));
+		add(ctx.mkEq(terms.apply(energy, terms.num(0, stateBV), terms.num(0, stateBV), terms.num(0, stateBV)), terms.num(0, energyBV)));
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 				
 				/* out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 					
 				/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-				Expr<BitVecSort> qRPrime = dR.apply(qR, a);
+				Expr<BitVecSort> qRPrime = terms.apply(dR, qR, a);
 				
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 							
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -395,21 +679,24 @@ public class ConstraintsSolver {
 				Expr[] outputChars = new Expr[outputBound];
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp; 
 				}
 				
 				/* ed_dist(q, a) */
-				Expr<BitVecSort> edDistExpr = edDist.apply(q, a);
+				Expr<BitVecSort> edDistExpr = terms.apply(edDist, q, a);
 				
 				/* m - (n x ed_dist(q, a)) */
-				BitVecExpr m = (BitVecNum) ctx.mkNumeral(distance[0], BV); 
-				BitVecExpr n = (BitVecNum) ctx.mkNumeral(distance[1], BV);
-				BitVecExpr diff = ctx.mkBVSub(m, ctx.mkBVMul(n, edDistExpr));
+				BitVecExpr m = terms.num(distance[0], energyBV); 
+				BitVecExpr n = terms.num(distance[1], energyBV);
+				BitVecExpr nTimesEd = ctx.mkBVMul(n, edDistExpr);
+				BitVecExpr diff = ctx.mkBVSub(m, nTimesEd);
+				add(BitWidths.mkMulNoWrap(ctx, n, edDistExpr));
+				add(BitWidths.mkSubNoWrap(ctx, m, nTimesEd));
 				
-				for (Integer targetFrom : target.getStates()) {
-					BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+				for (Integer targetFrom : feasibleTargets(stateFrom)) {
+					BitVecExpr qT = terms.num(targetFrom, stateBV);
 					
 					
 					/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -417,38 +704,38 @@ public class ConstraintsSolver {
 					/* make array of destination states in target */
 					Expr[] dstStates = new Expr[outputBound];
 					
-					dstStates[0] = dT.apply(qT, outputChars[0]);
+					dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 					for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-						dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+						dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 					}
 		
 					/* C(q_R, q, q_T) */
-					Expr<BitVecSort> cExpr = energy.apply(qR, q, qT);
+					Expr<BitVecSort> cExpr = terms.apply(energy, qR, q, qT);
 					
 					/* expressions for implications: out_len(q, a) = 0 ==> 
 					 * C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
 					
 					/* special case for 0 */
-					Expr lenEq = ctx.mkEq(outLenExpr, zero);
+					Expr lenEq = ctx.mkEq(outLenExpr, terms.num(0, posBV));
 					
 					/* C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
-					Expr<BitVecSort> cExprPrime = energy.apply(qRPrime, qPrime, qT);
-					Expr cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
+					Expr<BitVecSort> cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
+					Expr cGreaterExpr = ctx.mkAnd(ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff)), BitWidths.mkSubNoWrap(ctx, cExprPrime, diff));
 					
 					Expr c = ctx.mkImplies(lenEq, cGreaterExpr);
-					solver.add(c);
+					add(c);
 					
 					
 					/* loop for the rest */
 					for (int l = 0; l < outputBound; l++) {
 						int outputLength = l + 1;
-						lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
+						lenEq = ctx.mkEq(outLenExpr, terms.num(outputLength, posBV));
 						
-						cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
-						cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
+						cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
+						cGreaterExpr = ctx.mkAnd(ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff)), BitWidths.mkSubNoWrap(ctx, cExprPrime, diff));
 						
 						c = ctx.mkImplies(lenEq, cGreaterExpr);
-						solver.add(c);
+						add(c);
 					}
 					
 				}
@@ -458,21 +745,21 @@ public class ConstraintsSolver {
 		/* x(q_R, q, q_T) /\ f_R(q_R) -> (C(q_R, q, q_T) >= 0) */
 		for (int i = 0; i < numStates; i++) {
 			for (Integer sourceState : source.getStates()) {
-				for (Integer targetState : target.getStates()) {
-					BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-					BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-					BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+				for (Integer targetState : feasibleTargets(sourceState)) {
+					BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+					BitVecExpr stateInt = terms.num(i, stateBV);
+					BitVecExpr targetInt = terms.num(targetState, stateBV);
 					
-					Expr xExpr = x.apply(sourceInt, stateInt, targetInt);
-					Expr fRExp = f_R.apply(sourceInt);
+					Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt);
+					Expr fRExp = terms.apply(f_R, sourceInt);
 					Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 					
-					Expr<BitVecSort> cExpr = energy.apply(sourceInt, stateInt, targetInt);
-					Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
+					Expr<BitVecSort> cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
+					Expr cGreaterExp = ctx.mkBVSGE(cExpr, terms.num(0, energyBV));
 					Expr consequent = cGreaterExp;
 					
 					Expr c = ctx.mkImplies(antecedent, consequent);
-					solver.add(c);
+					add(c);
 				}
 			}
 		}
@@ -483,24 +770,29 @@ public class ConstraintsSolver {
 		
 	}
 	
+	/* A length (position sort) as an energy value */
+	BitVecExpr toEnergy(Expr<BitVecSort> length) {
+		return widths.toEnergy(ctx, length);
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void encodeDistance() throws TimeoutException {
 		/* edit-distance constraints of individual transitions */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 				
 			for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 				Integer stateFrom = sourceTransition.from;
 				Character move = sourceTransition.getWitness(ba);
-				BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+				BitVecExpr qR = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 				
 				/* make variable out_len(q, a) */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 				
 				/* make variable ed_dist(q, a) */
-				Expr<BitVecSort> edDistExpr = edDist.apply(q, a);
+				Expr<BitVecSort> edDistExpr = terms.apply(edDist, q, a);
 				
 				/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 				
@@ -511,10 +803,10 @@ public class ConstraintsSolver {
 				Expr disjunct = ctx.mkFalse();
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					outputChars[l] = d1exp;
-					Expr lt = ctx.mkBVSLT(index, outLenExpr);
+					Expr lt = ctx.mkBVULT(index, outLenExpr);
 					Expr eq = ctx.mkEq(a, d1exp);
 					disjunct = ctx.mkOr(disjunct, ctx.mkAnd(lt, eq));
 				}
@@ -523,17 +815,17 @@ public class ConstraintsSolver {
 				Expr negDisjunct = ctx.mkNot(disjunct);
 				
 				/* (k = 0) ==> ed_dist(q, a) = 1 */
-				Expr lenEq = ctx.mkEq(outLenExpr, zero);
-				Expr edDistEqOne = ctx.mkEq(edDistExpr, ctx.mkNumeral(1, BV));
+				Expr lenEq = ctx.mkEq(outLenExpr, terms.num(0, posBV));
+				Expr edDistEqOne = ctx.mkEq(edDistExpr, terms.num(1, energyBV));
 				Expr impl1 = ctx.mkImplies(lenEq, edDistEqOne);
 				
 				/* \neg (k = 0) ==> ed_dist(q, a) = k - 1 */
 				Expr lenNotZero = ctx.mkNot(lenEq);
-				Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, ctx.mkNumeral(1, BV))); 	
+				Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(toEnergy(outLenExpr), terms.num(1, energyBV))); 	
 				Expr impl2 = ctx.mkImplies(lenNotZero, edDistKMinus1);
 				
 				/* \neg (k = 0) ==> ed_dist(q, a) = k */
-				Expr edDistK = ctx.mkEq(edDistExpr, outLenExpr); 
+				Expr edDistK = ctx.mkEq(edDistExpr, toEnergy(outLenExpr)); 
 				Expr impl3 = ctx.mkImplies(lenNotZero, edDistK);
 				
 				/* ed_dist constraint 1 */
@@ -556,171 +848,655 @@ public class ConstraintsSolver {
 		else throw new IllegalArgumentException("Unsupported distanceType");
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	/* 
+	 * Band of feasible alignments of an example: e_k(i).first is in [band[0][i], band[1][i]]. Forwards, each input 
+	 * character emits at most outputBound characters; backwards, the rest of the input must still be able to emit 
+	 * the rest of the output. The band is empty at some i (low > high) if the example cannot be produced at all.
+	 */
+	static int[][] exampleBand(int inputLen, int outputLen, int outputBound) {
+		int[] low = new int[inputLen + 1];
+		int[] high = new int[inputLen + 1];
+		
+		/* forwards from e_k(0).first = 0 */
+		high[0] = 0;
+		for (int i = 1; i <= inputLen; i++) {
+			high[i] = Math.min(outputLen, high[i - 1] + outputBound);
+		}
+		
+		/* backwards from e_k(inputLen).first = outputLen */
+		low[inputLen] = outputLen;
+		for (int i = inputLen - 1; i >= 0; i--) {
+			low[i] = Math.max(0, low[i + 1] - outputBound);
+		}
+		
+		return new int[][] { low, high };
+	}
+	
 	public void encodeExamples() throws TimeoutException {
+		exampleTrie = new ExampleTrie(outputBound);
+		runs = new ArrayList<Expr>();
+		runGuards = new ArrayList<BoolExpr>();
+		encodeExamples(ioExamples, 0);
+	}
+	
+	/* Adds examples to constraints that are already encoded; only the trie nodes they change are encoded */
+	public void addExamples(List<Pair<String, String>> examples) throws TimeoutException {
+		stopIfInterrupted();
+		
+		ioExamples = new ArrayList<Pair<String, String>>(ioExamples);
+		ioExamples.addAll(examples);
+		
+		if (exampleTrie == null) {
+			exampleTrie = new ExampleTrie(outputBound);
+			runs = new ArrayList<Expr>();
+			runGuards = new ArrayList<BoolExpr>();
+		}
+		encodeExamples(examples, ioExamples.size() - examples.size());
+	}
+	
+	/* index is the position of the first of examples in ioExamples, to name the tracking literals */
+	void encodeExamples(List<Pair<String, String>> examples, int index) throws TimeoutException {
 		/* example constraints */
-		eFuncs = new FuncDecl[ioExamples.size()];
-		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
+		for (Pair<String, String> ioExample : examples) {
+			BoolExpr exampleLit = mkGroup("example " + String.valueOf(index++));
+			
+			int[][] arrays = exampleToIntArrays(source, target, alphabetMap, ioExample, ba);
+			if (arrays == null) continue;
+			int[] inputArr = arrays[0];
+			int[] outputArr = arrays[1];
+			
+			List<ExampleTrie.Node> changed = exampleTrie.insert(inputArr, outputArr);
+			if (exampleLit == null) {
+				for (ExampleTrie.Node node : changed) {
+					encodeRun(node);
+				}
+			} else {
+				for (ExampleTrie.Node node : exampleTrie.path(inputArr)) {
+					encodeTrackedRun(node, exampleLit, inputArr.length, outputArr);
+				}
+			}
+		}
+		group = null;
+	}
+	
+	/* 
+	 * Constraints on the run variable r_n = (output position, state) of a trie node: its band and, the first 
+	 * time, the step from the run variable of the parent; examples that share an input prefix share these
+	 */
+	void encodeRun(ExampleTrie.Node node) {
+		boolean created = mkRun(node, null);
+		Expr<BitVecSort> runFirst = terms.apply(first, runs.get(node.id));
+		
+		/* the band is empty if the examples need longer outputs than outputBound, or they disagree */
+		if (node.isEmpty() || node.conflict) {
+			solver.add(ctx.mkFalse());
+			return;
+		}
+		
+		/* low <= r_n.first <= high; the bounds only get tighter as examples are added */
+		if (node.low > 0) solver.add(ctx.mkBVUGE(runFirst, terms.num(node.low, posBV)));
+		solver.add(ctx.mkBVULE(runFirst, terms.num(node.high, posBV)));
+		
+		/* final position : r_n.first = l2 */
+		if (node.finalOutput != null) solver.add(ctx.mkEq(runFirst, terms.num(node.finalOutput.length, posBV)));
+		
+		if (created) encodeStep(node);
+	}
+	
+	/* 
+	 * encodeRun for unsat cores: every node on the path of the example gets the bounds that follow from the 
+	 * example itself, guarded by its literal; the bound by the common prefix with the output of the example that 
+	 * created the node is guarded by both, and the step of a new node by the literal of the example creating it. 
+	 * Conflicts are left to the solver, so that the core names the examples involved.
+	 */
+	void encodeTrackedRun(ExampleTrie.Node node, BoolExpr exampleLit, int inputLen, int[] output) {
+		boolean created = mkRun(node, exampleLit);
+		Expr<BitVecSort> runFirst = terms.apply(first, runs.get(node.id));
+		
+		group = exampleLit;
+		int low = output.length - (inputLen - node.depth) * outputBound;
+		if (low > 0) add(ctx.mkBVUGE(runFirst, terms.num(low, posBV)));
+		if (node.depth == inputLen) add(ctx.mkEq(runFirst, terms.num(output.length, posBV)));
+		
+		group = ctx.mkAnd(exampleLit, runGuards.get(node.id));
+		int lcp = ExampleTrie.commonPrefix(node.output, output, output.length);
+		add(ctx.mkBVULE(runFirst, terms.num(lcp, posBV)));
+		
+		group = exampleLit;
+		if (created) encodeStep(node);
+	}
+	
+	/* Declares the run variable of node if it is new, with the constraints that hold for every run */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	boolean mkRun(ExampleTrie.Node node, BoolExpr creatorLit) {
+		if (node.id < runs.size()) return false;
+		
+		Expr run = ctx.mkConst("r " + String.valueOf(node.id), pair);
+		runs.add(run);
+		runGuards.add(creatorLit);
 		
-		int exampleCount = 0;
-		for (Pair<String, String> ioExample : ioExamples) {
-			/* verify example */
-			if (SFAOperations.getStateInFA(source, source.getInitialState(), ioExample.first, ba) == -1) { System.err.println("Illegal example for source: " + ioExample.first); continue; } 
-			if (SFAOperations.getStateInFA(target, target.getInitialState(), ioExample.second, ba) == -1) { System.err.println("Illegal example for target: " + ioExample.second); continue; } 
+		/* restrict values of second */
+		solver.add(ctx.mkBVULT(terms.apply(second, run), numStatesInt));
+		
+		if (node.parent == null) {
+			/* initial position : r_root = (0, q_0) */
+			Expr initPair = terms.apply(mkPair, terms.num(0, posBV), terms.num(0, stateBV));
+			solver.add(ctx.mkEq(run, initPair));
+		}
+		
+		return true;
+	}
+	
+	/* 
+	 * The encoding follows the trie: from the parent only the character of the node is read, so r_n only 
+	 * needs the transitions (q, a) and not every source transition and target state
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void encodeStep(ExampleTrie.Node node) {
+		if (node.parent == null) return;
+		
+		Expr run = runs.get(node.id);
+		ExampleTrie.Node parent = node.parent;
+		Expr parentRun = runs.get(parent.id);
+		BitVecExpr a = terms.num(node.input, charBV);
+		
+		for (int s = 0; s < numStates; s++) {	// q 
+			BitVecExpr q = terms.num(s, stateBV);
 			
-			int[] inputArr = stringToIntArray(alphabetMap, ioExample.first);
-			int[] outputArr = stringToIntArray(alphabetMap, ioExample.second);
+			/* out_len(q, a) */
+			Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
 			
-			/* declare function e_k: k x input_position -> (output_position, Q) */
-			Sort[] args = new Sort[] {BV};
-			eFuncs[exampleCount] = ctx.mkFuncDecl("e " + String.valueOf(exampleCount), args, pair);
-			FuncDecl e = eFuncs[exampleCount];
+			/* make variable q' = d2(q, a) */
+			Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 			
-			/* initial position : e_k(0) = (0, q_0) */
-			Expr initPair = pair.mkDecl().apply(zero, zero);
-			solver.add(ctx.mkEq(e.apply(zero), initPair));
+			/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 			
-			int inputLen = ioExample.first.length();
-			BitVecExpr inputLength = (BitVecNum) ctx.mkNumeral(inputLen, BV);
-			int outputLen = ioExample.second.length();
-			BitVecExpr outputLength = (BitVecNum) ctx.mkNumeral(outputLen, BV);
+			/* make array of output chars */
+			Expr[] outputChars = new Expr[outputBound];
 			
-			/* 0 <= e_k(l1).first <= outputLen and 0 <= e_k(l1).second < numStates */
-			for (int l = 0; l <= inputLen; l++) {
-					Expr eExpr = e.apply((BitVecNum) ctx.mkNumeral(l, BV));
-					Expr<BitVecSort> eExprFirst = first.apply(eExpr);
-					Expr<BitVecSort> eExprSecond = second.apply(eExpr);
-					
-					/* restrict values of first */
-					solver.add(ctx.mkBVSLE(zero, eExprFirst));
-					solver.add(ctx.mkBVSLE(eExprFirst, outputLength));
-					
-					/* restrict values of second */
-					solver.add(ctx.mkBVSLE(zero, eExprSecond));
-					solver.add(ctx.mkBVSLT(eExprSecond, numStatesInt));
+			for (int l = 0; l < outputBound; l++) {
+				BitVecExpr index = terms.num(l, posBV);
+				Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
+				outputChars[l] = d1exp;
 			}
 			
-			/* final position : e_k(l1).first = l2 */
-			Expr<BitVecSort> eExprFirst = first.apply(e.apply(inputLength));
-			solver.add(ctx.mkEq(eExprFirst, outputLength));
-			
-			for (int s = 0; s < numStates; s++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(s, BV);
-					
-				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
-					Integer stateFrom = sourceTransition.from;
-					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-					
-					/* out_len(q, a) */
-					Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
-						
-					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					// Expr qRPrime = dR.apply(qR, a);
-					
-					
-					/* make variable q' = d2(q, a) */
-					Expr<BitVecSort> qPrime = d2.apply(q, a);
-								
-					
-					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
-					
-					/* make array of output chars */
-					Expr[] outputChars = new Expr[outputBound];
+			for (int j = parent.low; j <= parent.high; j++) {
+				BitVecExpr outputPosition = terms.num(j, posBV);
+				
+				/* r_parent = (j, q) */
+				Expr eExpr = ctx.mkEq(parentRun, terms.apply(mkPair, outputPosition, q));
+				
+				/* output must stay within the common prefix of the outputs through the node */
+				int possibleOutputLen = Math.min(node.lcp - j, outputBound);
+				if (possibleOutputLen < 0) {
+					add(ctx.mkNot(eExpr));
+					continue;
+				}
+				BitVecExpr possibleOutputLength = terms.num(possibleOutputLen, posBV);
+				
+				Expr outputLe = ctx.mkBVULE(outLenExpr, possibleOutputLength);
+				if (node.low > j) {
+					outputLe = ctx.mkAnd(outputLe, ctx.mkBVUGE(outLenExpr, terms.num(node.low - j, posBV)));
+				}
+				
+				/* expressions for implications: out_len(q, a) = 0 ==> r_n = (j, q') */
+				
+				/* special case for 0 */
+				Expr lenEq = ctx.mkEq(outLenExpr, terms.num(0, posBV));
+				Expr eExprPrime = ctx.mkEq(run, terms.apply(mkPair, outputPosition, qPrime));
+				
+				Expr c = ctx.mkImplies(lenEq, eExprPrime);
+				
+				/* loop for the rest */
+				Expr consequent = ctx.mkAnd(outputLe, c);
+				for (int l = 0; l < possibleOutputLen; l++) { 
+					int outputGenLength = l + 1;
+					lenEq = ctx.mkEq(outLenExpr, terms.num(outputGenLength, posBV));
+					eExprPrime = ctx.mkEq(run, terms.apply(mkPair, terms.num(j + outputGenLength, posBV), qPrime));
 					
-					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q, a, index);
-						outputChars[l] = d1exp;
+					/* equalities */
+					Expr stringEqualities = ctx.mkTrue();
+					for (int inc = 1; inc <= outputGenLength; inc++) {
+						int index = (j + inc) - 1;
+						BitVecExpr nextPosition = terms.num(node.output[index], charBV);
+						Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
+						stringEqualities = ctx.mkAnd(stringEqualities, eq);
 					}
 					
-					
-					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
-						
-						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
-						
-						/* make array of destination states in target */
-						Expr[] dstStates = new Expr[outputBound];
-						
-						dstStates[0] = dT.apply(qT, outputChars[0]);
-						for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]);
-						}
-						
-						
-						for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
-							for (int j = 0; j <= outputLen; j++) {	// but output is already completely generated
-								BitVecExpr inputPosition = (BitVecNum) ctx.mkNumeral(i, BV);
-								BitVecExpr outputPosition = (BitVecNum) ctx.mkNumeral(j, BV);
-								
-								/* input[i+1] = a */
-								BitVecExpr nextInputPosition = (BitVecNum) ctx.mkNumeral(inputArr[i], BV);
-								Expr inputEq = ctx.mkEq(nextInputPosition, a);
-								
-								/* output needs be <= outputLen - j */
-								int possibleOutputLen = Math.min(outputLen - j, outputBound);
-								BitVecExpr possibleOutputLength = (BitVecNum) ctx.mkNumeral(possibleOutputLen, BV);
-								
-								Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
-								
-								/* e_k(i) = (j, q) */
-								Expr eExpr = ctx.mkEq(e.apply(inputPosition), pair.mkDecl().apply(outputPosition, q));
-								
-								/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') */
-								
-								/* special case for 0 */
-								Expr lenEq = ctx.mkEq(outLenExpr, zero);
-								Expr eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), pair.mkDecl().apply(outputPosition, qPrime));
-								
-								Expr c = ctx.mkImplies(lenEq, eExprPrime);
-								
-								/* loop for the rest */
-								Expr consequent = ctx.mkAnd(outputLe, c);
-								for (int l = 0; l < possibleOutputLen; l++) { 
-									int outputGenLength = l + 1;
-									lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputGenLength, BV));
-									eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-											pair.mkDecl().apply((BitVecNum) ctx.mkNumeral(j + outputGenLength, BV), qPrime));
-									
-									/* equalities */
-									Expr stringEqualities = ctx.mkTrue();
-									for (int inc = 1; inc <= outputGenLength; inc++) {
-										int index = (j + inc) - 1;
-										BitVecExpr nextPosition = (BitVecNum) ctx.mkNumeral(outputArr[index], BV);
-										Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
-										stringEqualities = ctx.mkAnd(stringEqualities, eq);
-									}
-									
-									c = ctx.mkImplies(lenEq, ctx.mkAnd(stringEqualities, eExprPrime)); 
-									consequent = ctx.mkAnd(consequent, c);
-								}
-								
-								
-								/* make big constraint */
-								Expr antecedent = ctx.mkAnd(eExpr, inputEq);
-								solver.add(ctx.mkImplies(antecedent, consequent));
-							}
-						}
-						
+					c = ctx.mkImplies(lenEq, ctx.mkAnd(stringEqualities, eExprPrime)); 
+					consequent = ctx.mkAnd(consequent, c);
+				}
+				
+				/* make big constraint */
+				add(ctx.mkImplies(eExpr, consequent));
+			}
+		}
+	}
+	
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraints(String smtFile, boolean debug) throws TimeoutException {
+		encode();
+		
+		/* Print SMT string to smtFile */
+		try {
+			if (smtFile != null) {
+				BufferedWriter br = new BufferedWriter(new FileWriter(new File(smtFile)));
+				br.write(solver.toString());
+				br.write("(check-sat)");
+				br.close();
+			}
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+		
+		return constructSFT(debug);
+	}
+	
+	/* 
+	 * Incremental search: the constraints are encoded once for the largest bounds (numStates, outputBound), 
+	 * smaller bounds are then selected by solveWithBounds through activation literals, so that the 
+	 * solver keeps what it learned in earlier (UNSAT) rounds
+	 */
+	public void mkIncrementalConstraints() throws TimeoutException {
+		if (template != null || ftTemplate != null) {
+			throw new IllegalArgumentException("Incremental search is not supported with templates");
+		}
+		
+		encode();
+		encodeBoundLiterals();
+	}
+	
+	/* s_k ==> d2(q, a) < k and o_l ==> out_len(q, a) <= l, for all q and a */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void encodeBoundLiterals() {
+		stateBoundLits = new BoolExpr[numStates];
+		for (int k = 1; k <= numStates; k++) {
+			stateBoundLits[k - 1] = ctx.mkBoolConst("s_" + k);
+			BitVecExpr statesInt = terms.num(k, stateBV);
+			
+			Expr conjunct = ctx.mkTrue();
+			for (int i = 0; i < numStates; i++) {
+				BitVecExpr q = terms.num(i, stateBV);
+				
+				for (int move : alphabetMap.values())  {
+					BitVecExpr a = terms.num(move, charBV);
+					conjunct = ctx.mkAnd(conjunct, ctx.mkBVULT(terms.apply(d2, q, a), statesInt));
+				}
+			}
+			solver.add(ctx.mkImplies(stateBoundLits[k - 1], conjunct));
+			if (coreNames != null) coreNames.put(stateBoundLits[k - 1], "states");
+		}
+		
+		outputBoundLits = new BoolExpr[outputBound + 1];
+		for (int l = 0; l <= outputBound; l++) {
+			outputBoundLits[l] = ctx.mkBoolConst("o_" + l);
+			BitVecExpr lengthInt = terms.num(l, posBV);
+			
+			Expr conjunct = ctx.mkTrue();
+			for (int i = 0; i < numStates; i++) {
+				BitVecExpr q = terms.num(i, stateBV);
+				
+				for (int move : alphabetMap.values())  {
+					BitVecExpr a = terms.num(move, charBV);
+					conjunct = ctx.mkAnd(conjunct, ctx.mkBVULE(terms.apply(out_len, q, a), lengthInt));
+				}
+			}
+			solver.add(ctx.mkImplies(outputBoundLits[l], conjunct));
+			if (coreNames != null) coreNames.put(outputBoundLits[l], "output");
+		}
+	}
+	
+	/* 
+	 * Activation literal of d2(0, a) = qPrime /\ out_len(0, a) = length, for the cubes of CubeAndConquer; 
+	 * assumptions must be literals, like the bound literals of encodeBoundLiterals
+	 */
+	BoolExpr mkInitialChoice(int move, int qPrime, int length) {
+		BitVecExpr q = terms.num(0, stateBV);
+		BitVecExpr a = terms.num(move, charBV);
+		
+		BoolExpr lit = ctx.mkBoolConst("cube " + move + " " + qPrime + " " + length);
+		solver.add(ctx.mkImplies(lit, ctx.mkAnd(ctx.mkEq(terms.apply(d2, q, a), terms.num(qPrime, stateBV)), 
+				ctx.mkEq(terms.apply(out_len, q, a), terms.num(length, posBV)))));
+		return lit;
+	}
+	
+	/* Solve for at most 'states' states and output length at most 'length', after mkIncrementalConstraints */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> solveWithBounds(int states, int length, boolean debug) throws TimeoutException {
+		if (stateBoundLits == null) {
+			throw new IllegalArgumentException("mkIncrementalConstraints must be called before solveWithBounds");
+		}
+		if (states < 1 || states > numStates || length < 0 || length > outputBound) {
+			throw new IllegalArgumentException("Bounds exceed the encoded numStates and outputBound");
+		}
+		
+		return constructSFT(debug, states, stateBoundLits[states - 1], outputBoundLits[length]);
+	}
+	
+	/* 
+	 * Optimizing mode: the constraints are encoded once, for numStates and outputBound, and moved to a Z3 Optimize, 
+	 * which minimizes the objectives lexicographically, in the order given: "distance" is the total edit distance of 
+	 * the transitions from used states, "states" the number of used states and "length" the largest out_len of a 
+	 * transition from a used state. The used states are the ones reachable from state 0. The distance fraction still 
+	 * bounds the mean edit distance as a constraint.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraintsOptimize(List<String> objectives, boolean debug) throws TimeoutException {
+		if (lazyTypes || backend != null) {
+			throw new IllegalArgumentException("Optimization is not supported with lazy types or a backend");
+		}
+		if (objectives.contains("distance") && config != null && !config.get(2)) {
+			throw new IllegalArgumentException("The distance objective needs the distance constraints");
+		}
+		
+		encode();
+		
+		Optimize opt = ctx.mkOptimize();
+		Params p = ctx.mkParams();
+		p.add("priority", "lex");
+		if (timeout > 0) p.add("timeout", (int) Math.min(timeout, Integer.MAX_VALUE));
+		opt.setParameters(p);
+		opt.Add(solver.getAssertions());
+		
+		/* used(0), used(q) /\ d2(q, a) = q' ==> used(q') */
+		BoolExpr[] used = new BoolExpr[numStates];
+		for (int i = 0; i < numStates; i++) {
+			used[i] = ctx.mkBoolConst("used " + i);
+		}
+		opt.Add(used[0]);
+		for (int i = 0; i < numStates; i++) {
+			for (int move : alphabetMap.values()) {
+				Expr<BitVecSort> qPrime = terms.apply(d2, terms.num(i, stateBV), terms.num(move, charBV));
+				for (int j = 0; j < numStates; j++) {
+					opt.Add(ctx.mkImplies(ctx.mkAnd(used[i], ctx.mkEq(qPrime, terms.num(j, stateBV))), used[j]));
+				}
+			}
+		}
+		
+		List<Optimize.Handle> handles = new ArrayList<Optimize.Handle>();
+		for (String objective : objectives) {
+			if (objective.equals("distance")) {
+				/* ed_dist is only encoded for the characters of source transitions */
+				Set<Integer> moves = new HashSet<Integer>();
+				for (SFAMove<CharPred, Character> sourceTransition : source.getTransitions()) {
+					moves.add(alphabetMap.get(sourceTransition.getWitness(ba)));
+				}
+				
+				List<Expr> distances = new ArrayList<Expr>();
+				for (int i = 0; i < numStates; i++) {
+					for (int move : moves) {
+						Expr<BitVecSort> edDistExpr = terms.apply(edDist, terms.num(i, stateBV), terms.num(move, charBV));
+						distances.add(ctx.mkITE(used[i], ctx.mkBV2Int(edDistExpr, true), ctx.mkInt(0)));
 					}
-					
 				}
+				handles.add(opt.MkMinimize(ctx.mkAdd(distances.toArray(new Expr[distances.size()]))));
+				
+			} else if (objective.equals("states")) {
+				Expr[] states = new Expr[numStates];
+				for (int i = 0; i < numStates; i++) {
+					states[i] = ctx.mkITE(used[i], ctx.mkInt(1), ctx.mkInt(0));
+				}
+				handles.add(opt.MkMinimize(ctx.mkAdd(states)));
+				
+			} else if (objective.equals("length")) {
+				Expr maxLength = ctx.mkIntConst("max out_len");
+				for (int i = 0; i < numStates; i++) {
+					for (int move : alphabetMap.values()) {
+						Expr<BitVecSort> outLenExpr = terms.apply(out_len, terms.num(i, stateBV), terms.num(move, charBV));
+						opt.Add(ctx.mkImplies(used[i], ctx.mkLe(ctx.mkBV2Int(outLenExpr, false), maxLength)));
+					}
+				}
+				handles.add(opt.MkMinimize(maxLength));
+				
+			} else {
+				throw new IllegalArgumentException("Unsupported objective: " + objective);
+			}
+		}
+		
+		BoolExpr[] assumptions = (groupLits == null) ? new BoolExpr[0] : groupLits.toArray(new BoolExpr[groupLits.size()]);
+		
+		Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
+		long startTime = System.nanoTime();
+		Status status = opt.Check(assumptions);
+		long stopTime = System.nanoTime();
+		
+		if (status == Status.UNKNOWN) throw new TimeoutException("z3: " + opt.getReasonUnknown());
+		if (status == Status.SATISFIABLE) {
+			Model m = opt.getModel();
+			if (debug) {
+				for (int k = 0; k < objectives.size(); k++) {
+					System.out.println(objectives.get(k) + " = " + handles.get(k).getValue());
+				}
+			}
+			
+			/* only the transitions of used states */
+			for (SFTMove<CharPred, CharFunc, Character> transition : mkTransitions(z3Model(m), numStates, template, ftTemplate, alphabetMap, ba)) {
+				if (m.evaluate(used[transition.from], false).isTrue()) transitionsFT.add(transition);
+			}
+		}
+		
+		return mkSFT(transitionsFT, startTime, stopTime);
+	}
+	
+	/* 
+	 * Symmetry breaking: the states are numbered in the order in which a BFS from state 0 reaches them, reading 
+	 * the characters in the order of alphabetMap, so only one of the numStates! numberings of a transducer is 
+	 * left. Following Ulyantsev et al., p_j_i holds if i is the BFS parent of j, the first state with a transition 
+	 * to j; parents do not decrease with j, and children of the same parent are ordered by their first character. 
+	 * A state without incoming transitions is unused, and only the last states may be unused; every transducer 
+	 * can be renumbered like this once the transitions of its unreachable states go to state 0.
+	 */
+	void encodeSymmetryBreaking() {
+		List<Integer> moves = new ArrayList<Integer>(alphabetMap.values());
+		Collections.sort(moves);
+		
+		/* edge[i][a][j]: d2(i, a) = j */
+		BoolExpr[][][] edge = new BoolExpr[numStates][moves.size()][numStates];
+		for (int i = 0; i < numStates; i++) {
+			for (int a = 0; a < moves.size(); a++) {
+				Expr<BitVecSort> qPrime = terms.apply(d2, terms.num(i, stateBV), terms.num(moves.get(a), charBV));
+				for (int j = 0; j < numStates; j++) {
+					edge[i][a][j] = ctx.mkEq(qPrime, terms.num(j, stateBV));
+				}
+			}
+		}
+		
+		/* t[i][j]: some transition from i to j; minEdge[i][a][j]: a is the first character from i to j */
+		BoolExpr[][] t = new BoolExpr[numStates][numStates];
+		BoolExpr[][][] minEdge = new BoolExpr[numStates][moves.size()][numStates];
+		for (int i = 0; i < numStates; i++) {
+			for (int j = 0; j < numStates; j++) {
+				t[i][j] = ctx.mkBoolConst("bfs_t " + i + " " + j);
+				solver.add(ctx.mkEq(t[i][j], ctx.mkOr(edgesTo(edge, i, moves.size(), j))));
+				
+				for (int a = 0; a < moves.size(); a++) {
+					minEdge[i][a][j] = ctx.mkBoolConst("bfs_m " + i + " " + moves.get(a) + " " + j);
+					solver.add(ctx.mkEq(minEdge[i][a][j], ctx.mkAnd(edge[i][a][j], ctx.mkNot(ctx.mkOr(edgesTo(edge, i, a, j))))));
+				}
+			}
+		}
+		
+		/* used[j]: some transition to j */
+		BoolExpr[] used = new BoolExpr[numStates];
+		for (int j = 0; j < numStates; j++) {
+			BoolExpr[] incoming = new BoolExpr[numStates];
+			for (int i = 0; i < numStates; i++) {
+				incoming[i] = t[i][j];
+			}
+			used[j] = ctx.mkOr(incoming);
+		}
+		
+		/* p[j][i], i < j: i is the smallest state with a transition to j */
+		BoolExpr[][] p = new BoolExpr[numStates][];
+		for (int j = 1; j < numStates; j++) {
+			p[j] = new BoolExpr[j];
+			for (int i = 0; i < j; i++) {
+				p[j][i] = ctx.mkBoolConst("bfs_p " + j + " " + i);
+				
+				BoolExpr first = t[i][j];
+				for (int k = 0; k < i; k++) {
+					first = ctx.mkAnd(first, ctx.mkNot(t[k][j]));
+				}
+				solver.add(ctx.mkEq(p[j][i], first));
 			}
 			
-			exampleCount++;
+			/* a used state has a parent before it */
+			solver.add(ctx.mkImplies(used[j], ctx.mkOr(p[j])));
+		}
+		
+		for (int j = 1; j + 1 < numStates; j++) {
+			/* only the last states are unused */
+			solver.add(ctx.mkImplies(used[j + 1], used[j]));
+			
+			for (int i = 0; i < j; i++) {
+				/* p(j) = i ==> p(j + 1) >= i */
+				for (int k = 0; k < i; k++) {
+					solver.add(ctx.mkImplies(p[j][i], ctx.mkNot(p[j + 1][k])));
+				}
+				
+				/* p(j) = p(j + 1) = i ==> the first character from i to j comes before the one to j + 1 */
+				for (int a = 0; a < moves.size(); a++) {
+					for (int b = 0; b < a; b++) {
+						solver.add(ctx.mkImplies(ctx.mkAnd(p[j][i], p[j + 1][i], minEdge[i][a][j]), ctx.mkNot(minEdge[i][b][j + 1])));
+					}
+				}
+			}
+		}
+	}
+	
+	/* edge[i][b][j] for b < count */
+	static BoolExpr[] edgesTo(BoolExpr[][][] edge, int i, int count, int j) {
+		BoolExpr[] edges = new BoolExpr[count];
+		for (int b = 0; b < count; b++) {
+			edges[b] = edge[i][b][j];
+		}
+		return edges;
+	}
+	
+	/* Tracking literal of a new group of constraints, or null without unsat cores */
+	BoolExpr mkGroup(String name) {
+		if (!coreTracking) return null;
+		
+		if (groupLits == null) {
+			groupLits = new ArrayList<BoolExpr>();
+			coreNames = new HashMap<BoolExpr, String>();
+		}
+		BoolExpr lit = ctx.mkBoolConst("track " + name);
+		groupLits.add(lit);
+		coreNames.put(lit, name);
+		return lit;
+	}
+	
+	/* Adds c to solver, guarded by the current group if there is one */
+	void add(Expr<BoolSort> c) {
+		if (group == null) solver.add(c);
+		else solver.add(ctx.mkImplies(group, c));
+	}
+	
+	/* 
+	 * CEGIS: only initialExamples examples, chosen by selectExamples, are encoded at first. Each candidate is 
+	 * run on the remaining examples and the ones it gets wrong are added to the solver, until a candidate is 
+	 * correct on all of them or the constraints are UNSAT. The time is the total solving time of all rounds.
+	 */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraintsCEGIS(int initialExamples, boolean debug) throws TimeoutException {
+		encodeCEGIS(initialExamples);
+		return solveCEGIS(debug);
+	}
+	
+	/* Encodes the constraints with the initial examples only; the others are pending */
+	void encodeCEGIS(int initialExamples) throws TimeoutException {
+		if (initialExamples < 1) {
+			throw new IllegalArgumentException("CEGIS needs at least one initial example");
+		}
+		
+		List<Pair<String, String>> initial = selectExamples(source, ioExamples, initialExamples, ba);
+		pendingExamples = new ArrayList<Pair<String, String>>();
+		for (Pair<String, String> example : ioExamples) {
+			if (!initial.contains(example)) pendingExamples.add(example);
 		}
+		ioExamples = initial;
+		
+		encode();
 	}
 	
+	/* Checks until a candidate is correct on the pending examples, adding the ones it gets wrong */
+	Pair<SFT<CharPred, CharFunc, Character>, Long> solveCEGIS(boolean debug) throws TimeoutException {
+		long solvingTime = 0;
+		while (true) {
+			Pair<SFT<CharPred, CharFunc, Character>, Long> res = constructSFT(debug);
+			solvingTime += res.second;
+			
+			/* UNSAT with a subset of the examples is UNSAT with all of them */
+			if (res.first.getTransitions().isEmpty()) return new Pair<SFT<CharPred, CharFunc, Character>, Long>(res.first, solvingTime);
+			
+			List<Pair<String, String>> failing = new ArrayList<Pair<String, String>>();
+			for (Pair<String, String> example : pendingExamples) {
+				String output = SFTOperations.getOutputString(res.first, example.first);
+				if (!output.equals(example.second)) failing.add(example);
+			}
+			
+			if (failing.isEmpty()) return new Pair<SFT<CharPred, CharFunc, Character>, Long>(res.first, solvingTime);
+			
+			if (debug) System.out.println("CEGIS: adding " + failing.size() + " of " + pendingExamples.size() + " examples");
+			pendingExamples.removeAll(failing);
+			addExamples(failing);
+		}
+	}
+	
+	/* 
+	 * Greedily picks at most count examples that together cover as many source transitions as possible: each 
+	 * step takes the example whose input takes the most transitions not taken by the examples picked so far
+	 */
+	static List<Pair<String, String>> selectExamples(SFA<CharPred, Character> source, List<Pair<String, String>> examples, 
+			int count, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
+		List<Set<List<Integer>>> taken = new ArrayList<Set<List<Integer>>>();
+		for (Pair<String, String> example : examples) {
+			Set<List<Integer>> transitions = new HashSet<List<Integer>>();
+			Integer state = source.getInitialState();
+			for (int i = 0; i < example.first.length() && state != -1; i++) {
+				Character move = example.first.charAt(i);
+				transitions.add(Arrays.asList(state, (int) move));
+				state = SFAOperations.getSuccessorState(source, state, move, ba);
+			}
+			taken.add(transitions);
+		}
+		
+		List<Pair<String, String>> selected = new ArrayList<Pair<String, String>>();
+		Set<List<Integer>> covered = new HashSet<List<Integer>>();
+		boolean[] picked = new boolean[examples.size()];
+		while (selected.size() < Math.min(count, examples.size())) {
+			int best = -1;
+			int bestGain = -1;
+			for (int k = 0; k < examples.size(); k++) {
+				if (picked[k]) continue;
+				
+				int gain = 0;
+				for (List<Integer> transition : taken.get(k)) {
+					if (!covered.contains(transition)) gain++;
+				}
+				if (gain > bestGain) {
+					best = k;
+					bestGain = gain;
+				}
+			}
+			
+			picked[best] = true;
+			selected.add(examples.get(best));
+			covered.addAll(taken.get(best));
+		}
+		
+		return selected;
+	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public Pair<SFT<CharPred, CharFunc, Character>, Long> mkConstraints(String smtFile, boolean debug) throws TimeoutException {
+	void encode() throws TimeoutException {
 		/* Set params */
 		Params p = ctx.mkParams();
 		p.add("smt.relevancy", 0);
 		p.add("smt.bv.eq_axioms", false);
 		p.add("smt.phase_caching_on", 80000);
+		if (timeout > 0) p.add("timeout", (int) Math.min(timeout, Integer.MAX_VALUE));
+		if (rlimit > 0) p.add("rlimit", (int) Math.min(rlimit, Integer.MAX_VALUE));
 		solver.setParameters(p);
 		
 		/* Ensures numStates is correct */
@@ -728,136 +1504,154 @@ public class ConstraintsSolver {
 			this.numStates = template.stateCount();
 		}
 		
-		/* bit-vec and bool sorts */
-		BV = ctx.mkBitVecSort(8);
+		/* (q_R, q_T) pairs for which x and C are encoded */
+		computeFeasiblePairs();
+		long productStates = 0;
+		for (Set<Integer> targets : feasiblePairs.values()) {
+			productStates += targets.size();
+		}
+		productStates *= numStates;
+		
+		/* bit-vec and bool sorts, wide enough for the states, alphabet, examples and energy values */
+		List<Pair<String, String>> allExamples = ioExamples;
+		if (pendingExamples != null) {
+			allExamples = new ArrayList<Pair<String, String>>(ioExamples);
+			allExamples.addAll(pendingExamples);
+		}
+		widths = BitWidths.mkWidths(source, target, numStates, outputBound, alphabetMap.size(), allExamples, distance, productStates);
+		stateBV = ctx.mkBitVecSort(widths.stateWidth);
+		charBV = ctx.mkBitVecSort(widths.charWidth);
+		posBV = ctx.mkBitVecSort(widths.posWidth);
+		energyBV = ctx.mkBitVecSort(widths.energyWidth);
 		B = ctx.getBoolSort();
+		terms = new TermCache(ctx);
 		
 		/* some useful constants */
-		numStatesInt = (BitVecNum) ctx.mkNumeral(numStates, BV);
-		alphabetSize = (BitVecNum) ctx.mkNumeral(alphabetMap.size(), BV);
-		zero = (BitVecNum) ctx.mkNumeral(0, BV);
-		bound = (BitVecNum) ctx.mkNumeral(outputBound, BV);
+		numStatesInt = terms.num(numStates, stateBV);
+		alphabetSize = terms.num(alphabetMap.size(), charBV);
+		bound = terms.num(outputBound, posBV);
 		
 		/* d_R: transition relation of source */
-		Sort[] argsToDR = new Sort[]{ BV, BV };
-		dR = ctx.mkFuncDecl("dR", argsToDR, BV);
+		Sort[] argsToDR = new Sort[]{ stateBV, charBV };
+		dR = ctx.mkFuncDecl("dR", argsToDR, stateBV);
 		
 		/* encode d_R */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (SFAMove<CharPred, Character> transition : sourceTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.num(stateFrom, stateBV);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.num(stateTo, stateBV);
 			
-			Expr<BitVecSort> dexp = dR.apply(q1, a);
+			Expr<BitVecSort> dexp = terms.apply(dR, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* d_T: transition relation of target */
-		Sort[] argsToDT = new Sort[]{ BV, BV };
-		dT = ctx.mkFuncDecl("dT", argsToDT, BV);
+		Sort[] argsToDT = new Sort[]{ stateBV, charBV };
+		dT = ctx.mkFuncDecl("dT", argsToDT, stateBV);
 		
 		/* encode d_T */
 		Collection<SFAMove<CharPred, Character>> targetTransitions = target.getTransitions();
 		for (SFAMove<CharPred, Character> transition : targetTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.num(stateFrom, stateBV);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.num(stateTo, stateBV);
 			
-			Expr<BitVecSort> dexp = dT.apply(q1, a);
+			Expr<BitVecSort> dexp = terms.apply(dT, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* declare f_R : Q -> {0, 1} */
-		f_R = ctx.mkFuncDecl("f_R", BV, B);
+		f_R = ctx.mkFuncDecl("f_R", stateBV, B);
 		for (Integer sourceState : source.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-			Expr c = f_R.apply(stateInt);
+			BitVecExpr stateInt = terms.num(sourceState, stateBV);
+			Expr c = terms.apply(f_R, stateInt);
 			if (!source.isFinalState(sourceState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
 		
 		/* declare f_T : Q -> {0, 1} */
-		f_T = ctx.mkFuncDecl("f_T", BV, B);
+		f_T = ctx.mkFuncDecl("f_T", stateBV, B);
 		for (Integer targetState : target.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-			Expr c = f_T.apply(stateInt);
+			BitVecExpr stateInt = terms.num(targetState, stateBV);
+			Expr c = terms.apply(f_T, stateInt);
 			if (!target.isFinalState(targetState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
 		
 		/* declare d_1:  */
-		Sort[] argsToD1 = new Sort[]{ BV, BV, BV };
-		d1 = ctx.mkFuncDecl("d1", argsToD1, BV);
+		Sort[] argsToD1 = new Sort[]{ stateBV, charBV, posBV };
+		d1 = ctx.mkFuncDecl("d1", argsToD1, charBV);
 		
 		/* declare out_len */
-		Sort[] argsToOutLen = new Sort[]{ BV, BV };
-		out_len = ctx.mkFuncDecl("out_len", argsToOutLen, BV);
+		Sort[] argsToOutLen = new Sort[]{ stateBV, charBV };
+		out_len = ctx.mkFuncDecl("out_len", argsToOutLen, posBV);
 		
 		/* declare d_2 : Q x \Sigma -> Q */
-		Sort[] argsToD2 = new Sort[]{ BV, BV };
-		d2 = ctx.mkFuncDecl("d2", argsToD2, BV);
+		Sort[] argsToD2 = new Sort[]{ stateBV, charBV };
+		d2 = ctx.mkFuncDecl("d2", argsToD2, stateBV);
 		
 		/* restrict range of d_1, d_2 and out_len */
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int move : alphabetMap.values())  {
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+				BitVecExpr a = terms.num(move, charBV);
 				
 				/* 0 <= out_len(q, a) <= l */
-				Expr<BitVecSort> outLenExpr = out_len.apply(q, a);
-				solver.add(ctx.mkBVSLE(zero, outLenExpr));
-				solver.add(ctx.mkBVSLE(outLenExpr, bound));
+				Expr<BitVecSort> outLenExpr = terms.apply(out_len, q, a);
+				solver.add(ctx.mkBVULE(outLenExpr, bound));
 				
 				/* make variable q' = d2(q, a) */
-				Expr<BitVecSort> qPrime = d2.apply(q, a);
+				Expr<BitVecSort> qPrime = terms.apply(d2, q, a);
 				
 				/* 0 <= qPrime < numStates; range only needs to be encoded once */
-				solver.add(ctx.mkBVSLE(zero, qPrime));
-				solver.add(ctx.mkBVSLT(qPrime, numStatesInt));
+				solver.add(ctx.mkBVULT(qPrime, numStatesInt));
 				
 				for (int l = 0; l < outputBound; l++) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-					Expr<BitVecSort> d1exp = d1.apply(q, a, index);
+					BitVecExpr index = terms.num(l, posBV);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
 					
 					/* 0 <= d1(q, a, index) < alphabetSize */
-					solver.add(ctx.mkBVSLE(zero, d1exp));
-					solver.add(ctx.mkBVSLT(d1exp, alphabetSize)); 
+					solver.add(ctx.mkBVULT(d1exp, alphabetSize)); 
 				}
 			}
 		}
+		
+		/* states are numbered in BFS order; templates fix the numbering themselves */
+		if (symmetryBreaking && template == null && ftTemplate == null) encodeSymmetryBreaking();
 
 		
 		/* declare x : Q_R x Q x Q_T -> {1, 0} */
-		Sort[] argsToX = new Sort[]{ BV, BV, BV };
+		Sort[] argsToX = new Sort[]{ stateBV, stateBV, stateBV };
 		x = ctx.mkFuncDecl("x", argsToX, B);
 		
 		/* declare edit-dist: Q x \Sigma -> Z */
-		Sort[] argsToEd = new Sort[]{ BV, BV };
-		edDist = ctx.mkFuncDecl("ed_dist", argsToEd, BV);
+		Sort[] argsToEd = new Sort[]{ stateBV, charBV };
+		edDist = ctx.mkFuncDecl("ed_dist", argsToEd, energyBV);
 		
 		/* declare C: Q_R x Q x Q_T -> Z */
-		Sort[] argsToC = new Sort[]{ BV, BV, BV };
-		energy = ctx.mkFuncDecl("C", argsToC, BV);
+		Sort[] argsToC = new Sort[]{ stateBV, stateBV, stateBV };
+		energy = ctx.mkFuncDecl("C", argsToC, energyBV);
 		
 		
 		this.pair = ctx.mkTupleSort(ctx.mkSymbol("mkPair"), // name of tuple constructor
 				new Symbol[] { ctx.mkSymbol("first"), ctx.mkSymbol("second") }, // names of projection operators
-				new Sort[] { BV, BV } // types of projection operators
+				new Sort[] { posBV, stateBV } // types of projection operators
 			);
 		this.first = (FuncDecl<BitVecSort>) pair.getFieldDecls()[0];	// projections
 		this.second = (FuncDecl<BitVecSort>) pair.getFieldDecls()[1];
+		this.mkPair = pair.mkDecl();
 		
 		/* If config provide, call encoding methods appropriately */
 		if (config != null) {
@@ -865,18 +1659,24 @@ public class ConstraintsSolver {
 			if (config.get(0)) encodeExamples();
 			
 			/* Input-Output Types Constraints */
+			group = mkGroup("types");
 			if (config.get(1)) encodeTypes();
 			
 			/* Input-Output Distance Constraints */
+			group = mkGroup("distance");
 			if (config.get(2)) encodeDistance();
+			group = null;
 			
 		} else {
 			/* Input-Output Types Constraints */
+			group = mkGroup("types");
 			encodeTypes();
 			
 		
 			/* Input-Output Distance Constraints */
+			group = mkGroup("distance");
 			encodeDistance();
+			group = null;
 			
 			
 			/* Input-Output Example Constraints */
@@ -884,186 +1684,250 @@ public class ConstraintsSolver {
 		}
 		
 		
-		/* Put constraints on 'incompatible' minterms */
-		if (idToMinterms != null) {
-			/* Process alphabet */
-			Set<Character> singleChars = new HashSet<Character>();
-			Set<Character> multipleChars = new HashSet<Character>();
-			
-			for (Character a : alphabet) {
-				CharPred minterm = SFAOperations.findSatisfyingMinterm(a, idToMinterms).first;
-				if (minterm.intervals.size() == 1) {
-					ImmutablePair<Character, Character> interval = minterm.intervals.get(0);
-					if (interval.right - interval.left == 0) {
-						singleChars.add(a);
-					} else {
-						multipleChars.add(a);
-					}
-				} else {
-					multipleChars.add(a);
-				}
-			}
+		/* Choices that the minterms and templates fix (see FixedChoices) */
+		FixedChoices choices = new FixedChoices(numStates, outputBound, template, ftTemplate, idToMinterms, alphabetMap, ba);
+		
+		/* Single-char minterm cannot output multiple-char minterm */
+		for (int i = 0; i < numStates; i++) {	// q 
+			BitVecExpr q = terms.num(i, stateBV);
 			
-			/* Single-char minterm cannot output multiple-char minterm */
-			for (int i = 0; i < numStates; i++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			for (int move : choices.singleChars)  {
+				BitVecExpr a = terms.num(move, charBV);
 				
-				for (Character move : singleChars)  {
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-
-					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q, a, index);
-
-						for (Character out : multipleChars) {
-							BitVecExpr b = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
-							solver.add(ctx.mkNot(ctx.mkEq(d1exp, b)));
-						}
+				for (int l = 0; l < outputBound; l++) {
+					BitVecExpr index = terms.num(l, posBV);
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, index);
+					
+					for (int out : choices.multipleChars) {
+						BitVecExpr b = terms.num(out, charBV);
+						solver.add(ctx.mkNot(ctx.mkEq(d1exp, b)));
 					}
 				}
 			}
-			
 		}
 		
-		
-		/* Use the d2 relation (the successor states) of the template, if one is provided, and enforce it */
-		if (template != null) {
-			if (this.numStates != template.stateCount()) {
-				throw new IllegalArgumentException("If template is provided, then numStates must be the same as the number of states in the template");
-			}
-			
-			for (SFAMove<CharPred, Character> transition : template.getTransitions()) { 	
-				Integer stateFrom = transition.from;
-				Character move = transition.getWitness(ba);
-				Integer stateTo = transition.to;
-				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
-			}
+		/* d2 and d1 of the template and ftTemplate */
+		for (int[] choice : choices.d2) {
+			BitVecExpr q = terms.num(choice[0], stateBV);
+			BitVecExpr a = terms.num(choice[1], charBV);
+			solver.add(ctx.mkEq(terms.apply(d2, q, a), terms.num(choice[2], stateBV)));
+		}
+		for (int[] choice : choices.d1) {
+			BitVecExpr q = terms.num(choice[0], stateBV);
+			BitVecExpr a = terms.num(choice[1], charBV);
+			BitVecExpr index = terms.num(choice[2], posBV);
+			solver.add(ctx.mkEq(terms.apply(d1, q, a, index), terms.num(choice[3], charBV)));
 		}
 		
-		/* Enforce the d1 and d2 relations of the good transitions of the template */
-		if (ftTemplate != null) {
-			if (this.numStates != ftTemplate.getAut().stateCount()) {
-				throw new IllegalArgumentException("If ftTemplate is provided, then numStates must be the same as the number of states in the template");
-			}
+		/* If previous solution provided, construct satisfying assignment and negate it */
+		if (solution != null) blockSolution(solution);
+	}
+	
+	/* 
+	 * Blocks the values of d2, out_len and d1 on the transitions of solution that the product of the source and
+	 * solution reaches, so that the next check on the same solver finds a transducer that differs on some input
+	 * of the source (see SolutionEnumerator). Transitions off the product do not change the transduction, so
+	 * leaving them out blocks every solution that only differs there with the same clause.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void blockSolution(SFT<CharPred, CharFunc, Character> solution) throws TimeoutException {
+		stopIfInterrupted();
+		
+		Expr negModel = ctx.mkTrue();
+		for (SFTInputMove<CharPred, CharFunc, Character> transition : reachedTransitions(solution)) {
+			Integer stateFrom = transition.from;
+			Character move = transition.getWitness(ba);
+			Integer stateTo = transition.to;
+			List<CharFunc> outputFunc = transition.outputFunctions;
 			
-			Collection<FSTMove<Character, Character>> goodTransitions = ftTemplate.getGoodTransitions();
+			BitVecExpr q = terms.num(stateFrom, stateBV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
+			BitVecExpr qPrime = terms.num(stateTo, stateBV);
+			BitVecExpr outputLen = terms.num(outputFunc.size(), posBV);
 			
-			for (FSTMove<Character, Character> transition : goodTransitions) {
-				Integer stateFrom = transition.from;
-				Character input = transition.input;
-				Integer stateTo = transition.to;
-				
-				/* d2 */
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
-				
-				/* d1 */
-				List<Character> outputs = transition.outputs;
-				if (outputs.size() > this.outputBound) {
-					throw new IllegalArgumentException("Template includes outputs larger than permitted output bound.");
-				}
-				
-				int counter = 0;
-				for (Character out : outputs) {
-					BitVecExpr index = (BitVecNum) ctx.mkNumeral(counter, BV);
-					BitVecExpr outInt = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
-					
-					solver.add(ctx.mkEq(d1.apply(q, a, index), outInt));
+			/* d2exp */
+			Expr<BitVecSort> d2exp = terms.apply(d2, q, a);
+			negModel = ctx.mkAnd(negModel, ctx.mkEq(d2exp, qPrime));
+			
+			/* outputLenExpr */
+			Expr<BitVecSort> outputLenExpr = terms.apply(out_len, q, a);
+			negModel = ctx.mkAnd(negModel, ctx.mkEq(outputLenExpr, outputLen));
+			
+			/* d1exp: iterate through outputFunc */
+			int index = 0;
+			for (CharFunc f : outputFunc) {
+				if (f != null && f instanceof CharConstant) { 	// all the CharFuncs should be constants
+					Character out = ((CharConstant)f).c;
+					BitVecExpr outMoveNum = terms.num(alphabetMap.get(out), charBV);
 					
-					counter++;
+					Expr<BitVecSort> d1exp = terms.apply(d1, q, a, terms.num(index, posBV));
+					negModel = ctx.mkAnd(negModel, ctx.mkEq(d1exp, outMoveNum));
 				}
+				index++;
 			}
 			
-			/* Only enforce d2 relation for the set of bad transitions */
-			Collection<FSTMove<Character, Character>> badTransitions = ftTemplate.getBadTransitions();
-			for (FSTMove<Character, Character> transition : badTransitions) {
-				Integer stateFrom = transition.from;
-				Character input = transition.input;
-				Integer stateTo = transition.to;
-				
-				/* d2 */
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+		}
+		
+		/* negate model */
+		solver.add(ctx.mkNot(negModel));
+	}
+	
+	/* The transitions of solution that are taken on some input of the source, from the product of the two */
+	Set<SFTInputMove<CharPred, CharFunc, Character>> reachedTransitions(SFT<CharPred, CharFunc, Character> solution) throws TimeoutException {
+		/* transitions of solution by state and input character */
+		Map<Integer, Map<Character, SFTInputMove<CharPred, CharFunc, Character>>> solutionMoves = 
+				new HashMap<Integer, Map<Character, SFTInputMove<CharPred, CharFunc, Character>>>();
+		for (SFTInputMove<CharPred, CharFunc, Character> transition : solution.getInputMovesFrom(solution.getStates())) {
+			Map<Character, SFTInputMove<CharPred, CharFunc, Character>> moves = solutionMoves.get(transition.from);
+			if (moves == null) {
+				moves = new HashMap<Character, SFTInputMove<CharPred, CharFunc, Character>>();
+				solutionMoves.put(transition.from, moves);
 			}
+			moves.put(transition.getWitness(ba), transition);
 		}
 		
-		/* If previous solution provided, construct satisfying assignment and negate it */
-		if (solution != null) {
-			Expr negModel = ctx.mkTrue();
-			Collection<Integer> states = solution.getStates();
-			for (SFTInputMove<CharPred, CharFunc, Character> transition : solution.getInputMovesFrom(states)) {
-				Integer stateFrom = transition.from;
-				Character move = transition.getWitness(ba);
-				Integer stateTo = transition.to;
-				List<CharFunc> outputFunc = transition.outputFunctions;
-				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				BitVecExpr outputLen = (BitVecNum) ctx.mkNumeral(outputFunc.size(), BV);
-				
-				/* d2exp */
-				Expr<BitVecSort> d2exp = d2.apply(q, a);
-				negModel = ctx.mkAnd(negModel, ctx.mkEq(d2exp, qPrime));
-				
-				/* outputLenExpr */
-				Expr<BitVecSort> outputLenExpr = out_len.apply(q, a);
-				negModel = ctx.mkAnd(negModel, ctx.mkEq(outputLenExpr, outputLen));
-				
-				/* d1exp: iterate through outputFunc */
-				int index = 0;
-				for (CharFunc f : outputFunc) {
-					if (f != null && f instanceof CharConstant) { 	// all the CharFuncs should be constants
-						Character out = ((CharConstant)f).c;
-						BitVecExpr outMoveNum = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
-						
-						Expr<BitVecSort> d1exp = d1.apply(q, a, (BitVecNum) ctx.mkNumeral(index, BV));
-						negModel = ctx.mkAnd(negModel, ctx.mkEq(d1exp, outMoveNum));
-					}
-				}
+		Set<SFTInputMove<CharPred, CharFunc, Character>> reached = new HashSet<SFTInputMove<CharPred, CharFunc, Character>>();
+		Map<Integer, Set<Integer>> visited = new HashMap<Integer, Set<Integer>>();
+		LinkedList<Integer> sourceWorklist = new LinkedList<Integer>();
+		LinkedList<Integer> stateWorklist = new LinkedList<Integer>();
+		
+		addFeasiblePair(visited, source.getInitialState(), solution.getInitialState(), sourceWorklist, stateWorklist);
+		while (!sourceWorklist.isEmpty()) {
+			Integer sourceState = sourceWorklist.removeFirst();
+			Integer state = stateWorklist.removeFirst();
+			
+			Map<Character, SFTInputMove<CharPred, CharFunc, Character>> moves = solutionMoves.get(state);
+			if (moves == null) continue;
+			
+			for (SFAMove<CharPred, Character> sourceTransition : source.getTransitionsFrom(sourceState)) {
+				SFTInputMove<CharPred, CharFunc, Character> transition = moves.get(sourceTransition.getWitness(ba));
+				if (transition == null) continue;
 				
+				reached.add(transition);
+				addFeasiblePair(visited, sourceTransition.to, transition.to, sourceWorklist, stateWorklist);
 			}
-			
-			/* negate model */
-			solver.add(ctx.mkNot(negModel));
 		}
 		
+		return reached;
+	}
+	
+	
+	/* 
+	 * Transitions of the transducer in a model: the transitions of the template or ftTemplate if one is given, 
+	 * otherwise all transitions from the states 0, ..., states - 1
+	 */
+	static Set<SFTMove<CharPred, CharFunc, Character>> mkTransitions(TransducerModel model, int states, 
+			SFA<CharPred, Character> template, FSTTemplate ftTemplate, HashMap<Character, Integer> alphabetMap, 
+			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
+		HashMap<Integer, Character> revAlphabetMap = reverseMap(alphabetMap);
+		Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
 		
-		/* Print SMT string to smtFile */
-		try {
-			if (smtFile != null) {
-				BufferedWriter br = new BufferedWriter(new FileWriter(new File(smtFile)));
-				br.write(solver.toString());
-				br.write("(check-sat)");
-				br.close();
+		if (template != null) {
+			/* Only add 'relevant' transitions */
+			for (SFAMove<CharPred, Character> transition : template.getTransitions()) { 	
+				Character move = transition.getWitness(ba);
+				transitionsFT.add(mkTransition(model, transition.from, transition.to, move, alphabetMap.get(move), revAlphabetMap));
+			}
+			
+		} else if (ftTemplate != null) {
+			/* Only add transitions of ftTemplate */
+			FST<Character, Character> aut = ftTemplate.getAut();
+			for (FSTMove<Character, Character> transition : aut.getTransitionsFrom(aut.getStates())) {
+				Character move = transition.input;
+				transitionsFT.add(mkTransition(model, transition.from, transition.to, move, alphabetMap.get(move), revAlphabetMap));
+			}
+			
+		} else {
+			for (int q1 = 0; q1 < states; q1++) {
+				for (int move : alphabetMap.values())  { 
+					int q2 = model.d2(q1, move);
+					transitionsFT.add(mkTransition(model, q1, q2, revAlphabetMap.get(move), move, revAlphabetMap));
+				}
 			}
-		} catch (IOException e1) {
-			e1.printStackTrace();
 		}
 		
-		return constructSFT(debug);
+		return transitionsFT;
 	}
 	
+	/* Transition from q1 to q2 reading input, with the output of the model */
+	static SFTInputMove<CharPred, CharFunc, Character> mkTransition(TransducerModel model, Integer q1, Integer q2, 
+			Character input, int move, HashMap<Integer, Character> revAlphabetMap) {
+		int outputLen = model.outLen(q1, move);
+		
+		List<CharFunc> outputFunc = new ArrayList<CharFunc>();
+		for (int i = 0; i < outputLen; i++) {
+			Character output = revAlphabetMap.get(model.d1(q1, move, i));
+			outputFunc.add(new CharConstant(output));
+		}
+		
+		return new SFTInputMove<CharPred, CharFunc, Character>(q1, q2, new CharPred(input), outputFunc);
+	}
 	
 	public Pair<SFT<CharPred, CharFunc, Character>, Long> constructSFT(boolean debug) throws TimeoutException {
+		return constructSFT(debug, numStates);
+	}
+	
+	/* The values of d2, out_len and d1 in a Z3 model, read from their interpretations in one pass each */
+	TransducerModel z3Model(final Model m) {
+		final FuncTable d2Table = new FuncTable(m, d2, terms);
+		final FuncTable outLenTable = new FuncTable(m, out_len, terms);
+		final FuncTable d1Table = new FuncTable(m, d1, terms);
+		
+		return new TransducerModel() {
+			public int d2(int q, int a) {
+				return d2Table.get(q, a);
+			}
+			
+			public int outLen(int q, int a) {
+				return outLenTable.get(q, a);
+			}
+			
+			public int d1(int q, int a, int index) {
+				return d1Table.get(q, a, index);
+			}
+		};
+	}
+	
+	/* 
+	 * Check under the given assumptions and read back a transducer over the states 0, ..., states - 1. 
+	 * The check is done by solver, or by the backend if one is set. With lazy types, candidates are refined 
+	 * until one is typed correctly; the time is that of all checks.
+	 */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> constructSFT(boolean debug, int states, BoolExpr... assumptions) throws TimeoutException {
+		long solvingTime = 0;
+		while (true) {
+			Pair<SFT<CharPred, CharFunc, Character>, Long> res = check(debug, states, assumptions);
+			solvingTime += res.second;
+			
+			if (typedTriples == null || lastModel == null || !refineTypes(lastModel)) {
+				return new Pair<SFT<CharPred, CharFunc, Character>, Long>(res.first, solvingTime);
+			}
+			if (debug) System.out.println("Lazy types: " + typedTriples.size() + " triples encoded");
+		}
+	}
+	
+	Pair<SFT<CharPred, CharFunc, Character>, Long> check(boolean debug, int states, BoolExpr... assumptions) throws TimeoutException {
+		stopIfInterrupted();
+		
 		/* Reconstruct transducer */
 		HashMap<Integer, Character> revAlphabetMap = reverseMap(alphabetMap);
 		Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
 		
+		/* tracked groups are assumed by every check */
+		if (groupLits != null) {
+			List<BoolExpr> tracked = new ArrayList<BoolExpr>(groupLits);
+			Collections.addAll(tracked, assumptions);
+			assumptions = tracked.toArray(new BoolExpr[tracked.size()]);
+		}
+		unsatCore = null;
+		lastModel = null;
+		
+		if (backend != null) return constructSFTWithBackend(states, assumptions);
+		
 		long startTime = System.nanoTime();
 		long stopTime = 0; 	// gets set later
-		if (solver.check() == Status.SATISFIABLE) {
+		Status status = solver.check(assumptions);
+		if (status == Status.SATISFIABLE) {
 			Model m = solver.getModel();
 			stopTime = System.nanoTime();
 			
@@ -1072,25 +1936,25 @@ public class ConstraintsSolver {
 				
 				/* d1 and d2 */	
 				for (int q1 = 0; q1 < numStates; q1++) {
-					BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
+					BitVecExpr state = terms.num(q1, stateBV);
 					
 					for (int move : alphabetMap.values())  { 
 						Character input = revAlphabetMap.get(move);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+						BitVecExpr a = terms.num(move, charBV); 
 						
 						/* get state to */
-						Expr<BitVecSort> d2exp = d2.apply(state, a);
+						Expr<BitVecSort> d2exp = terms.apply(d2, state, a);
 						int q2 = ((BitVecNum) m.evaluate(d2exp, false)).getInt();
 						
 						/* output_len */
-						Expr<BitVecSort> outputLenExpr = out_len.apply(state, a);
+						Expr<BitVecSort> outputLenExpr = terms.apply(out_len, state, a);
 						int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 						
 						/* get output */
 						StringBuilder outputStr = new StringBuilder("");
 						for (int i = 0; i < outputLen; i++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-							Expr<BitVecSort> d1exp = d1.apply(state, a, index);
+							BitVecExpr index = terms.num(i, posBV);
+							Expr<BitVecSort> d1exp = terms.apply(d1, state, a, index);
 							int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 							Character output = revAlphabetMap.get(outMove);
 							outputStr.append(output);
@@ -1100,7 +1964,7 @@ public class ConstraintsSolver {
 						System.out.println("d(" + q1 + ", " + input + ", " + outputStr + ", " + q2 + ")");
 						
 						/* edit-distance of transitions */
-						Expr<BitVecSort> edDistExpr = edDist.apply(state, a);
+						Expr<BitVecSort> edDistExpr = terms.apply(edDist, state, a);
 						int editDist = ((BitVecNum) m.evaluate(edDistExpr, false)).getInt();
 						System.out.println("edit-distance(" + q1 + ", " + input + ", " + outputStr + ") = " + editDist);
 					}
@@ -1110,12 +1974,12 @@ public class ConstraintsSolver {
 				for (int i = 0; i < numStates; i++) {
 					for (Integer sourceState : source.getStates()) {
 						for (Integer targetState : target.getStates()) {
-							BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-							BitVecNum stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-							BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+							BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+							BitVecNum stateInt = terms.num(i, stateBV);
+							BitVecExpr targetInt = terms.num(targetState, stateBV);
 								
-							Expr exp1 = x.apply(sourceInt, stateInt, targetInt);
-							Expr<BitVecSort> exp2 = energy.apply(sourceInt, stateInt, targetInt);
+							Expr exp1 = terms.apply(x, sourceInt, stateInt, targetInt);
+							Expr<BitVecSort> exp2 = terms.apply(energy, sourceInt, stateInt, targetInt);
 							if (m.evaluate(exp1, false).isTrue()) {
 								System.out.println("x(" + sourceState + ", " + stateInt.getInt() + ", " + targetState + ")");
 								int energyVal = ((BitVecNum) m.evaluate(exp2, false)).getInt();
@@ -1130,105 +1994,60 @@ public class ConstraintsSolver {
 		    }
 			
 			/* Add transitions to FT */
-			if (template != null) {
-				/* Only add 'relevant' transitions */
-				for (SFAMove<CharPred, Character> transition : template.getTransitions()) { 	
-					Integer stateFrom = transition.from;
-					Character move = transition.getWitness(ba);
-					Integer stateTo = transition.to;
-					
-					BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-					
-					/* output_len */
-					Expr<BitVecSort> outputLenExpr = out_len.apply(q1, a);
-					BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-					int outputLen = outputLenNum.getInt();
-								
-					/* get output */
-					List<CharFunc> outputFunc = new ArrayList<CharFunc>();
-					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q1, a, index);
-						BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-						int outMove = outMoveNum.getInt();
-						Character output = revAlphabetMap.get(outMove);
-						outputFunc.add(new CharConstant(output));
-					}
-								
-					SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(stateFrom, stateTo, new CharPred(move), outputFunc);
-					transitionsFT.add(newTrans);
-				}
-				
-			} else if (ftTemplate != null) {
-				/* Only add transitions of ftTemplate */
-				FST<Character, Character> aut = ftTemplate.getAut();
-				for (FSTMove<Character, Character> transition : aut.getTransitionsFrom(aut.getStates())) {
-					Integer stateFrom = transition.from;
-					Integer stateTo = transition.to;
-					Character move = transition.input;
-					
-					BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-					
-					/* output_len */
-					Expr<BitVecSort> outputLenExpr = out_len.apply(q1, a);
-					BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-					int outputLen = outputLenNum.getInt();
-								
-					/* get output */
-					List<CharFunc> outputFunc = new ArrayList<CharFunc>();
-					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr<BitVecSort> d1exp = d1.apply(q1, a, index);
-						BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-						int outMove = outMoveNum.getInt();
-						Character output = revAlphabetMap.get(outMove);
-						outputFunc.add(new CharConstant(output));
-					}
-								
-					SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(stateFrom, stateTo, new CharPred(move), outputFunc);
-					transitionsFT.add(newTrans);
-				}
-				
-			} else {
-				for (int q1 = 0; q1 < numStates; q1++) {
-					for (int move : alphabetMap.values())  { 
-						Character input = revAlphabetMap.get(move);
-						BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
-							
-						/* get state to */
-						Expr<BitVecSort> d2exp = d2.apply(state, a);
-						BitVecNum q2num = (BitVecNum) m.evaluate(d2exp, false);
-						int q2 = q2num.getInt();
-										
-						/* output_len */
-						Expr<BitVecSort> outputLenExpr = out_len.apply(state, a);
-						BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-						int outputLen = outputLenNum.getInt();
-										
-						/* get output */
-						List<CharFunc> outputFunc = new ArrayList<CharFunc>();
-						for (int i = 0; i < outputLen; i++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-							Expr<BitVecSort> d1exp = d1.apply(state, a, index);
-							BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-							int outMove = outMoveNum.getInt();
-							Character output = revAlphabetMap.get(outMove);
-							outputFunc.add(new CharConstant(output));
-						}
-										
-						SFTInputMove<CharPred, CharFunc, Character> newTrans = new SFTInputMove<CharPred, CharFunc, Character>(q1, q2, new CharPred(input), outputFunc);
-						transitionsFT.add(newTrans);
-					}
-				}
-			}
+			lastModel = z3Model(m);
+			transitionsFT = mkTransitions(lastModel, states, template, ftTemplate, alphabetMap, ba);
 			
 		} else {
 			stopTime = System.nanoTime();
+			
+			/* a check that hit the timeout or rlimit, or was interrupted, is not UNSAT */
+			if (status == Status.UNKNOWN) throw new TimeoutException("z3: " + solver.getReasonUnknown());
+			
+			if (status == Status.UNSATISFIABLE && coreNames != null) {
+				unsatCore = new ArrayList<String>();
+				for (BoolExpr lit : solver.getUnsatCore()) {
+					String name = coreNames.get(lit);
+					if (name != null && !unsatCore.contains(name)) unsatCore.add(name);
+				}
+			}
+		}
+		
+		return mkSFT(transitionsFT, startTime, stopTime);
+	}
+	
+	/* 
+	 * A search whose thread has been interrupted (e.g. by ExecutorService.shutdownNow, or by the watchdog of 
+	 * Driver.runWithWatchdog) stops before it uses the Context again: before its next check, and before it encodes 
+	 * more constraints after some Java code. Context.interrupt() only reaches a check that is already running.
+	 */
+	static void stopIfInterrupted() throws TimeoutException {
+		if (Thread.currentThread().isInterrupted()) throw new TimeoutException("Stopped before the check");
+	}
+	
+	/* Check with the backend instead of solver, under the given assumptions */
+	Pair<SFT<CharPred, CharFunc, Character>, Long> constructSFTWithBackend(int states, BoolExpr... assumptions) throws TimeoutException {
+		Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
+		
+		long startTime = System.nanoTime();
+		TransducerModel model;
+		try {
+			model = backend.prepare(this, assumptions).call();
+		} catch (TimeoutException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		long stopTime = System.nanoTime();
+		
+		if (model != null) {
+			lastModel = model;
+			transitionsFT = mkTransitions(model, states, template, ftTemplate, alphabetMap, ba);
 		}
 		
+		return mkSFT(transitionsFT, startTime, stopTime);
+	}
+	
+	Pair<SFT<CharPred, CharFunc, Character>, Long> mkSFT(Set<SFTMove<CharPred, CharFunc, Character>> transitionsFT, long startTime, long stopTime) throws TimeoutException {
 		HashMap<Integer, Set<List<Character>>> finStates = new HashMap<Integer, Set<List<Character>>>();
 		SFT<CharPred, CharFunc, Character> mySFT = SFT.MkSFT(transitionsFT, 0, finStates, ba);
 		
@@ -29,6 +29,7 @@ import com.microsoft.z3.Status;
 import com.microsoft.z3.Symbol;
 import com.microsoft.z3.TupleSort;
 
+import automata.MintermIndex;
 import automata.SFAOperations;
 import automata.fsa.FSA;
 import automata.fsa.FSAMove;
@@ -64,14 +65,23 @@ public class ConstraintsSolverLookahead {
 	HashMap<Integer, Character> revAlphabetMap;
 	BooleanAlgebraSubst<CharPred, CharFunc, Character> ba;
 	
+	/* Numerals and applications, built once and shared by all encode phases */
+	TermCache terms;
+	
 	/* Sorts and FuncDecls */
-	BitVecSort BV;
+	BitWidths widths;
+	BitVecSort stateBV;
+	BitVecSort charBV;
+	BitVecSort posBV;
+	BitVecSort energyBV;
 	Sort B;
 	
 	BitVecExpr numStatesInt;
 	BitVecExpr numLookaheadStatesInt;
 	BitVecExpr alphabetSize;
-	BitVecExpr zero;
+	BitVecExpr initState;
+	BitVecExpr posZero;
+	BitVecExpr energyZero;
 	BitVecExpr bound;
 	
 	FuncDecl<BitVecSort> d1;
@@ -87,6 +97,7 @@ public class ConstraintsSolverLookahead {
 	
 	/* BV Pair Datatype */
 	TupleSort pair;
+	FuncDecl<TupleSort> mkPair;	// constructor
 	FuncDecl first;	// projections
 	FuncDecl second;
 	FuncDecl[] eFuncs;
@@ -154,36 +165,36 @@ public class ConstraintsSolverLookahead {
 		/* initial states: \bigvee_{q_L} x(q^0_R, q^0, q^0_T, q_L) */
 		Expr bigOr = ctx.mkFalse();
 		for (int i = 0; i < numLookaheadStates; i++) {
-			BitVecExpr sourceInit = (BitVecNum) ctx.mkNumeral(source.getInitialState(), BV);
-			BitVecExpr targetInit = (BitVecNum) ctx.mkNumeral(target.getInitialState(), BV);
-			BitVecExpr qL = (BitVecNum) ctx.mkNumeral(i, BV);
-			Expr res = x.apply(sourceInit, zero, targetInit, qL);
+			BitVecExpr sourceInit = terms.num(source.getInitialState(), stateBV);
+			BitVecExpr targetInit = terms.num(target.getInitialState(), stateBV);
+			BitVecExpr qL = terms.num(i, stateBV);
+			Expr res = terms.apply(x, sourceInit, initState, targetInit, qL);
 			bigOr = ctx.mkOr(bigOr, res);
 		}
 		solver.add(bigOr);
 		
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.num(j, stateBV);
 				
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.num(stateFrom, stateBV);
+					BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 
 					/* out_len(q, qL, a) */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					Expr qRPrime = dR.apply(qR, a);
+					Expr qRPrime = terms.apply(dR, qR, a);
 
 
 					/* make variable q' = d2(q, qL, a) */
-					Expr qPrime = d2.apply(q, qL, a);
+					Expr qPrime = terms.apply(d2, q, qL, a);
 
 
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -192,13 +203,13 @@ public class ConstraintsSolverLookahead {
 					Expr[] outputChars = new Expr[outputBound];
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.num(l, posBV);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 						outputChars[l] = d1exp;
 					}
 
 					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+						BitVecExpr qT = terms.num(targetFrom, stateBV);
 
 
 						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -206,28 +217,28 @@ public class ConstraintsSolverLookahead {
 						/* make array of destination states in target */
 						Expr[] dstStates = new Expr[outputBound];
 
-						dstStates[0] = dT.apply(qT, outputChars[0]);
+						dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 						for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+							dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 						}
 
 
 						/* x(q_R, q, q_T, q_L) */
-						Expr xExpr = x.apply(qR, q, qT, qL);
+						Expr xExpr = terms.apply(x, qR, q, qT, qL);
 						
 						
 						for (int k = 0; k < numLookaheadStates; k++) {
-							BitVecExpr qLPrime = (BitVecNum) ctx.mkNumeral(j, BV);
+							BitVecExpr qLPrime = terms.num(j, stateBV);
 							
 							/* d_L(qL', a) = qL */
-							Expr previousStateExp = dL.apply(qLPrime, a);
+							Expr previousStateExp = terms.apply(dL, qLPrime, a);
 							Expr invExpr = ctx.mkEq(previousStateExp, qL);
 
 							/* expressions for implications: out_len(q, qL, a) = 0 ==> x(qR', q', qT, qL') */
 
 							/* special case for 0 */
-							Expr lenEq = ctx.mkEq(outLenExpr, zero);
-							Expr xExprPrime = x.apply(qRPrime, qPrime, qT, qLPrime);
+							Expr lenEq = ctx.mkEq(outLenExpr, posZero);
+							Expr xExprPrime = terms.apply(x, qRPrime, qPrime, qT, qLPrime);
 
 							Expr c = ctx.mkImplies(lenEq, xExprPrime);
 
@@ -236,8 +247,8 @@ public class ConstraintsSolverLookahead {
 							Expr consequent = c;
 							for (int l = 0; l < outputBound; l++) {
 								int outputLength = l + 1;
-								lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
-								xExprPrime = x.apply(qRPrime, qPrime, dstStates[l], qLPrime);
+								lenEq = ctx.mkEq(outLenExpr, terms.num(outputLength, posBV));
+								xExprPrime = terms.apply(x, qRPrime, qPrime, dstStates[l], qLPrime);
 
 								c = ctx.mkImplies(lenEq, xExprPrime);
 								consequent = ctx.mkAnd(consequent, c);
@@ -258,17 +269,17 @@ public class ConstraintsSolverLookahead {
 			for (int j = 0; j < numLookaheadStates; j++) {
 				for (Integer sourceState : source.getStates()) {
 					for (Integer targetState : target.getStates()) {
-						BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-						BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-						BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-						BitVecExpr lookaheadInt = (BitVecNum) ctx.mkNumeral(j, BV);
-
-						Expr xExpr = x.apply(sourceInt, stateInt, targetInt, lookaheadInt);
-						Expr fRExp = f_R.apply(sourceInt);
-						Expr lookaheadEq = ctx.mkEq(lookaheadInt, zero);
+						BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+						BitVecExpr stateInt = terms.num(i, stateBV);
+						BitVecExpr targetInt = terms.num(targetState, stateBV);
+						BitVecExpr lookaheadInt = terms.num(j, stateBV);
+
+						Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt, lookaheadInt);
+						Expr fRExp = terms.apply(f_R, sourceInt);
+						Expr lookaheadEq = ctx.mkEq(lookaheadInt, initState);
 						Expr antecedent = ctx.mkAnd(xExpr, fRExp, lookaheadEq);
 
-						Expr fTExp = f_T.apply(targetInt);
+						Expr fTExp = terms.apply(f_T, targetInt);
 						Expr consequent = fTExp;
 
 						Expr c = ctx.mkImplies(antecedent, consequent);
@@ -285,22 +296,22 @@ public class ConstraintsSolverLookahead {
 		/* edit-distance constraints of individual transitions */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.num(j, stateBV);
 				
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.num(stateFrom, stateBV);
+					BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 
 					/* make variable out_len(q, qL, a) */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 					/* make variable ed_dist(q, qL, a) */
-					Expr edDistExpr = edDist.apply(q, qL, a);
+					Expr edDistExpr = terms.apply(edDist, q, qL, a);
 
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
 
@@ -311,10 +322,10 @@ public class ConstraintsSolverLookahead {
 					Expr disjunct = ctx.mkFalse();
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.num(l, posBV);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 						outputChars[l] = d1exp;
-						Expr lt = ctx.mkBVSLT(index, outLenExpr);
+						Expr lt = ctx.mkBVULT(index, outLenExpr);
 						Expr eq = ctx.mkEq(a, d1exp);
 						disjunct = ctx.mkOr(disjunct, ctx.mkAnd(lt, eq));
 					}
@@ -323,17 +334,17 @@ public class ConstraintsSolverLookahead {
 					Expr negDisjunct = ctx.mkNot(disjunct);
 
 					/* (k = 0) ==> ed_dist(q, qL, a) = 1 */
-					Expr lenEq = ctx.mkEq(outLenExpr, zero);
-					Expr edDistEqOne = ctx.mkEq(edDistExpr, ctx.mkNumeral(1, BV));
+					Expr lenEq = ctx.mkEq(outLenExpr, posZero);
+					Expr edDistEqOne = ctx.mkEq(edDistExpr, terms.num(1, energyBV));
 					Expr impl1 = ctx.mkImplies(lenEq, edDistEqOne);
 
 					/* \neg (k = 0) ==> ed_dist(q, qL, a) = k - 1 */
 					Expr lenNotZero = ctx.mkNot(lenEq);
-					Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(outLenExpr, ctx.mkNumeral(1, BV))); 	
+					Expr edDistKMinus1 = ctx.mkEq(edDistExpr, ctx.mkBVSub(widths.toEnergy(ctx, outLenExpr), terms.num(1, energyBV))); 	
 					Expr impl2 = ctx.mkImplies(lenNotZero, edDistKMinus1);
 
 					/* \neg (k = 0) ==> ed_dist(q, qL, a) = k */
-					Expr edDistK = ctx.mkEq(edDistExpr, outLenExpr); 
+					Expr edDistK = ctx.mkEq(edDistExpr, widths.toEnergy(ctx, outLenExpr)); 
 					Expr impl3 = ctx.mkImplies(lenNotZero, edDistK);
 
 					/* ed_dist constraint 1 */
@@ -348,29 +359,29 @@ public class ConstraintsSolverLookahead {
 		}
 		
 		/* C(q^0_R, q^0, q^0_T) = 0 */
-		solver.add(ctx.mkEq(energy.apply(zero, zero, zero), zero));
+		solver.add(ctx.mkEq(terms.apply(energy, initState, initState, initState), energyZero));
 		
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.num(j, stateBV);
 				
 				for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 					Integer stateFrom = sourceTransition.from;
 					Character move = sourceTransition.getWitness(ba);
-					BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+					BitVecExpr qR = terms.num(stateFrom, stateBV);
+					BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 
 					/* out_len(q, qL, a) */
-					Expr outLenExpr = out_len.apply(q, qL, a);
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 					/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-					Expr qRPrime = dR.apply(qR, a);
+					Expr qRPrime = terms.apply(dR, qR, a);
 
 
 					/* make variable q' = d2(q, qL, a) */
-					Expr qPrime = d2.apply(q, qL, a);
+					Expr qPrime = terms.apply(d2, q, qL, a);
 
 
 					/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -379,21 +390,24 @@ public class ConstraintsSolverLookahead {
 					Expr[] outputChars = new Expr[outputBound];
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.num(l, posBV);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 						outputChars[l] = d1exp;
 					}
 
 					/* ed_dist(q, qL, a) */
-					Expr edDistExpr = edDist.apply(q, qL, a);
+					Expr edDistExpr = terms.apply(edDist, q, qL, a);
 
 					/* m - (n x ed_dist(q, qL, a)) */
-					BitVecExpr m = (BitVecNum) ctx.mkNumeral(distance[0], BV); 
-					BitVecExpr n = (BitVecNum) ctx.mkNumeral(distance[1], BV);
-					BitVecExpr diff = ctx.mkBVSub(m, ctx.mkBVMul(n, edDistExpr));
+					BitVecExpr m = terms.num(distance[0], energyBV); 
+					BitVecExpr n = terms.num(distance[1], energyBV);
+					BitVecExpr nTimesEd = ctx.mkBVMul(n, edDistExpr);
+					BitVecExpr diff = ctx.mkBVSub(m, nTimesEd);
+					solver.add(BitWidths.mkMulNoWrap(ctx, n, edDistExpr));
+					solver.add(BitWidths.mkSubNoWrap(ctx, m, nTimesEd));
 
 					for (Integer targetFrom : target.getStates()) {
-						BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+						BitVecExpr qT = terms.num(targetFrom, stateBV);
 
 
 						/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
@@ -401,23 +415,23 @@ public class ConstraintsSolverLookahead {
 						/* make array of destination states in target */
 						Expr[] dstStates = new Expr[outputBound];
 
-						dstStates[0] = dT.apply(qT, outputChars[0]);
+						dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 						for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-							dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]); // changed to l from l-1
+							dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]); // changed to l from l-1
 						}
 
 						/* C(q_R, q, q_T) */
-						Expr cExpr = energy.apply(qR, q, qT);
+						Expr cExpr = terms.apply(energy, qR, q, qT);
 
 						/* expressions for implications: out_len(q, qL, a) = 0 ==> 
 						 * C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
 
 						/* special case for 0 */
-						Expr lenEq = ctx.mkEq(outLenExpr, zero);
+						Expr lenEq = ctx.mkEq(outLenExpr, posZero);
 
 						/* C(q_R, q, q_T) >= C(qRPrime, qPrime, qT) - diff */
-						Expr cExprPrime = energy.apply(qRPrime, qPrime, qT);
-						Expr cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
+						Expr cExprPrime = terms.apply(energy, qRPrime, qPrime, qT);
+						Expr cGreaterExpr = ctx.mkAnd(ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff)), BitWidths.mkSubNoWrap(ctx, cExprPrime, diff));
 
 						Expr c = ctx.mkImplies(lenEq, cGreaterExpr);
 						solver.add(c);
@@ -426,10 +440,10 @@ public class ConstraintsSolverLookahead {
 						/* loop for the rest */
 						for (int l = 0; l < outputBound; l++) {
 							int outputLength = l + 1;
-							lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputLength, BV));
+							lenEq = ctx.mkEq(outLenExpr, terms.num(outputLength, posBV));
 
-							cExprPrime = energy.apply(qRPrime, qPrime, dstStates[l]);
-							cGreaterExpr = ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff));
+							cExprPrime = terms.apply(energy, qRPrime, qPrime, dstStates[l]);
+							cGreaterExpr = ctx.mkAnd(ctx.mkBVSGE(cExpr, ctx.mkBVSub(cExprPrime, diff)), BitWidths.mkSubNoWrap(ctx, cExprPrime, diff));
 
 							c = ctx.mkImplies(lenEq, cGreaterExpr);
 							solver.add(c);
@@ -445,17 +459,17 @@ public class ConstraintsSolverLookahead {
 			for (int j = 0; j < numLookaheadStates; j++) {
 				for (Integer sourceState : source.getStates()) {
 					for (Integer targetState : target.getStates()) {
-						BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-						BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-						BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-						BitVecExpr lookaheadInt = (BitVecNum) ctx.mkNumeral(j, BV);
+						BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+						BitVecExpr stateInt = terms.num(i, stateBV);
+						BitVecExpr targetInt = terms.num(targetState, stateBV);
+						BitVecExpr lookaheadInt = terms.num(j, stateBV);
 
-						Expr xExpr = x.apply(sourceInt, stateInt, targetInt, lookaheadInt);
-						Expr fRExp = f_R.apply(sourceInt);
+						Expr xExpr = terms.apply(x, sourceInt, stateInt, targetInt, lookaheadInt);
+						Expr fRExp = terms.apply(f_R, sourceInt);
 						Expr antecedent = ctx.mkAnd(xExpr, fRExp);
 
-						Expr cExpr = energy.apply(sourceInt, stateInt, targetInt);
-						Expr cGreaterExp = ctx.mkBVSGE(cExpr, zero);
+						Expr cExpr = terms.apply(energy, sourceInt, stateInt, targetInt);
+						Expr cGreaterExp = ctx.mkBVSGE(cExpr, energyZero);
 						Expr consequent = cGreaterExp;
 
 						Expr c = ctx.mkImplies(antecedent, consequent);
@@ -483,77 +497,75 @@ public class ConstraintsSolverLookahead {
 			int[] outputArr = stringToIntArray(alphabetMap, ioExample.second);
 			
 			int inputLen = ioExample.first.length();
-			BitVecExpr inputLength = (BitVecNum) ctx.mkNumeral(inputLen, BV);
+			BitVecExpr inputLength = terms.num(inputLen, posBV);
 			int outputLen = ioExample.second.length();
-			BitVecExpr outputLength = (BitVecNum) ctx.mkNumeral(outputLen, BV);
+			BitVecExpr outputLength = terms.num(outputLen, posBV);
 			
 			/* declare function r_k: Z -> Q_L */
-			rFuncs[exampleCount] = ctx.mkFuncDecl("r " + String.valueOf(exampleCount), BV, BV);
+			rFuncs[exampleCount] = ctx.mkFuncDecl("r " + String.valueOf(exampleCount), posBV, stateBV);
 			FuncDecl r = rFuncs[exampleCount];
 			
 			/* encode values of reverse run */
-			Expr previousState = zero;
-			Expr rExpr = r.apply(ctx.mkNumeral(inputLen - 1, BV));
+			Expr previousState = initState;
+			Expr rExpr = terms.apply(r, terms.num(inputLen - 1, posBV));
 			solver.add(ctx.mkEq(rExpr, previousState));
 			
 			for (int l = inputLen - 2; l >= 0; l--) {
-				Expr character = (BitVecNum) ctx.mkNumeral(inputArr[l + 1], BV);
-				Expr nextState = dL.apply(previousState, character);
-				rExpr = r.apply(ctx.mkNumeral(l, BV));
+				Expr character = terms.num(inputArr[l + 1], charBV);
+				Expr nextState = terms.apply(dL, previousState, character);
+				rExpr = terms.apply(r, terms.num(l, posBV));
 				
 				solver.add(ctx.mkEq(rExpr, nextState));
 				previousState = nextState;
 			}
 			
 			/* declare function e_k: k x input_position -> (output_position, Q) */
-			Sort[] args = new Sort[] {BV};
+			Sort[] args = new Sort[] {posBV};
 			eFuncs[exampleCount] = ctx.mkFuncDecl("e " + String.valueOf(exampleCount), args, pair);
 			FuncDecl e = eFuncs[exampleCount];
 			
 			/* initial position : e_k(0) = (0, q_0) */
-			Expr initPair = pair.mkDecl().apply(zero, zero);
-			solver.add(ctx.mkEq(e.apply(zero), initPair));
+			Expr initPair = terms.apply(mkPair, posZero, initState);
+			solver.add(ctx.mkEq(terms.apply(e, posZero), initPair));
 			
 			/* 0 <= e_k(l1).first <= outputLen and 0 <= e_k(l1).second < numStates */
 			for (int l = 0; l <= inputLen; l++) {
-					Expr eExpr = e.apply((BitVecNum) ctx.mkNumeral(l, BV));
-					Expr eExprFirst = first.apply(eExpr);
-					Expr eExprSecond = second.apply(eExpr);
+					Expr eExpr = terms.apply(e, terms.num(l, posBV));
+					Expr eExprFirst = terms.apply(first, eExpr);
+					Expr eExprSecond = terms.apply(second, eExpr);
 					
 					/* restrict values of first */
-					solver.add(ctx.mkBVSLE(zero, eExprFirst));
-					solver.add(ctx.mkBVSLE(eExprFirst, outputLength));
+					solver.add(ctx.mkBVULE(eExprFirst, outputLength));
 					
 					/* restrict values of second */
-					solver.add(ctx.mkBVSLE(zero, eExprSecond));
-					solver.add(ctx.mkBVSLT(eExprSecond, numStatesInt));
+					solver.add(ctx.mkBVULT(eExprSecond, numStatesInt));
 			}
 			
 			/* final position : e_k(l1).first = l2 */
-			Expr eExprFirst = first.apply(e.apply(inputLength));
+			Expr eExprFirst = terms.apply(first, terms.apply(e, inputLength));
 			solver.add(ctx.mkEq(eExprFirst, outputLength));
 			
 			for (int s = 0; s < numStates; s++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(s, BV);
+				BitVecExpr q = terms.num(s, stateBV);
 				
 				for (int t = 0; t < numLookaheadStates; t++) {
-					BitVecExpr qL = (BitVecNum) ctx.mkNumeral(t, BV);
+					BitVecExpr qL = terms.num(t, stateBV);
 					
 					for (SFAMove<CharPred, Character> sourceTransition : sourceTransitions) {
 						Integer stateFrom = sourceTransition.from;
 						Character move = sourceTransition.getWitness(ba);
-						BitVecExpr qR = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+						BitVecExpr qR = terms.num(stateFrom, stateBV);
+						BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 
 						/* out_len(q, qL, a) */
-						Expr outLenExpr = out_len.apply(q, qL, a);
+						Expr outLenExpr = terms.apply(out_len, q, qL, a);
 
 						/* make variable q_R' = d_R(q_R, a), the equality is already encoded */
-						Expr qRPrime = dR.apply(qR, a);
+						Expr qRPrime = terms.apply(dR, qR, a);
 
 
 						/* make variable q' = d2(q, qL, a) */
-						Expr qPrime = d2.apply(q, qL, a);
+						Expr qPrime = terms.apply(d2, q, qL, a);
 
 
 						/* c_0 = d1(q, a, 0), c_1 = d1(q, a, 1), ..., c_{l-1} = d1(q, a, l-1) */
@@ -562,51 +574,49 @@ public class ConstraintsSolverLookahead {
 						Expr[] outputChars = new Expr[outputBound];
 
 						for (int l = 0; l < outputBound; l++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-							Expr d1exp = d1.apply(q, qL, a, index);
+							BitVecExpr index = terms.num(l, posBV);
+							Expr d1exp = terms.apply(d1, q, qL, a, index);
 							outputChars[l] = d1exp;
 						}
 
 
 						for (Integer targetFrom : target.getStates()) {
-							BitVecExpr qT = (BitVecNum) ctx.mkNumeral(targetFrom, BV);
+							BitVecExpr qT = terms.num(targetFrom, stateBV);
 
 							/* q1 = dT(qT, c0), q2 = dT(q1, c1), ..., q_l = dT(q_{l-1}, c_{l-1}) */
 
 							/* make array of destination states in target */
 							Expr[] dstStates = new Expr[outputBound];
 
-							dstStates[0] = dT.apply(qT, outputChars[0]);
+							dstStates[0] = terms.apply(dT, qT, outputChars[0]);
 							for (int l = 1; l < outputBound; l++) { 		// start from 1 in the loop
-								dstStates[l] = dT.apply(dstStates[l - 1], outputChars[l]);
+								dstStates[l] = terms.apply(dT, dstStates[l - 1], outputChars[l]);
 							}
 
 
 							for (int i = 0; i < inputLen; i++) { 	// rationale: always read an input character, it's fine to have transition that reads last input char, 
+								if (inputArr[i] != alphabetMap.get(move)) continue; 	// only positions where this transition reads input[i+1]
+								
 								for (int j = 0; j <= outputLen; j++) {	// but output is already completely generated
-									BitVecExpr inputPosition = (BitVecNum) ctx.mkNumeral(i, BV);
-									BitVecExpr outputPosition = (BitVecNum) ctx.mkNumeral(j, BV);
-
-									/* input[i+1] = a */
-									BitVecExpr nextInputPosition = (BitVecNum) ctx.mkNumeral(inputArr[i], BV);
-									Expr inputEq = ctx.mkEq(nextInputPosition, a);
+									BitVecExpr inputPosition = terms.num(i, posBV);
+									BitVecExpr outputPosition = terms.num(j, posBV);
 
 									/* output needs be <= outputLen - j */
 									int possibleOutputLen = Math.min(outputLen - j, outputBound);
-									BitVecExpr possibleOutputLength = (BitVecNum) ctx.mkNumeral(possibleOutputLen, BV);
+									BitVecExpr possibleOutputLength = terms.num(possibleOutputLen, posBV);
 
-									Expr outputLe = ctx.mkBVSLE(outLenExpr, possibleOutputLength);
+									Expr outputLe = ctx.mkBVULE(outLenExpr, possibleOutputLength);
 
 									/* e_k(i) = (j, q) */
-									Expr eExpr = ctx.mkEq(e.apply(inputPosition), pair.mkDecl().apply(outputPosition, q));
+									Expr eExpr = ctx.mkEq(terms.apply(e, inputPosition), terms.apply(mkPair, outputPosition, q));
 									
 
 									/* expressions for implications: out_len(q, a) = 0 ==> e_k(i+1) = (j, q') */
 
 									/* special case for 0 */
-									Expr lenEq = ctx.mkEq(outLenExpr, zero);
-									Expr eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-											pair.mkDecl().apply(outputPosition, qPrime));
+									Expr lenEq = ctx.mkEq(outLenExpr, posZero);
+									Expr eExprPrime = ctx.mkEq(terms.apply(e, terms.num(i + 1, posBV)), 
+											terms.apply(mkPair, outputPosition, qPrime));
 
 									Expr c = ctx.mkImplies(lenEq, eExprPrime);
 
@@ -614,15 +624,15 @@ public class ConstraintsSolverLookahead {
 									Expr consequent = ctx.mkAnd(outputLe, c);
 									for (int l = 0; l < possibleOutputLen; l++) { 
 										int outputGenLength = l + 1;
-										lenEq = ctx.mkEq(outLenExpr, (BitVecNum) ctx.mkNumeral(outputGenLength, BV));
-										eExprPrime = ctx.mkEq(e.apply((BitVecNum) ctx.mkNumeral(i + 1, BV)), 
-												pair.mkDecl().apply((BitVecNum) ctx.mkNumeral(j + outputGenLength, BV), qPrime));
+										lenEq = ctx.mkEq(outLenExpr, terms.num(outputGenLength, posBV));
+										eExprPrime = ctx.mkEq(terms.apply(e, terms.num(i + 1, posBV)), 
+												terms.apply(mkPair, terms.num(j + outputGenLength, posBV), qPrime));
 
 										/* equalities */
 										Expr stringEqualities = ctx.mkTrue();
 										for (int inc = 1; inc <= outputGenLength; inc++) {
 											int index = (j + inc) - 1;
-											BitVecExpr nextPosition = (BitVecNum) ctx.mkNumeral(outputArr[index], BV);
+											BitVecExpr nextPosition = terms.num(outputArr[index], charBV);
 											Expr eq = ctx.mkEq(nextPosition, outputChars[inc - 1]);
 											stringEqualities = ctx.mkAnd(stringEqualities, eq);
 										}
@@ -633,8 +643,8 @@ public class ConstraintsSolverLookahead {
 
 
 									/* make big constraint */
-									rExpr = ctx.mkEq(r.apply(ctx.mkNumeral(i, BV)), qL);
-									Expr antecedent = ctx.mkAnd(eExpr, inputEq, rExpr);
+									rExpr = ctx.mkEq(terms.apply(r, terms.num(i, posBV)), qL);
+									Expr antecedent = ctx.mkAnd(eExpr, rExpr);
 
 									
 									solver.add(ctx.mkImplies(antecedent, consequent));
@@ -661,116 +671,122 @@ public class ConstraintsSolverLookahead {
 		p.add("smt.phase_caching_on", 80000);
 		solver.setParameters(p);
 		
-		/* bit-vec and bool sorts */
-		BV = ctx.mkBitVecSort(8);
+		/* bit-vec and bool sorts, wide enough for the (lookahead) states, alphabet, examples and energy values */
+		long productStates = (long) numStates * numLookaheadStates * source.stateCount() * target.stateCount();
+		widths = BitWidths.mkWidths(source, target, Math.max(numStates, numLookaheadStates), outputBound, 
+				alphabetMap.size(), ioExamples, distance, productStates);
+		stateBV = ctx.mkBitVecSort(widths.stateWidth);
+		charBV = ctx.mkBitVecSort(widths.charWidth);
+		posBV = ctx.mkBitVecSort(widths.posWidth);
+		energyBV = ctx.mkBitVecSort(widths.energyWidth);
 		B = ctx.getBoolSort();
+		terms = new TermCache(ctx);
 		
 		/* some useful constants */
-		numStatesInt = (BitVecNum) ctx.mkNumeral(numStates, BV);
-		numLookaheadStatesInt = (BitVecNum) ctx.mkNumeral(numLookaheadStates, BV);
-		alphabetSize = (BitVecNum) ctx.mkNumeral(alphabetMap.size(), BV);
-		zero = (BitVecNum) ctx.mkNumeral(0, BV);
-		bound = (BitVecNum) ctx.mkNumeral(outputBound, BV);
+		numStatesInt = terms.num(numStates, stateBV);
+		numLookaheadStatesInt = terms.num(numLookaheadStates, stateBV);
+		alphabetSize = terms.num(alphabetMap.size(), charBV);
+		initState = terms.num(0, stateBV);
+		posZero = terms.num(0, posBV);
+		energyZero = terms.num(0, energyBV);
+		bound = terms.num(outputBound, posBV);
 		
 		/* d_R: transition relation of source */
-		Sort[] argsToDR = new Sort[]{ BV, BV };
-		dR = ctx.mkFuncDecl("dR", argsToDR, BV);
+		Sort[] argsToDR = new Sort[]{ stateBV, charBV };
+		dR = ctx.mkFuncDecl("dR", argsToDR, stateBV);
 		
 		/* encode d_R */
 		Collection<SFAMove<CharPred, Character>> sourceTransitions = source.getTransitions();
 		for (SFAMove<CharPred, Character> transition : sourceTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.num(stateFrom, stateBV);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.num(stateTo, stateBV);
 			
-			Expr dexp = dR.apply(q1, a);
+			Expr dexp = terms.apply(dR, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* d_T: transition relation of target */
-		Sort[] argsToDT = new Sort[]{ BV, BV };
-		dT = ctx.mkFuncDecl("dT", argsToDT, BV);
+		Sort[] argsToDT = new Sort[]{ stateBV, charBV };
+		dT = ctx.mkFuncDecl("dT", argsToDT, stateBV);
 		
 		/* encode d_T */
 		Collection<SFAMove<CharPred, Character>> targetTransitions = target.getTransitions();
 		for (SFAMove<CharPred, Character> transition : targetTransitions) {
 			Integer stateFrom = transition.from;
-			BitVecExpr q1 = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
+			BitVecExpr q1 = terms.num(stateFrom, stateBV);
 			
 			Character move = transition.getWitness(ba); // there should only be 1
-			BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+			BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 			
 			Integer stateTo = transition.to;
-			BitVecExpr q2 = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+			BitVecExpr q2 = terms.num(stateTo, stateBV);
 			
-			Expr dexp = dT.apply(q1, a);
+			Expr dexp = terms.apply(dT, q1, a);
 			solver.add(ctx.mkEq(dexp, q2));
 		}
 		
 		/* declare f_R : Q -> {0, 1} */
-		f_R = ctx.mkFuncDecl("f_R", BV, B);
+		f_R = ctx.mkFuncDecl("f_R", stateBV, B);
 		for (Integer sourceState : source.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-			Expr c = f_R.apply(stateInt);
+			BitVecExpr stateInt = terms.num(sourceState, stateBV);
+			Expr c = terms.apply(f_R, stateInt);
 			if (!source.isFinalState(sourceState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
 		
 		/* declare f_T : Q -> {0, 1} */
-		f_T = ctx.mkFuncDecl("f_T", BV, B);
+		f_T = ctx.mkFuncDecl("f_T", stateBV, B);
 		for (Integer targetState : target.getStates()) {
-			BitVecExpr stateInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
-			Expr c = f_T.apply(stateInt);
+			BitVecExpr stateInt = terms.num(targetState, stateBV);
+			Expr c = terms.apply(f_T, stateInt);
 			if (!target.isFinalState(targetState)) c = ctx.mkNot(c);
 			solver.add(c);
 		}
 		
 		/* declare d_1: Q x Q_L x \Sigma x Z -> Q  */
-		Sort[] argsToD1 = new Sort[]{ BV, BV, BV, BV };
-		d1 = ctx.mkFuncDecl("d1", argsToD1, BV);
+		Sort[] argsToD1 = new Sort[]{ stateBV, stateBV, charBV, posBV };
+		d1 = ctx.mkFuncDecl("d1", argsToD1, charBV);
 		
 		/* declare out_len */
-		Sort[] argsToOutLen = new Sort[]{ BV, BV, BV };
-		out_len = ctx.mkFuncDecl("out_len", argsToOutLen, BV);
+		Sort[] argsToOutLen = new Sort[]{ stateBV, stateBV, charBV };
+		out_len = ctx.mkFuncDecl("out_len", argsToOutLen, posBV);
 		
 		/* declare d_2 : Q x Q_L x \Sigma -> Q */
-		Sort[] argsToD2 = new Sort[]{ BV, BV, BV };
-		d2 = ctx.mkFuncDecl("d2", argsToD2, BV);
+		Sort[] argsToD2 = new Sort[]{ stateBV, stateBV, charBV };
+		d2 = ctx.mkFuncDecl("d2", argsToD2, stateBV);
 		
 		/* restrict range of d_1, d_2 and out_len */
 		for (int i = 0; i < numStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int j = 0; j < numLookaheadStates; j++) {
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+				BitVecExpr qL = terms.num(j, stateBV);
 			
 				for (int move : alphabetMap.values())  {
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+					BitVecExpr a = terms.num(move, charBV);
 
 					/* 0 <= out_len(q, a) <= l */
-					Expr outLenExpr = out_len.apply(q, qL, a);
-					solver.add(ctx.mkBVSLE(zero, outLenExpr));
-					solver.add(ctx.mkBVSLE(outLenExpr, bound));
+					Expr outLenExpr = terms.apply(out_len, q, qL, a);
+					solver.add(ctx.mkBVULE(outLenExpr, bound));
 
 					/* make variable q' = d2(q, qL, a) */
-					Expr qPrime = d2.apply(q, qL, a);
+					Expr qPrime = terms.apply(d2, q, qL, a);
 
 					/* 0 <= qPrime < numStates; range only needs to be encoded once */
-					solver.add(ctx.mkBVSLE(zero, qPrime));
-					solver.add(ctx.mkBVSLT(qPrime, numStatesInt));
+					solver.add(ctx.mkBVULT(qPrime, numStatesInt));
 
 					for (int l = 0; l < outputBound; l++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-						Expr d1exp = d1.apply(q, qL, a, index);
+						BitVecExpr index = terms.num(l, posBV);
+						Expr d1exp = terms.apply(d1, q, qL, a, index);
 
 						/* 0 <= d1(q, qL, a, index) < alphabetSize */
-						solver.add(ctx.mkBVSLE(zero, d1exp));
-						solver.add(ctx.mkBVSLT(d1exp, alphabetSize)); 
+						solver.add(ctx.mkBVULT(d1exp, alphabetSize)); 
 					}
 				}
 				
@@ -778,45 +794,45 @@ public class ConstraintsSolverLookahead {
 		}
 		
 		/* d_L: Q_L x \Sigma -> Q_L */
-		Sort[] argsToDL = new Sort[]{ BV, BV };
-		dL = ctx.mkFuncDecl("d2", argsToDL, BV);
+		Sort[] argsToDL = new Sort[]{ stateBV, charBV };
+		dL = ctx.mkFuncDecl("d2", argsToDL, stateBV);
 		
 		/* restrict range of d_L */
 		for (int i = 0; i < numLookaheadStates; i++) {	// q 
-			BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+			BitVecExpr q = terms.num(i, stateBV);
 			
 			for (int move : alphabetMap.values())  {
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+				BitVecExpr a = terms.num(move, charBV);
 				
 				/* make variable q_L' = d_L(q_L, a) */
-				Expr qPrime = dL.apply(q, a);
+				Expr qPrime = terms.apply(dL, q, a);
 				
 				/* 0 <= q_L' < numLookaheadStates; range only needs to be encoded once */
-				solver.add(ctx.mkBVSLE(zero, qPrime));
-				solver.add(ctx.mkBVSLT(qPrime, numLookaheadStatesInt));
+				solver.add(ctx.mkBVULT(qPrime, numLookaheadStatesInt));
 			}
 		}
 
 		
 		/* declare x : Q_R x Q x Q_T x Q_R -> {1, 0} */
-		Sort[] argsToX = new Sort[]{ BV, BV, BV, BV };
+		Sort[] argsToX = new Sort[]{ stateBV, stateBV, stateBV, stateBV };
 		x = ctx.mkFuncDecl("x", argsToX, B);
 		
 		/* declare edit-dist: Q x Q_L x \Sigma -> Z */
-		Sort[] argsToEd = new Sort[]{ BV, BV, BV };
-		edDist = ctx.mkFuncDecl("ed_dist", argsToEd, BV);
+		Sort[] argsToEd = new Sort[]{ stateBV, stateBV, charBV };
+		edDist = ctx.mkFuncDecl("ed_dist", argsToEd, energyBV);
 		
 		/* declare C: Q_R x Q x Q_T -> Z */
-		Sort[] argsToC = new Sort[]{ BV, BV, BV };
-		energy = ctx.mkFuncDecl("C", argsToC, BV);
+		Sort[] argsToC = new Sort[]{ stateBV, stateBV, stateBV };
+		energy = ctx.mkFuncDecl("C", argsToC, energyBV);
 		
 		
 		this.pair = ctx.mkTupleSort(ctx.mkSymbol("mkPair"), // name of tuple constructor
 				new Symbol[] { ctx.mkSymbol("first"), ctx.mkSymbol("second") }, // names of projection operators
-				new Sort[] { BV, BV } // types of projection operators
+				new Sort[] { posBV, stateBV } // types of projection operators
 			);
 		this.first = pair.getFieldDecls()[0];	// projections
 		this.second = pair.getFieldDecls()[1];
+		this.mkPair = pair.mkDecl();
 		
 		
 		/* Input-Output Types Constraints */
@@ -836,9 +852,10 @@ public class ConstraintsSolverLookahead {
 			/* Process alphabet */
 			Set<Character> singleChars = new HashSet<Character>();
 			Set<Character> multipleChars = new HashSet<Character>();
+			MintermIndex mintermIndex = new MintermIndex(idToMinterms);
 			
 			for (Character a : alphabet) {
-				CharPred minterm = SFAOperations.findSatisfyingMinterm(a, idToMinterms).first;
+				CharPred minterm = mintermIndex.getMinterm(a).first;
 				if (minterm.intervals.size() == 1) {
 					ImmutablePair<Character, Character> interval = minterm.intervals.get(0);
 					if (interval.right - interval.left == 0) {
@@ -853,20 +870,20 @@ public class ConstraintsSolverLookahead {
 			
 			/* Single-char minterm cannot output multiple-char minterm */
 			for (int i = 0; i < numStates; i++) {	// q 
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(i, BV);
+				BitVecExpr q = terms.num(i, stateBV);
 				
 				for (int j = 0; j < numLookaheadStates; j++) {
-					BitVecExpr qL = (BitVecNum) ctx.mkNumeral(j, BV);
+					BitVecExpr qL = terms.num(j, stateBV);
 				
 					for (Character move : singleChars)  {
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
+						BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
 						
 						for (int l = 0; l < outputBound; l++) {
-							BitVecExpr index = (BitVecNum) ctx.mkNumeral(l, BV);
-							Expr d1exp = d1.apply(q, qL, a, index);
+							BitVecExpr index = terms.num(l, posBV);
+							Expr d1exp = terms.apply(d1, q, qL, a, index);
 							
 							for (Character out : multipleChars) {
-								BitVecExpr b = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+								BitVecExpr b = terms.num(alphabetMap.get(out), charBV);
 								solver.add(ctx.mkNot(ctx.mkEq(d1exp, b)));
 							}
 						}
@@ -885,11 +902,11 @@ public class ConstraintsSolverLookahead {
 				Character move = transition.getWitness(ba);
 				Integer stateTo = transition.to;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(move), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(move), charBV);
+				BitVecExpr qPrime = terms.num(stateTo, stateBV);
 				
-				solver.add(ctx.mkEq(d2.apply(q, a), qPrime));
+				solver.add(ctx.mkEq(terms.apply(d2, q, a), qPrime));
 			}
 		}
 		
@@ -908,26 +925,26 @@ public class ConstraintsSolverLookahead {
 				Integer stateTo = transition.to;
 				List<Character> outputs = transition.outputs;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr qL = (BitVecNum) ctx.mkNumeral(lookaheadState, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
-				BitVecExpr outputLen = (BitVecNum) ctx.mkNumeral(outputs.size(), BV);
+				BitVecExpr q = terms.num(stateFrom, stateBV);
+				BitVecExpr qL = terms.num(lookaheadState, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(input), charBV);
+				BitVecExpr qPrime = terms.num(stateTo, stateBV);
+				BitVecExpr outputLen = terms.num(outputs.size(), posBV);
 				
 				/* d2exp */
-				Expr d2exp = d2.apply(q, qL, a);
+				Expr d2exp = terms.apply(d2, q, qL, a);
 				negModel = ctx.mkAnd(negModel, ctx.mkEq(d2exp, qPrime));
 				
 				/* outputLenExpr */
-				Expr outputLenExpr = out_len.apply(q, qL, a);
+				Expr outputLenExpr = terms.apply(out_len, q, qL, a);
 				negModel = ctx.mkAnd(negModel, ctx.mkEq(outputLenExpr, outputLen));
 				
 				/* d1exp: iterate through outputFunc */
 				int index = 0;
 				for (Character out : outputs) {
-					BitVecExpr outMoveNum = (BitVecNum) ctx.mkNumeral(alphabetMap.get(out), BV);
+					BitVecExpr outMoveNum = terms.num(alphabetMap.get(out), charBV);
 
-					Expr d1exp = d1.apply(q, qL, a, (BitVecNum) ctx.mkNumeral(index, BV));
+					Expr d1exp = terms.apply(d1, q, qL, a, terms.num(index, posBV));
 					negModel = ctx.mkAnd(negModel, ctx.mkEq(d1exp, outMoveNum));
 				}
 				
@@ -938,12 +955,12 @@ public class ConstraintsSolverLookahead {
 				Character input = transition.input;
 				Integer stateTo = transition.to;
 				
-				BitVecExpr q = (BitVecNum) ctx.mkNumeral(stateFrom, BV);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(alphabetMap.get(input), BV);
-				BitVecExpr qPrime = (BitVecNum) ctx.mkNumeral(stateTo, BV);
+				BitVecExpr q = terms.num(stateFrom, stateBV);
+				BitVecExpr a = terms.num(alphabetMap.get(input), charBV);
+				BitVecExpr qPrime = terms.num(stateTo, stateBV);
 				
 				/* dLexp */
-				Expr dLexp = dL.apply(q, a);
+				Expr dLexp = terms.apply(dL, q, a);
 				negModel = ctx.mkAnd(negModel, ctx.mkEq(dLexp, qPrime));
 			}
 			
@@ -968,17 +985,15 @@ public class ConstraintsSolverLookahead {
 	}
 	
 	
+	/* d_L in m, read from its interpretation */
 	public FSA<Character> extractLookaheadAut(Model m) {
+		FuncTable dLTable = new FuncTable(m, dL, terms);
+		
 		Collection<FSAMove<Character>> transitions = new HashSet<FSAMove<Character>>();
 		for (int qL = 0; qL < numLookaheadStates; qL++) {
-			BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
-
 			for (int move : alphabetMap.values())  { 
 				Character input = revAlphabetMap.get(move);
-				BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
-				
-				Expr dLexp = dL.apply(stateLookahead, a);
-				int qLPrime = ((BitVecNum) m.evaluate(dLexp, false)).getInt();
+				int qLPrime = dLTable.get(qL, move);
 				
 				transitions.add(new FSAMove<Character>(qL, qLPrime, input));
 			}
@@ -989,7 +1004,12 @@ public class ConstraintsSolverLookahead {
 		return lookaheadAut;
 	}
 	
+	/* d2, out_len and d1 in m, read from their interpretations */
 	public FST<Pair<Character, Integer>, Character> extractFT(Model m) {
+		FuncTable d2Table = new FuncTable(m, d2, terms);
+		FuncTable outLenTable = new FuncTable(m, out_len, terms);
+		FuncTable d1Table = new FuncTable(m, d1, terms);
+		
 		Collection<FSTMove<Pair<Character, Integer>, Character>> transitions = 
 				new HashSet<FSTMove<Pair<Character, Integer>, Character>>();
 		
@@ -998,27 +1018,17 @@ public class ConstraintsSolverLookahead {
 			
 				for (int move : alphabetMap.values())  { 
 					Character input = revAlphabetMap.get(move);
-					BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-					BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
-					BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
 
 					/* get state to */
-					Expr d2exp = d2.apply(state, stateLookahead, a);
-					BitVecNum q2num = (BitVecNum) m.evaluate(d2exp, false);
-					int q2 = q2num.getInt();
+					int q2 = d2Table.get(q1, qL, move);
 
 					/* output_len */
-					Expr outputLenExpr = out_len.apply(state, stateLookahead, a);
-					BitVecNum outputLenNum = (BitVecNum) m.evaluate(outputLenExpr, false);
-					int outputLen = outputLenNum.getInt();
+					int outputLen = outLenTable.get(q1, qL, move);
 
 					/* get output */
 					List<Character> outputs = new ArrayList<Character>();
 					for (int i = 0; i < outputLen; i++) {
-						BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-						Expr d1exp = d1.apply(state, stateLookahead, a, index);
-						BitVecNum outMoveNum = (BitVecNum) m.evaluate(d1exp, false);
-						int outMove = outMoveNum.getInt();
+						int outMove = d1Table.get(q1, qL, move, i);
 						Character output = revAlphabetMap.get(outMove);
 						outputs.add(output);
 					}
@@ -1096,26 +1106,26 @@ public class ConstraintsSolverLookahead {
 				/* d1 and d2 */	
 				for (int q1 = 0; q1 < numStates; q1++) {
 					for (int qL = 0; qL < numLookaheadStates; qL++) {
-						BitVecExpr state = (BitVecNum) ctx.mkNumeral(q1, BV);
-						BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
+						BitVecExpr state = terms.num(q1, stateBV);
+						BitVecExpr stateLookahead = terms.num(qL, stateBV);
 
 						for (int move : alphabetMap.values())  { 
 							Character input = revAlphabetMap.get(move);
-							BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV); 
+							BitVecExpr a = terms.num(move, charBV); 
 
 							/* get state to */
-							Expr d2exp = d2.apply(state, stateLookahead, a);
+							Expr d2exp = terms.apply(d2, state, stateLookahead, a);
 							int q2 = ((BitVecNum) m.evaluate(d2exp, false)).getInt();
 
 							/* output_len */
-							Expr outputLenExpr = out_len.apply(state, stateLookahead, a);
+							Expr outputLenExpr = terms.apply(out_len, state, stateLookahead, a);
 							int outputLen = ((BitVecNum) m.evaluate(outputLenExpr, false)).getInt();
 
 							/* get output */
 							StringBuilder outputStr = new StringBuilder("");
 							for (int i = 0; i < outputLen; i++) {
-								BitVecExpr index = (BitVecNum) ctx.mkNumeral(i, BV);
-								Expr d1exp = d1.apply(state, stateLookahead, a, index);
+								BitVecExpr index = terms.num(i, posBV);
+								Expr d1exp = terms.apply(d1, state, stateLookahead, a, index);
 								int outMove = ((BitVecNum) m.evaluate(d1exp, false)).getInt();
 								Character output = revAlphabetMap.get(outMove);
 								outputStr.append(output);
@@ -1125,7 +1135,7 @@ public class ConstraintsSolverLookahead {
 							System.out.println("d(" + q1 + ", " + input + ", " + outputStr + ", " + q2 + ")");
 
 							/* edit-distance of transitions */
-							Expr edDistExpr = edDist.apply(state, stateLookahead, a);
+							Expr edDistExpr = terms.apply(edDist, state, stateLookahead, a);
 							int editDist = ((BitVecNum) m.evaluate(edDistExpr, false)).getInt();
 							System.out.println("edit-distance(" + q1 + ", " + input + ", " + outputStr + ") = " + editDist);
 						}
@@ -1134,13 +1144,13 @@ public class ConstraintsSolverLookahead {
 				
 				/* d_L */
 				for (int qL = 0; qL < numLookaheadStates; qL++) {
-					BitVecExpr stateLookahead = (BitVecNum) ctx.mkNumeral(qL, BV);
+					BitVecExpr stateLookahead = terms.num(qL, stateBV);
 
 					for (int move : alphabetMap.values())  { 
 						Character input = revAlphabetMap.get(move);
-						BitVecExpr a = (BitVecNum) ctx.mkNumeral(move, BV);
+						BitVecExpr a = terms.num(move, charBV);
 						
-						Expr dLexp = dL.apply(stateLookahead, a);
+						Expr dLexp = terms.apply(dL, stateLookahead, a);
 						int qLPrime = ((BitVecNum) m.evaluate(dLexp, false)).getInt();
 						
 						/* print d_L */
@@ -1155,7 +1165,7 @@ public class ConstraintsSolverLookahead {
 					String inputString = example.first;
 					
 					for (int i = 0; i < inputString.length(); i++) {
-						Expr stateLookahead = r.apply((BitVecNum) ctx.mkNumeral(i, BV));
+						Expr stateLookahead = terms.apply(r, terms.num(i, posBV));
 						int qL = ((BitVecNum) m.evaluate(stateLookahead, false)).getInt();
 						
 						/* print */
@@ -1170,15 +1180,15 @@ public class ConstraintsSolverLookahead {
 				for (int i = 0; i < numStates; i++) {
 					for (Integer sourceState : source.getStates()) {
 						for (Integer targetState : target.getStates()) {
-							BitVecExpr sourceInt = (BitVecNum) ctx.mkNumeral(sourceState, BV);
-							BitVecNum stateInt = (BitVecNum) ctx.mkNumeral(i, BV);
-							BitVecExpr targetInt = (BitVecNum) ctx.mkNumeral(targetState, BV);
+							BitVecExpr sourceInt = terms.num(sourceState, stateBV);
+							BitVecNum stateInt = terms.num(i, stateBV);
+							BitVecExpr targetInt = terms.num(targetState, stateBV);
 
 							for (int j = 0; j < numLookaheadStates; j++) {
-								BitVecExpr lookaheadInt = (BitVecNum) ctx.mkNumeral(j, BV);
+								BitVecExpr lookaheadInt = terms.num(j, stateBV);
 								
-								Expr exp1 = x.apply(sourceInt, stateInt, targetInt, lookaheadInt);
-								Expr exp2 = energy.apply(sourceInt, stateInt, targetInt);
+								Expr exp1 = terms.apply(x, sourceInt, stateInt, targetInt, lookaheadInt);
+								Expr exp2 = terms.apply(energy, sourceInt, stateInt, targetInt);
 								int flag = 0;
 								if (m.evaluate(exp1, false).isTrue()) {
 									System.out.println("x(" + sourceState + ", " + stateInt.getInt() + ", " + targetState + ")");
@@ -0,0 +1,195 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+
+import automata.sfa.SFA;
+import theory.BooleanAlgebraSubst;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import transducers.sft.SFT;
+import utilities.Pair;
+
+/*
+ * Cube-and-conquer for a single configuration: the search is split on the transitions out of the initial state.
+ * A cube fixes d2(0, a) and out_len(0, a) for the first characters a of the alphabet, as many as are needed for
+ * at least numCubes cubes; together the cubes cover every transducer. Each cube is encoded and solved on its own
+ * Context, with the cube as assumptions, and the first SAT cube stops the others (see SearchSlots).
+ */
+public class CubeAndConquer {
+	/* Fields/instance variables */
+	SFA<CharPred, Character> source;
+	SFA<CharPred, Character> target;
+	HashMap<Character, Integer> alphabetMap;
+	List<Pair<String, String>> ioExamples;
+	Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterms;
+	BooleanAlgebraSubst<CharPred, CharFunc, Character> ba;
+	int numStates;
+	int outputBound;
+	int[] fraction;
+
+	/* Per cube: the characters it fixes and their (d2(0, a), out_len(0, a)) */
+	List<Integer> moves;
+	List<int[][]> cubes;
+
+	/* Per cube: its Context while it is solving, and whether it has been stopped */
+	SearchSlots slots;
+
+	/* Constructor */
+	public CubeAndConquer(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			HashMap<Character, Integer> alphabetMap, List<Pair<String, String>> ioExamples,
+			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> minterms, int numStates, int outputBound, int[] fraction,
+			int numCubes, BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) {
+		if (numCubes < 1) {
+			throw new IllegalArgumentException("There must be at least one cube");
+		}
+
+		this.source = source;
+		this.target = target;
+		this.alphabetMap = alphabetMap;
+		this.ioExamples = ioExamples;
+		this.idToMinterms = minterms;
+		this.numStates = numStates;
+		this.outputBound = outputBound;
+		this.fraction = fraction;
+		this.ba = ba;
+
+		mkCubes(numCubes);
+		this.slots = new SearchSlots(cubes.size());
+	}
+
+	/* Fixes characters in the order of their numbers until there are at least numCubes cubes, or no more characters */
+	void mkCubes(int numCubes) {
+		List<Integer> alphabet = new ArrayList<Integer>(alphabetMap.values());
+		Collections.sort(alphabet);
+
+		moves = new ArrayList<Integer>();
+		cubes = new ArrayList<int[][]>();
+		cubes.add(new int[0][]);
+		for (int move : alphabet) {
+			if (cubes.size() >= numCubes) break;
+			moves.add(move);
+
+			List<int[][]> extended = new ArrayList<int[][]>();
+			for (int[][] cube : cubes) {
+				for (int qPrime = 0; qPrime < numStates; qPrime++) {
+					for (int length = 0; length <= outputBound; length++) {
+						int[][] next = new int[cube.length + 1][];
+						System.arraycopy(cube, 0, next, 0, cube.length);
+						next[cube.length] = new int[] { qPrime, length };
+						extended.add(next);
+					}
+				}
+			}
+			cubes = extended;
+		}
+	}
+
+	public int getCubeCount() {
+		return cubes.size();
+	}
+
+	/*
+	 * Solve the cubes on numThreads threads. Returns the transducer of the first cube found SAT, or null if every
+	 * cube is UNSAT; throws TimeoutException if the timeout (in seconds) expires first or a cube cannot be decided
+	 */
+	public SFT<CharPred, CharFunc, Character> run(int numThreads, long timeout) throws InterruptedException, TimeoutException {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("There must be at least one thread");
+		}
+		
+		int n = cubes.size();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, n));
+		CompletionService<SFT<CharPred, CharFunc, Character>> completion =
+				new ExecutorCompletionService<SFT<CharPred, CharFunc, Character>>(executor);
+
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			completion.submit(() -> {
+				return solve(index, deadline);
+			});
+		}
+
+		try {
+			for (int received = 0; received < n; received++) {
+				Future<SFT<CharPred, CharFunc, Character>> future =
+						completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (future == null) {
+					throw new TimeoutException("No answer after " + timeout + "s");
+				}
+
+				SFT<CharPred, CharFunc, Character> res;
+				try {
+					res = future.get();
+				} catch (ExecutionException e) {
+					/* a cube that failed cannot be decided, so neither can the instance */
+					throw new TimeoutException(e.getCause().toString());
+				}
+
+				if (res != null) return res;
+			}
+
+			return null;
+		} finally {
+			slots.stopFrom(0);
+			executor.shutdownNow();
+			slots.awaitStopped(Driver.WATCHDOG_GRACE);
+		}
+	}
+
+	/* Solve a single cube on a fresh Context, with a solver timeout of what is left until deadline; returns null if UNSAT or stopped */
+	SFT<CharPred, CharFunc, Character> solve(int index, long deadline) throws TimeoutException {
+		HashMap<String, String> cfg = new HashMap<String, String>();
+		cfg.put("model", "true");
+		Context ctx = new Context(cfg);
+
+		try {
+			if (!slots.enter(index, ctx)) return null;
+
+			ConstraintsSolver c = new ConstraintsSolver(ctx, source, target, alphabetMap, numStates, outputBound,
+					ioExamples, "mean", fraction, null, null, null, idToMinterms, null, ba);
+			c.setTimeout(SearchSlots.remainingMillis(deadline));
+			c.encode();
+
+			int[][] cube = cubes.get(index);
+			BoolExpr[] assumptions = new BoolExpr[cube.length];
+			for (int k = 0; k < cube.length; k++) {
+				assumptions[k] = c.mkInitialChoice(moves.get(k), cube[k][0], cube[k][1]);
+			}
+
+			if (slots.isStopped(index)) return null;
+			SFT<CharPred, CharFunc, Character> mySFT;
+			try {
+				mySFT = c.constructSFT(false, numStates, assumptions).first;
+			} catch (TimeoutException e) {
+				if (slots.isStopped(index)) return null; 	// the check was interrupted by the stop
+				throw e;
+			}
+
+			if (slots.isStopped(index)) return null;
+
+			if (mySFT.getTransitions().size() == 0) return null;
+			return mySFT;
+		} finally {
+			slots.leave(index);
+			ctx.close();
+		}
+	}
+}
@@ -14,6 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -23,6 +24,7 @@ import org.sat4j.specs.TimeoutException;
 
 import com.microsoft.z3.Context;
 
+import automata.MintermIndex;
 import automata.SFAOperations;
 import automata.SFTOperations;
 import automata.SFTTemplate;
@@ -39,23 +41,152 @@ public class Driver {
 	
 	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 	
+	/* Largest output length tried by runBasicAlgorithm */
+	static final int MAX_OUTPUT_LENGTH = 4;
+	
+	/* Time limit of each solve in runAlgorithm, in seconds */
+	static final long SOLVE_TIMEOUT = 300L;
+	
+	/* Seconds for which stopped searches are interrupted again after their limit, before they are left to stop by themselves */
+	static final long WATCHDOG_GRACE = 10L;
+	
+	/* Examples encoded before the first candidate in CEGIS mode */
+	static final int CEGIS_INITIAL_EXAMPLES = 3;
+	
 	/* Convert example strings to their 'finite' versions using minterms (this is duplicated) */
 	static List<Pair<String, String>> finitizeExamples(List<Pair<String, String>> ioExamples, 
 			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> minterms) throws TimeoutException {
 		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		MintermIndex index = new MintermIndex(minterms);
 		
 		for (Pair<String, String> example : ioExamples) {
-			String input = SFAOperations.finitizeStringMinterms(example.first, minterms, ba);
-			String output = SFAOperations.finitizeStringMinterms(example.second, minterms, ba);
+			String input = SFAOperations.finitizeStringMinterms(example.first, index, ba);
+			String output = SFAOperations.finitizeStringMinterms(example.second, index, ba);
 			examples.add(new Pair<String, String>(input, output));
 		}
 		
 		return examples;
 	}
 	
-	/* Basic version of algorithm, currently without templates */
+	/* A problem over the finite alphabet of minterm ids: what every entry point needs before encoding */
+	static class FiniteProblem {
+		SFA<CharPred, Character> sourceFinite;
+		SFA<CharPred, Character> targetFinite;
+		SFA<CharPred, Character> targetTotal; 	// targetFinite made total over the alphabet
+		Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId; 	// null unless minterms are given
+		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm;
+		List<Pair<String, String>> examplesFinite;
+		HashMap<Character, Integer> alphabetMap;
+	}
+	
+	/* 
+	 * Makes source, target and examples finite, with the minterms of source and target or, if minterms is not null, 
+	 * with the given minterms
+	 */
+	static FiniteProblem mkFiniteProblem(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, Collection<Pair<CharPred, ArrayList<Integer>>> minterms) throws TimeoutException {
+		FiniteProblem finite = new FiniteProblem();
+		
+		if (minterms == null) {
+			Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
+					SFA.MkFiniteSFA(source, target, ba);
+			
+			finite.sourceFinite = triple.first;
+			finite.targetFinite = triple.second;
+			finite.idToMinterm = triple.third;
+		} else {
+			Pair<Map<Pair<CharPred, ArrayList<Integer>>, CharPred>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> mintermMaps =
+					SFAOperations.constructMintermMap(minterms, ba);
+			finite.mintermToId = mintermMaps.first;
+			finite.idToMinterm = mintermMaps.second;
+			
+			finite.sourceFinite = SFAOperations.MkFiniteSFA(source, minterms, finite.mintermToId, ba);
+			finite.targetFinite = SFAOperations.MkFiniteSFA(target, minterms, finite.mintermToId, ba);
+		}
+		
+		finite.examplesFinite = finitizeExamples(examples, finite.idToMinterm);
+		
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(finite.sourceFinite, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(finite.targetFinite, ba));
+		finite.alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		
+		// Make target FA total
+		finite.targetTotal = SFAOperations.mkTotalFinite(finite.targetFinite, alphabetSet, ba);
+		
+		return finite;
+	}
+	
+	/* 
+	 * Runs call on its own thread with a limit of timeout seconds. Z3 stops by itself at the solver timeout; as a 
+	 * watchdog, ctx is also interrupted at the limit until the call returns, so that no search is left running 
+	 * when the Context is closed. The watchdog gives up after WATCHDOG_GRACE seconds: a call that is in Java code 
+	 * (e.g. SFT.decide1equality in the CEGIS loop) does not see Context.interrupt(), so its thread is interrupted 
+	 * and left behind, and it stops before its next use of the Context (see ConstraintsSolver.stopIfInterrupted).
+	 */
+	static <T> T runWithWatchdog(Context ctx, Callable<T> call, long timeout) throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<T> future = executor.submit(call);
+		executor.shutdown();
+		
+		try {
+			return future.get(timeout, TimeUnit.SECONDS);
+		} catch (java.util.concurrent.TimeoutException e) {
+			future.cancel(true);
+			
+			/* interrupt until the call has stopped; an interrupt can come before the next check starts */
+			long graceEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(WATCHDOG_GRACE);
+			do {
+				ctx.interrupt();
+			} while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS) && System.nanoTime() - graceEnd < 0);
+			
+			throw new TimeoutException("No answer after " + timeout + "s");
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+		}
+	}
+	
+	/* Basic version of algorithm, currently without templates; re-encodes for every bound, as it always has */
 	public static SFT<CharPred, CharFunc, Character> runBasicAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
 			List<Pair<String, String>> examples) throws TimeoutException {
+		return runBasicAlgorithm(source, target, examples, false);
+	}
+	
+	/* 
+	 * If incremental is set, the constraints are encoded once for the largest bounds and every round of the search 
+	 * reuses the same solver; otherwise the constraints are re-encoded from scratch for each (numStates, outputLength)
+	 */
+	public static SFT<CharPred, CharFunc, Character> runBasicAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, boolean incremental) throws TimeoutException {
+		return runBasicAlgorithm(source, target, examples, incremental, null);
+	}
+	
+	/* 
+	 * If backend is not null, the incremental search checks with it (e.g. CVC4Backend, or a RaceBackend of Z3 and CVC4) 
+	 * instead of the Z3 solver of the encoding
+	 */
+	public static SFT<CharPred, CharFunc, Character> runBasicAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, boolean incremental, SolverBackend backend) throws TimeoutException {
+		return runBasicAlgorithm(source, target, examples, incremental, backend, MAX_OUTPUT_LENGTH);
+	}
+	
+	/* 
+	 * Searches up to output length maxOutputLength. In the incremental search, the unsat core of an UNSAT round 
+	 * decides which bound is relaxed: a bound that is not in the core cannot help. If neither is, the search stops 
+	 * and reports the examples in the core.
+	 */
+	public static SFT<CharPred, CharFunc, Character> runBasicAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, boolean incremental, SolverBackend backend, int maxOutputLength) throws TimeoutException {
+		return runBasicAlgorithm(source, target, examples, incremental, backend, maxOutputLength, null);
+	}
+	
+	/* 
+	 * If core is not null and the incremental search ends UNSAT, the groups of the unsat core of its last round 
+	 * (see ConstraintsSolver.getUnsatCore, and describeCore) are added to core; nothing is added without a core.
+	 */
+	public static SFT<CharPred, CharFunc, Character> runBasicAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, boolean incremental, SolverBackend backend, int maxOutputLength, 
+			List<String> core) throws TimeoutException {
 		/* Going with fractional permitted cost of 1/1 */
 		int[] fraction = new int[] {1, 1};
 		
@@ -67,50 +198,188 @@ public class Driver {
 		
 		HashMap<String, String> cfg = new HashMap<String, String>();
         cfg.put("model", "true");
-        Context ctx = new Context(cfg);
-		
-		// Make finite automata out of source and target
-		Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
-				SFA.MkFiniteSFA(source, target, ba);
-		
-		SFA<CharPred, Character> sourceFinite = triple.first;
-		SFA<CharPred, Character> targetFinite = triple.second;
-		
-		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = triple.third;
-		
-		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, idToMinterm);
-		
-		Set<Character> sourceAlphabetSet = SFAOperations.alphabetSet(sourceFinite, ba);
-		Set<Character> targetAlphabetSet = SFAOperations.alphabetSet(targetFinite, ba);
-		Set<Character> alphabetSet = new HashSet<Character>();
-		alphabetSet.addAll(sourceAlphabetSet);
-		alphabetSet.addAll(targetAlphabetSet);
+        
+        /* the Context is closed when the search is over */
+        try (Context ctx = new Context(cfg)) {
 		
-		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+			FiniteProblem finite = mkFiniteProblem(source, target, examples, null);
 		
-		// Make target FA total
-		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(targetFinite, alphabetSet, ba);
+			if (incremental) {
+				ConstraintsSolver c = new ConstraintsSolver(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, finite.sourceFinite.stateCount(), maxOutputLength, 
+						finite.examplesFinite, "mean", fraction, null, null, null, null, null, ba);
+				c.setCoreTracking(true);
+				c.mkIncrementalConstraints();
+				c.setBackend(backend);
+			
+				while (true) {
+					/* Call solver with the current bounds as assumptions */
+					SFT<CharPred, CharFunc, Character> mySFT = c.solveWithBounds(numStates, outputLength, false).first;
+				
+					if (mySFT.getTransitions().size() == 0) { // if UNSAT
+						/* without a core (e.g. from a backend), both bounds may help */
+						List<String> unsatCore = c.getUnsatCore();
+						boolean statesInCore = (unsatCore == null || unsatCore.contains("states"));
+						boolean outputInCore = (unsatCore == null || unsatCore.contains("output"));
+					
+						if (!statesInCore && !outputInCore) {
+							System.out.println("UNSAT for all bounds, because of: " + describeCore(unsatCore, examples));
+							if (core != null) core.addAll(unsatCore);
+							return null;
+						}
+					
+						if (statesInCore && numStates < finite.sourceFinite.stateCount()) {
+							numStates++;
+						} else if (outputInCore && outputLength < maxOutputLength) {
+							outputLength++;
+						} else {
+							if (core != null && unsatCore != null) core.addAll(unsatCore);
+							return null;
+						}
+					} else {
+						return SFTOperations.mintermExpansion(mySFT, finite.idToMinterm);
+					}
+				}
+			}
 		
-		ConstraintsBV c = new ConstraintsBV(ctx, sourceFinite, targetTotal, alphabetMap, ba);
+			ConstraintsBV c = new ConstraintsBV(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, ba);
 		
-		while (true) {
-			/* Call solver */
-			SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(numStates, outputLength, fraction, examplesFinite, null, null, null, false).first;
+			while (true) {
+				/* Call solver */
+				SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(numStates, outputLength, fraction, finite.examplesFinite, null, null, null, false).first;
 			
-			if (mySFT.getTransitions().size() == 0) { // if UNSAT
-				if (numStates < sourceFinite.stateCount()) {
-					numStates++;
-				} else if (outputLength < 4) { 	// too much?
-					outputLength++;
+				if (mySFT.getTransitions().size() == 0) { // if UNSAT
+					if (numStates < finite.sourceFinite.stateCount()) {
+						numStates++;
+					} else if (outputLength < maxOutputLength) { 	// too much?
+						outputLength++;
+					} else {
+						return null;
+					}
 				} else {
-					return null;
+					return SFTOperations.mintermExpansion(mySFT, finite.idToMinterm);
 				}
+			}
+		}
+	}
+
+
+	/* 
+	 * One optimizing solve instead of the search of runBasicAlgorithm: the constraints are encoded for as many states 
+	 * as the source and output length maxOutputLength, and the objectives (see mkConstraintsOptimize) are minimized 
+	 * in order. Returns null if there is no transducer within these bounds.
+	 */
+	public static SFT<CharPred, CharFunc, Character> runOptimizingAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, List<String> objectives, int maxOutputLength) throws TimeoutException {
+		/* Going with fractional permitted cost of 1/1 */
+		int[] fraction = new int[] {1, 1};
+		
+		HashMap<String, String> cfg = new HashMap<String, String>();
+		cfg.put("model", "true");
+		
+		try (Context ctx = new Context(cfg)) {
+			FiniteProblem finite = mkFiniteProblem(source, target, examples, null);
+			
+			ConstraintsSolver c = new ConstraintsSolver(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, finite.sourceFinite.stateCount(), maxOutputLength, 
+					finite.examplesFinite, "mean", fraction, null, null, null, null, null, ba);
+			c.setTimeout(SOLVE_TIMEOUT * 1000);
+			SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraintsOptimize(objectives, false).first;
+			
+			if (mySFT.getTransitions().size() == 0) return null; 	// UNSAT
+			return SFTOperations.mintermExpansion(mySFT, finite.idToMinterm);
+		}
+	}
+	
+	/* The groups of an unsat core, with the examples written out */
+	static String describeCore(List<String> core, List<Pair<String, String>> examples) {
+		List<String> groups = new ArrayList<String>();
+		for (String name : core) {
+			if (name.startsWith("example ")) {
+				Pair<String, String> example = examples.get(Integer.parseInt(name.substring("example ".length())));
+				groups.add("example (" + example.first + ", " + example.second + ")");
 			} else {
-				return SFTOperations.mintermExpansion(mySFT, triple.third);
+				groups.add(name);
 			}
 		}
+		return String.join(", ", groups);
 	}
+	
+	
+	/* runBasicAlgorithm with the SAT backend (ConstraintsSAT) instead of Z3, for comparing the two */
+	public static SFT<CharPred, CharFunc, Character> runBasicAlgorithmSAT(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			List<Pair<String, String>> examples) throws TimeoutException {
+		/* Going with fractional permitted cost of 1/1 */
+		int[] fraction = new int[] {1, 1};
+
+		FiniteProblem finite = mkFiniteProblem(source, target, examples, null);
+
+		/* Same bounds, in the same order, as runBasicAlgorithm */
+		for (int outputLength = 1; outputLength <= MAX_OUTPUT_LENGTH; outputLength++) {
+			int firstStates = (outputLength == 1) ? 1 : finite.sourceFinite.stateCount();
+			for (int numStates = firstStates; numStates <= finite.sourceFinite.stateCount(); numStates++) {
+				ConstraintsSAT c = new ConstraintsSAT(finite.sourceFinite, finite.targetTotal, finite.alphabetMap, numStates, outputLength,
+						finite.examplesFinite, "mean", fraction, null, null, null, null, null, ba);
+				SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(false).first;
 
+				if (mySFT.getTransitions().size() != 0) {
+					return SFTOperations.mintermExpansion(mySFT, finite.idToMinterm);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * Portfolio version of runBasicAlgorithm: the configurations are solved in parallel on numThreads threads, 
+	 * each on its own Context, and the first SAT configuration (in order) is returned with its transducer. 
+	 * If configurations is null, the bounds of runBasicAlgorithm are used.
+	 */
+	public static Pair<SFT<CharPred, CharFunc, Character>, Portfolio.Configuration> runPortfolio(SFA<CharPred, Character> source, 
+			SFA<CharPred, Character> target, List<Pair<String, String>> examples, List<Portfolio.Configuration> configurations, 
+			int numThreads, long timeout) throws TimeoutException, InterruptedException {
+		FiniteProblem finite = mkFiniteProblem(source, target, examples, null);
+		
+		// Default configurations: same bounds and order as runBasicAlgorithm
+		if (configurations == null) {
+			List<int[]> fractions = new ArrayList<int[]>();
+			fractions.add(new int[] {1, 1});
+			configurations = Portfolio.mkConfigurations(finite.sourceFinite.stateCount(), MAX_OUTPUT_LENGTH, fractions);
+		}
+		
+		Portfolio portfolio = new Portfolio(finite.sourceFinite, finite.targetTotal, finite.alphabetMap, finite.examplesFinite, finite.idToMinterm, configurations, ba);
+		Pair<Portfolio.Configuration, SFT<CharPred, CharFunc, Character>> res = portfolio.run(numThreads, timeout);
+		
+		if (res == null) return null;
+		
+		SFT<CharPred, CharFunc, Character> mySFTexpanded = SFTOperations.mintermExpansion(res.second, finite.idToMinterm);
+		return new Pair<SFT<CharPred, CharFunc, Character>, Portfolio.Configuration>(mySFTexpanded, res.first);
+	}
+	
+	/* Portfolio over the same bounds as runBasicAlgorithm, using all available processors */
+	public static Pair<SFT<CharPred, CharFunc, Character>, Portfolio.Configuration> runPortfolio(SFA<CharPred, Character> source, 
+			SFA<CharPred, Character> target, List<Pair<String, String>> examples) throws TimeoutException, InterruptedException {
+		return runPortfolio(source, target, examples, null, Runtime.getRuntime().availableProcessors(), SOLVE_TIMEOUT);
+	}
+	
+	/* 
+	 * A single configuration (numStates, outputBound) split into at least numCubes cubes (see CubeAndConquer), 
+	 * solved on numThreads threads; null if UNSAT
+	 */
+	public static SFT<CharPred, CharFunc, Character> runCubeAndConquer(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			List<Pair<String, String>> examples, int numStates, int outputBound, int numCubes, int numThreads, long timeout) 
+					throws TimeoutException, InterruptedException {
+		FiniteProblem finite = mkFiniteProblem(source, target, examples, null);
+		
+		/* Going with fractional permitted cost of 1/1 */
+		int[] fraction = new int[] {1, 1};
+		
+		CubeAndConquer cubes = new CubeAndConquer(finite.sourceFinite, finite.targetTotal, finite.alphabetMap, finite.examplesFinite, finite.idToMinterm, 
+				numStates, outputBound, fraction, numCubes, ba);
+		SFT<CharPred, CharFunc, Character> mySFT = cubes.run(numThreads, timeout);
+		
+		if (mySFT == null) return null;
+		return SFTOperations.mintermExpansion(mySFT, finite.idToMinterm);
+	}
 	
 	public static Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> 
 	runAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
@@ -118,55 +387,44 @@ public class Driver {
 			List<Pair<String, String>> examples, SFA<CharPred, Character> template, 
 			SFTTemplate sftTemplate, Collection<Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config, 
 			String filename, String benchmarkName) throws TimeoutException, IOException {
-		HashMap<String, String> cfg = new HashMap<String, String>();
-        cfg.put("model", "true");
-        Context ctx = new Context(cfg);
+		return runAlgorithm(source, target, numStates, outputBound, numLookaheadStates, fraction, examples, template, 
+				sftTemplate, minterms, config, filename, benchmarkName, false);
+	}
+	
+	/* If cegis, the examples are added to the solvers as candidates get them wrong (see mkConstraintsCEGIS) */
+	public static Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> 
+	runAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			int numStates, int outputBound, int numLookaheadStates, int[] fraction, 
+			List<Pair<String, String>> examples, SFA<CharPred, Character> template, 
+			SFTTemplate sftTemplate, Collection<Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config, 
+			String filename, String benchmarkName, boolean cegis) throws TimeoutException, IOException {
+		return runAlgorithm(source, target, numStates, outputBound, numLookaheadStates, fraction, examples, template, 
+				sftTemplate, minterms, config, filename, benchmarkName, cegis, null);
+	}
+	
+	/* 
+	 * If cache is not null, a problem that was solved before is answered from the cache without Z3, and a new 
+	 * result is stored in it
+	 */
+	public static Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> 
+	runAlgorithm(SFA<CharPred, Character> source, SFA<CharPred, Character> target, 
+			int numStates, int outputBound, int numLookaheadStates, int[] fraction, 
+			List<Pair<String, String>> examples, SFA<CharPred, Character> template, 
+			SFTTemplate sftTemplate, Collection<Pair<CharPred, ArrayList<Integer>>> minterms, ArrayList<Boolean> config, 
+			String filename, String benchmarkName, boolean cegis, ResultCache cache) throws TimeoutException, IOException {
 		
 		// Make finite automata out of source and target
-        SFA<CharPred, Character> sourceFinite = null;
-        SFA<CharPred, Character> targetFinite = null;
-        
-        Map<Pair<CharPred, ArrayList<Integer>>, CharPred> mintermToId = null;
-        Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = null;
-        if (minterms == null) {
-        	Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
-        			SFA.MkFiniteSFA(source, target, ba);
-
-        	sourceFinite = triple.first;
-        	targetFinite = triple.second;
-
-        	idToMinterm = triple.third;
-        } else {
-        	Pair<Map<Pair<CharPred, ArrayList<Integer>>, CharPred>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> mintermMaps =
-        			SFAOperations.constructMintermMap(minterms, ba);
-        	mintermToId = mintermMaps.first;
-        	idToMinterm = mintermMaps.second;
-        	
-        	sourceFinite = SFAOperations.MkFiniteSFA(source, minterms, mintermToId, ba);
-        	targetFinite = SFAOperations.MkFiniteSFA(target, minterms, mintermToId, ba);
-        }
-		List<Pair<String, String>> examplesFinite = finitizeExamples(examples, idToMinterm);
-		
-		Set<Character> sourceAlphabetSet = SFAOperations.alphabetSet(sourceFinite, ba);
-		Set<Character> targetAlphabetSet = SFAOperations.alphabetSet(targetFinite, ba);
-		Set<Character> alphabetSet = new HashSet<Character>();
-		alphabetSet.addAll(sourceAlphabetSet);
-		alphabetSet.addAll(targetAlphabetSet);
-		
-		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
-		
-		// Make target FA total
-		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(targetFinite, alphabetSet, ba);
+		FiniteProblem finite = mkFiniteProblem(source, target, examples, minterms);
 		
 		// Make template finite
 		if (template != null) {
-			template = SFAOperations.MkFiniteSFA(template, minterms, mintermToId, ba);
+			template = SFAOperations.MkFiniteSFA(template, minterms, finite.mintermToId, ba);
 		}
 		
 		// Set ftTemplate if transitions provided
 		FSTTemplate ftTemplate = null;
 		if (sftTemplate != null) {
-			ftTemplate = new FSTTemplate(sftTemplate, minterms, idToMinterm, mintermToId);
+			ftTemplate = new FSTTemplate(sftTemplate, minterms, finite.idToMinterm, finite.mintermToId);
 		}
 		
 		// If stats are needed, write to filename
@@ -181,9 +439,9 @@ public class Driver {
 			br.write("States in target: " + target.stateCount() + "\n");
 			br.write("Transitions in source: " + source.getTransitionCount() + "\n");
 			br.write("Transitions in target: " + target.getTransitionCount() + "\n");
-			br.write("Transitions in sourceFinite: " + sourceFinite.getTransitionCount() + "\n");
-			br.write("Transitions in targetFinite: " + targetFinite.getTransitionCount() + "\n");
-			br.write("Size of alphabet: " + alphabetMap.size() + "\n");
+			br.write("Transitions in sourceFinite: " + finite.sourceFinite.getTransitionCount() + "\n");
+			br.write("Transitions in targetFinite: " + finite.targetFinite.getTransitionCount() + "\n");
+			br.write("Size of alphabet: " + finite.alphabetMap.size() + "\n");
 			br.write("Number of examples: " + examples.size() + "\n");
 			if (ftTemplate != null) {
 				br.write("Number of bad transitions localized: " + ftTemplate.getBadTransitions().size() + "\n");
@@ -195,89 +453,105 @@ public class Driver {
 		SFT<CharPred, CharFunc, Character> mySFT = null;
 		SFT<CharPred, CharFunc, Character> mySFT2 = null;
 		String witness = null;
+		String secondFailure = null; 	// the first solution is kept if the search for the second one fails
 		long solvingTime1 = 0;
 		long solvingTime2 = 0;
 		
-		long startTime = System.nanoTime();
-		ConstraintsSolver c1 = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, numStates, outputBound, examplesFinite, "mean", fraction, template, ftTemplate, null, idToMinterm, config, ba);
-		Pair<SFT<CharPred, CharFunc, Character>, Long> res = null;
+		long time1 = 0;
+		long time2 = 0;
+		double peakMemory = -1;
+		
+		/* CEGIS starts from a few examples (see SolutionEnumerator); only a config that encodes the examples can use it */
+		final boolean useCEGIS = cegis && (config == null || config.get(0));
+		final int initialExamples = useCEGIS ? CEGIS_INITIAL_EXAMPLES : 0;
+		
+		/* a cached result needs no Z3 at all */
+		String key = null;
+		Triple<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>, String> cached = null;
+		if (cache != null) {
+			key = ResultCache.mkKey(finite.sourceFinite, finite.targetTotal, finite.idToMinterm, finite.examplesFinite, numStates, outputBound, fraction, 
+					template, ftTemplate, config, initialExamples);
+			cached = cache.get(key);
+		}
 		
-		// Use ExecutorService to call mkConstraints in a new thread
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-		Callable<Pair<SFT<CharPred, CharFunc, Character>, Long>> call = () -> {
-			return c1.mkConstraints(null, false);
-		};
-		Future<Pair<SFT<CharPred, CharFunc, Character>, Long>> future = executor.submit(call);
+		if (cached != null) {
+			mySFT = cached.first;
+			mySFT2 = cached.second;
+			witness = cached.third;
+		} else {
+			HashMap<String, String> cfg = new HashMap<String, String>();
+			cfg.put("model", "true");
+			
+			/* the Context is closed when the solving is over, also after a timeout */
+			try (Context ctx = new Context(cfg)) {
+				long startTime = System.nanoTime();
+				long stopTime = startTime;
+				ConstraintsSolver c1 = new ConstraintsSolver(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, numStates, outputBound, finite.examplesFinite, "mean", fraction, template, ftTemplate, null, finite.idToMinterm, config, ba);
+				c1.setTimeout(SOLVE_TIMEOUT * 1000);
+				Pair<SFT<CharPred, CharFunc, Character>, Long> res = null;
+		
+				// Solve in a new thread, with a watchdog that interrupts Z3 at the time limit
+				/* Both solutions come from the same solver, the second one after blocking the first */
+				final SolutionEnumerator enumerator = new SolutionEnumerator(c1, source, initialExamples);
+				Callable<Pair<SFT<CharPred, CharFunc, Character>, Long>> call = () -> {
+					return enumerator.next(false);
+				};
 		
-		try {
-			res = future.get(300L, TimeUnit.SECONDS);
-		} catch (Exception e) {
-			System.out.println(e);
-			if (filename != null) {
-				BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
+				try {
+					res = runWithWatchdog(ctx, call, SOLVE_TIMEOUT);
+				} catch (Exception e) {
+					System.out.println(e);
+					if (filename != null) {
+						BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
 				
-				if (benchmarkName != null) {
-					br.write(benchmarkName + " failed because of exception: " + e.toString());
-					br.close();
+						if (benchmarkName != null) {
+							br.write(benchmarkName + " failed because of exception: " + e.toString());
+							br.close();
+						}
+					}
+					return null;
 				}
-			}
-			return null;
-		} finally {
-		    executor.shutdownNow();
-		}
 		
-		mySFT = res.first;
-		solvingTime1 = res.second;
+				mySFT = res.first;
+				solvingTime1 = res.second;
 	
-		long stopTime = System.nanoTime();
-		long time1 = (stopTime - startTime) / 1000000;
+				stopTime = System.nanoTime();
+				time1 = (stopTime - startTime) / 1000000;
 		
-		if (mySFT.getTransitions().size() != 0) { // if SAT
-			// Get second solution, if there is one
-			startTime = System.nanoTime();
-			ConstraintsSolver c2 = new ConstraintsSolver(ctx, sourceFinite, targetTotal, alphabetMap, numStates, outputBound, examplesFinite, "mean", fraction, template, ftTemplate, mySFT, idToMinterm, config, ba);
-			
-			// Again call mkConstraints in a separate thread
-			executor = Executors.newSingleThreadExecutor();
-			call = () -> {
-				return c2.mkConstraints(null, false);
-			};
-			future = executor.submit(call);
+				if (mySFT.getTransitions().size() != 0) { // if SAT
+					// Get second solution, if there is one
+					startTime = System.nanoTime();
 			
-			try {
-				res = future.get(300L, TimeUnit.SECONDS);
-			} catch (Exception e) {
-				if (filename != null) {
-					BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
-					
-					if (benchmarkName != null) {
-						br.write(benchmarkName + " failed because of exception: " + e.toString());
-						br.close();
+					// Again in a separate thread
+					try {
+						res = runWithWatchdog(ctx, call, SOLVE_TIMEOUT);
+						mySFT2 = res.first;
+						solvingTime2 = res.second;
+					} catch (Exception e) {
+						System.out.println(e);
+						secondFailure = e.toString();
 					}
-				return null;
+			
+					stopTime = System.nanoTime();
 				}
-			} finally {
-			    executor.shutdownNow();
+				time2 = (stopTime - startTime) / 1000000;
+				
+				peakMemory = c1.getPeakMemory();
 			}
-			
-			stopTime = System.nanoTime();
-			mySFT2 = res.first;
-			solvingTime2 = res.second;
 		}
-		long time2 = (stopTime - startTime) / 1000000;
 		
 		// Call minterm expansion
-		SFT<CharPred, CharFunc, Character> mySFTexpanded = SFTOperations.mintermExpansion(mySFT, idToMinterm);
+		SFT<CharPred, CharFunc, Character> mySFTexpanded = SFTOperations.mintermExpansion(mySFT, finite.idToMinterm);
 		SFT<CharPred, CharFunc, Character> mySFTrestricted = SFTOperations.mkAllStatesFinal(mySFTexpanded).domainRestriction(source, ba);
 		
 		SFT<CharPred, CharFunc, Character> mySFT2expanded = null;
 		SFT<CharPred, CharFunc, Character> mySFT2restricted = null;
 		if (mySFT2 != null) {
-			mySFT2expanded = SFTOperations.mintermExpansion(mySFT2, idToMinterm);
+			mySFT2expanded = SFTOperations.mintermExpansion(mySFT2, finite.idToMinterm);
 			mySFT2restricted = SFTOperations.mkAllStatesFinal(mySFT2expanded).domainRestriction(source, ba);
 		}
 		
-		if (mySFT2restricted != null) {
+		if (mySFT2restricted != null && cached == null) {
 			// Check equality of expanded transducers
 			if (!SFT.decide1equality(mySFTrestricted, mySFT2restricted, ba)) {
 				System.out.println("Not equiv");
@@ -295,6 +569,10 @@ public class Driver {
 			}
 		}
 		
+		if (cache != null && cached == null && secondFailure == null) {
+			cache.put(key, mySFT, mySFT2, witness);
+		}
+		
 		// If stats are needed, write to filename
 		if (filename != null) {
 			BufferedWriter br = new BufferedWriter(new FileWriter(new File(filename), true));
@@ -303,6 +581,8 @@ public class Driver {
 			if (mySFT2restricted != null) {
 				br.write("SFT2 solving time: " + solvingTime2 + "\n");
 			}
+			if (cached != null) br.write("Cached result\n");
+			else br.write("Peak Z3 memory (MB): " + peakMemory + "\n");
 			
 			for (Pair<String, String> example : examples) {
 	        	String exampleOutput = SFTOperations.getOutputString(mySFTrestricted, example.first);
@@ -339,6 +619,7 @@ public class Driver {
 				br.write("Output2: " + witnessOutput2 + "\n");
 			} else {
 				if (mySFT2restricted != null) br.write("Equivalent results");
+				else if (secondFailure != null) br.write("Second solution failed because of exception: " + secondFailure + "\n");
 				else br.write("No other solution\n");
 			}
 			
@@ -0,0 +1,140 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * The input strings of the examples as a trie. A deterministic transducer is in the same configuration (state,
+ * output produced so far) after the same input prefix, so all examples through a node share its run variable.
+ * The output produced so far must be a prefix of the output of every example through the node, so it is at
+ * most as long as their common prefix; each node keeps that bound together with the band of the examples.
+ */
+public class ExampleTrie {
+
+	public static class Node {
+		/* Fields/instance variables */
+		final int id;
+		final int depth; 		// input position
+		final Node parent;
+		final int input; 		// character read to reach this node, -1 for the root
+		final HashMap<Integer, Node> children;
+
+		/* output of one of the examples through this node; the others agree with it on the first lcp characters */
+		int[] output;
+		int lcp;
+
+		/* band of the output position after depth input characters, empty if low > high */
+		int low;
+		int high;
+
+		/* output of the example that ends here, null if none; conflict if two such examples disagree */
+		int[] finalOutput;
+		boolean conflict;
+
+		/* Constructor */
+		Node(int id, Node parent, int input) {
+			this.id = id;
+			this.depth = (parent == null) ? 0 : parent.depth + 1;
+			this.parent = parent;
+			this.input = input;
+			this.children = new HashMap<Integer, Node>();
+			this.low = 0;
+			this.high = 0;
+		}
+
+		public boolean isEmpty() {
+			return low > high;
+		}
+	}
+
+	/* Fields/instance variables */
+	int outputBound;
+	Node root;
+	List<Node> nodes;
+
+	/* Constructor */
+	public ExampleTrie(int outputBound) {
+		this.outputBound = outputBound;
+		this.root = new Node(0, null, -1);
+		this.nodes = new ArrayList<Node>();
+		this.nodes.add(root);
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	/*
+	 * Adds an example; returns the nodes that are new or whose bounds or final output changed, parents before
+	 * children, so that the constraints of an encoding built from the trie can be extended incrementally
+	 */
+	public List<Node> insert(int[] input, int[] output) {
+		List<Node> changed = new ArrayList<Node>();
+
+		Node node = root;
+		update(node, false, input.length, output, changed);
+		for (int i = 0; i < input.length; i++) {
+			Node child = node.children.get(input[i]);
+			boolean created = (child == null);
+			if (created) {
+				child = new Node(nodes.size(), node, input[i]);
+				node.children.put(input[i], child);
+				nodes.add(child);
+			}
+
+			update(child, created, input.length, output, changed);
+			node = child;
+		}
+
+		/* the example ends here */
+		if (node.finalOutput == null) {
+			node.finalOutput = output;
+			if (!changed.contains(node)) changed.add(node);
+		} else if (!node.conflict && !Arrays.equals(node.finalOutput, output)) {
+			node.conflict = true;
+			if (!changed.contains(node)) changed.add(node);
+		}
+
+		return changed;
+	}
+
+	/* Nodes on the path of input from the root, which must have been inserted */
+	public List<Node> path(int[] input) {
+		List<Node> path = new ArrayList<Node>();
+		Node node = root;
+		path.add(node);
+		for (int i = 0; i < input.length; i++) {
+			node = node.children.get(input[i]);
+			path.add(node);
+		}
+		return path;
+	}
+	
+	void update(Node node, boolean created, int inputLen, int[] output, List<Node> changed) {
+		int lcp = (node.output == null) ? output.length : commonPrefix(node.output, output, node.lcp);
+		int low = Math.max(node.low, output.length - (inputLen - node.depth) * outputBound);
+		int high = (node.parent == null) ? 0 : Math.min(lcp, node.parent.high + outputBound);
+
+		if (node.output == null) node.output = output;
+		if (created || lcp != node.lcp || low != node.low || high != node.high) {
+			node.lcp = lcp;
+			node.low = low;
+			node.high = high;
+			changed.add(node);
+		}
+	}
+
+	static int commonPrefix(int[] a, int[] b, int max) {
+		int len = Math.min(max, Math.min(a.length, b.length));
+		for (int i = 0; i < len; i++) {
+			if (a[i] != b[i]) return i;
+		}
+		return len;
+	}
+}
@@ -0,0 +1,104 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.sat4j.specs.TimeoutException;
+
+import automata.MintermIndex;
+import automata.fst.FSTMove;
+import automata.fst.FSTTemplate;
+import automata.sfa.SFA;
+import automata.sfa.SFAMove;
+import theory.BooleanAlgebraSubst;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import utilities.Pair;
+
+/*
+ * The values of d2 and d1 that a finite problem fixes or rules out before any solving, independent of the
+ * backend that encodes them (ConstraintsSolver and ConstraintsSAT): the transitions of the template and
+ * ftTemplate, and the outputs of the minterms. States and characters are the integers used by the encodings
+ * (characters through the alphabet map).
+ */
+class FixedChoices {
+	/* d2(q, a) = q', as { q, a, q' } */
+	List<int[]> d2;
+
+	/* d1(q, a, index) = b, as { q, a, index, b } */
+	List<int[]> d1;
+
+	/* Characters of single-character minterms, which cannot output the characters of multiple-character minterms */
+	List<Integer> singleChars;
+	List<Integer> multipleChars;
+
+	/* Constructor */
+	FixedChoices(int numStates, int outputBound, SFA<CharPred, Character> template, FSTTemplate ftTemplate,
+			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterms, HashMap<Character, Integer> alphabetMap,
+			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) throws TimeoutException {
+		this.d2 = new ArrayList<int[]>();
+		this.d1 = new ArrayList<int[]>();
+		this.singleChars = new ArrayList<Integer>();
+		this.multipleChars = new ArrayList<Integer>();
+
+		/* 'incompatible' minterms */
+		if (idToMinterms != null) {
+			MintermIndex mintermIndex = new MintermIndex(idToMinterms);
+
+			for (Character a : alphabetMap.keySet()) {
+				CharPred minterm = mintermIndex.getMinterm(a).first;
+				if (minterm.intervals.size() == 1) {
+					ImmutablePair<Character, Character> interval = minterm.intervals.get(0);
+					if (interval.right - interval.left == 0) {
+						singleChars.add(alphabetMap.get(a));
+					} else {
+						multipleChars.add(alphabetMap.get(a));
+					}
+				} else {
+					multipleChars.add(alphabetMap.get(a));
+				}
+			}
+			Collections.sort(singleChars);
+			Collections.sort(multipleChars);
+		}
+
+		/* the d2 relation (the successor states) of the template */
+		if (template != null) {
+			if (numStates != template.stateCount()) {
+				throw new IllegalArgumentException("If template is provided, then numStates must be the same as the number of states in the template");
+			}
+
+			for (SFAMove<CharPred, Character> transition : template.getTransitions()) {
+				d2.add(new int[] { transition.from, alphabetMap.get(transition.getWitness(ba)), transition.to });
+			}
+		}
+
+		/* the d1 and d2 relations of the good transitions of the ftTemplate, only d2 for its bad transitions */
+		if (ftTemplate != null) {
+			if (numStates != ftTemplate.getAut().stateCount()) {
+				throw new IllegalArgumentException("If ftTemplate is provided, then numStates must be the same as the number of states in the template");
+			}
+
+			for (FSTMove<Character, Character> transition : ftTemplate.getGoodTransitions()) {
+				int a = alphabetMap.get(transition.input);
+				d2.add(new int[] { transition.from, a, transition.to });
+
+				List<Character> outputs = transition.outputs;
+				if (outputs.size() > outputBound) {
+					throw new IllegalArgumentException("Template includes outputs larger than permitted output bound.");
+				}
+				for (int index = 0; index < outputs.size(); index++) {
+					d1.add(new int[] { transition.from, a, index, alphabetMap.get(outputs.get(index)) });
+				}
+			}
+
+			for (FSTMove<Character, Character> transition : ftTemplate.getBadTransitions()) {
+				d2.add(new int[] { transition.from, alphabetMap.get(transition.input), transition.to });
+			}
+		}
+	}
+}
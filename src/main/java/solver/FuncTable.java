@@ -0,0 +1,77 @@
+package solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.microsoft.z3.BitVecNum;
+import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.FuncInterp;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Sort;
+
+/*
+ * The interpretation of a bit-vector function in a model, read once through getFuncInterp: the entries as a map
+ * from the arguments to the value, and the else value for all other arguments. Z3 may give an else value that is
+ * not a numeral but an expression over the arguments; only then are single points evaluated in the model.
+ */
+public class FuncTable {
+	/* Fields/instance variables */
+	Model m;
+	FuncDecl<BitVecSort> f;
+	BitVecSort[] domain;
+	TermCache terms;
+
+	HashMap<List<Integer>, Integer> entries;
+	Integer elseValue; 	// null if the else value is not a numeral
+
+	/* Constructor */
+	public FuncTable(Model m, FuncDecl<BitVecSort> f, TermCache terms) {
+		this.m = m;
+		this.f = f;
+		this.terms = terms;
+		this.entries = new HashMap<List<Integer>, Integer>();
+
+		Sort[] sorts = f.getDomain();
+		this.domain = new BitVecSort[sorts.length];
+		for (int i = 0; i < sorts.length; i++) {
+			domain[i] = (BitVecSort) sorts[i];
+		}
+
+		/* a function that the model does not mention is evaluated point by point, with model completion */
+		FuncInterp<BitVecSort> interp = m.getFuncInterp(f);
+		if (interp == null) return;
+
+		for (FuncInterp.Entry<BitVecSort> entry : interp.getEntries()) {
+			Expr<?>[] args = entry.getArgs();
+			Integer[] key = new Integer[args.length];
+			for (int i = 0; i < args.length; i++) {
+				key[i] = ((BitVecNum) args[i]).getInt();
+			}
+			entries.put(Arrays.asList(key), ((BitVecNum) entry.getValue()).getInt());
+		}
+
+		Expr<BitVecSort> elseExpr = interp.getElse();
+		if (elseExpr instanceof BitVecNum) elseValue = ((BitVecNum) elseExpr).getInt();
+	}
+
+	/* f(args) in the model */
+	public int get(int... args) {
+		Integer[] key = new Integer[args.length];
+		for (int i = 0; i < args.length; i++) {
+			key[i] = args[i];
+		}
+
+		Integer value = entries.get(Arrays.asList(key));
+		if (value != null) return value;
+		if (elseValue != null) return elseValue;
+
+		Expr<?>[] nums = new Expr<?>[args.length];
+		for (int i = 0; i < args.length; i++) {
+			nums[i] = terms.num(args[i], domain[i]);
+		}
+		return ((BitVecNum) m.evaluate(terms.apply(f, nums), true)).getInt();
+	}
+}
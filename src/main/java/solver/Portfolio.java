@@ -0,0 +1,213 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.Context;
+
+import automata.sfa.SFA;
+import theory.BooleanAlgebraSubst;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import transducers.sft.SFT;
+import utilities.Pair;
+
+/*
+ * Portfolio search: several ConstraintsSolver instances, each on its own Z3 Context, try different
+ * configurations at the same time. The configurations are ordered by preference, and the result of a
+ * configuration is only accepted once every configuration before it is UNSAT. Configurations that can
+ * no longer win are stopped with Context.interrupt().
+ */
+public class Portfolio {
+
+	/* A configuration tried by one member of the portfolio */
+	public static class Configuration {
+		public final int numStates;
+		public final int outputBound;
+		public final int[] fraction;
+
+		public Configuration(int numStates, int outputBound, int[] fraction) {
+			this.numStates = numStates;
+			this.outputBound = outputBound;
+			this.fraction = fraction;
+		}
+
+		@Override
+		public String toString() {
+			return "(" + numStates + ", " + outputBound + ", " + fraction[0] + "/" + fraction[1] + ")";
+		}
+	}
+
+	/* Fields/instance variables */
+	SFA<CharPred, Character> source;
+	SFA<CharPred, Character> target;
+	HashMap<Character, Integer> alphabetMap;
+	List<Pair<String, String>> ioExamples;
+	Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterms;
+	BooleanAlgebraSubst<CharPred, CharFunc, Character> ba;
+	List<Configuration> configurations;
+
+	/* Per configuration: its Context while it is solving, and whether it has been stopped */
+	SearchSlots slots;
+
+	/* Constructor */
+	public Portfolio(SFA<CharPred, Character> source, SFA<CharPred, Character> target,
+			HashMap<Character, Integer> alphabetMap, List<Pair<String, String>> ioExamples,
+			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> minterms, List<Configuration> configurations,
+			BooleanAlgebraSubst<CharPred, CharFunc, Character> ba) {
+		this.source = source;
+		this.target = target;
+		this.alphabetMap = alphabetMap;
+		this.ioExamples = ioExamples;
+		this.idToMinterms = minterms;
+		this.configurations = configurations;
+		this.ba = ba;
+		this.slots = new SearchSlots(configurations.size());
+	}
+
+	/*
+	 * Configurations ordered by output bound, then by number of states, then by the order of fractions: every
+	 * number of states up to maxStates with output bound 1, then maxStates with each larger output bound. This is
+	 * the order in which runBasicAlgorithm tries the bounds when it re-encodes for each of them.
+	 */
+	public static List<Configuration> mkConfigurations(int maxStates, int maxOutputBound, List<int[]> fractions) {
+		List<Configuration> configurations = new ArrayList<Configuration>();
+
+		for (int outputBound = 1; outputBound <= maxOutputBound; outputBound++) {
+			int firstStates = (outputBound == 1) ? 1 : maxStates;
+			for (int numStates = firstStates; numStates <= maxStates; numStates++) {
+				for (int[] fraction : fractions) {
+					configurations.add(new Configuration(numStates, outputBound, fraction));
+				}
+			}
+		}
+
+		return configurations;
+	}
+
+	/*
+	 * Run the portfolio on numThreads threads. Returns the first configuration (in order) that is SAT
+	 * together with its transducer, or null if every configuration is UNSAT or the timeout (in seconds) expires
+	 */
+	public Pair<Configuration, SFT<CharPred, CharFunc, Character>> run(int numThreads, long timeout) throws InterruptedException {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("There must be at least one thread");
+		}
+
+		int n = configurations.size();
+		if (n == 0) return null;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, n));
+		CompletionService<Pair<Integer, SFT<CharPred, CharFunc, Character>>> completion =
+				new ExecutorCompletionService<Pair<Integer, SFT<CharPred, CharFunc, Character>>>(executor);
+
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+		for (int i = 0; i < n; i++) {
+			final int index = i;
+			completion.submit(() -> {
+				return new Pair<Integer, SFT<CharPred, CharFunc, Character>>(index, solve(index, deadline));
+			});
+		}
+
+		boolean[] done = new boolean[n];
+		List<SFT<CharPred, CharFunc, Character>> results = new ArrayList<SFT<CharPred, CharFunc, Character>>();
+		for (int i = 0; i < n; i++) {
+			results.add(null);
+		}
+
+		int next = 0; 	// first configuration that is not known to be UNSAT
+		try {
+			for (int received = 0; received < n; received++) {
+				Future<Pair<Integer, SFT<CharPred, CharFunc, Character>>> future =
+						completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (future == null) { 	// timeout
+					return null;
+				}
+
+				Pair<Integer, SFT<CharPred, CharFunc, Character>> res;
+				try {
+					res = future.get();
+				} catch (ExecutionException e) {
+					/* A configuration that failed cannot be decided; the portfolio cannot claim minimality past it */
+					System.err.println(e);
+					return null;
+				}
+
+				int index = res.first;
+				done[index] = true;
+				results.set(index, res.second);
+
+				/* Configurations after a SAT one can no longer win */
+				if (res.second != null) {
+					slots.stopFrom(index + 1);
+				}
+
+				while (next < n && done[next] && results.get(next) == null) {
+					next++;
+				}
+
+				if (next == n) {
+					return null;
+				}
+				if (done[next]) {
+					return new Pair<Configuration, SFT<CharPred, CharFunc, Character>>(configurations.get(next), results.get(next));
+				}
+			}
+
+			return null;
+		} finally {
+			slots.stopFrom(0);
+			executor.shutdownNow();
+			slots.awaitStopped(Driver.WATCHDOG_GRACE);
+		}
+	}
+
+	/*
+	 * Solve a single configuration on a fresh Context; returns null if UNSAT or stopped. The check is limited to
+	 * what is left until deadline (in System.nanoTime), so that it also ends if no interrupt reaches it.
+	 */
+	SFT<CharPred, CharFunc, Character> solve(int index, long deadline) throws TimeoutException {
+		Configuration config = configurations.get(index);
+
+		HashMap<String, String> cfg = new HashMap<String, String>();
+		cfg.put("model", "true");
+		Context ctx = new Context(cfg);
+
+		try {
+			if (!slots.enter(index, ctx)) return null;
+
+			ConstraintsSolver c = new ConstraintsSolver(ctx, source, target, alphabetMap, config.numStates, config.outputBound,
+					ioExamples, "mean", config.fraction, null, null, null, idToMinterms, null, ba);
+			c.setTimeout(SearchSlots.remainingMillis(deadline));
+			c.encode();
+
+			if (slots.isStopped(index)) return null;
+			SFT<CharPred, CharFunc, Character> mySFT;
+			try {
+				mySFT = c.constructSFT(false).first;
+			} catch (TimeoutException e) {
+				if (slots.isStopped(index)) return null; 	// the check was interrupted by stopFrom
+				throw e;
+			}
+
+			if (slots.isStopped(index)) return null;
+
+			if (mySFT.getTransitions().size() == 0) return null;
+			return mySFT;
+		} finally {
+			slots.leave(index);
+			ctx.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.BoolExpr;
+
+import utilities.Pair;
+
+/*
+ * Runs several backends on the same check at the same time and returns the answer of the first one that
+ * finishes; the others are interrupted. A backend that fails or gives up does not win, the race then waits
+ * for the others. The check only returns once every backend has stopped, so that the Context is free again.
+ */
+public class RaceBackend implements SolverBackend {
+	/* Fields/instance variables */
+	SolverBackend[] backends;
+
+	/* Backend that answered the last check */
+	volatile SolverBackend winner;
+
+	/* Constructor */
+	public RaceBackend(SolverBackend... backends) {
+		this.backends = backends;
+	}
+
+	public Callable<TransducerModel> prepare(ConstraintsSolver c, BoolExpr... assumptions) {
+		final List<Callable<TransducerModel>> tasks = new ArrayList<Callable<TransducerModel>>();
+		for (SolverBackend backend : backends) {
+			tasks.add(backend.prepare(c, assumptions));
+		}
+
+		return () -> {
+			return race(tasks);
+		};
+	}
+
+	public void interrupt() {
+		for (SolverBackend backend : backends) {
+			backend.interrupt();
+		}
+	}
+
+	public SolverBackend getWinner() {
+		return winner;
+	}
+
+	TransducerModel race(List<Callable<TransducerModel>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		CompletionService<Pair<Integer, TransducerModel>> completion = new ExecutorCompletionService<Pair<Integer, TransducerModel>>(executor);
+
+		for (int i = 0; i < tasks.size(); i++) {
+			final int index = i;
+			final Callable<TransducerModel> task = tasks.get(i);
+			completion.submit(() -> {
+				return new Pair<Integer, TransducerModel>(index, task.call());
+			});
+		}
+		executor.shutdown();
+
+		winner = null;
+		Exception failure = null;
+		try {
+			for (int received = 0; received < tasks.size(); received++) {
+				try {
+					Pair<Integer, TransducerModel> res = completion.take().get();
+					winner = backends[res.first];
+					return res.second;
+				} catch (ExecutionException e) {
+					failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+			}
+
+			throw (failure != null) ? failure : new TimeoutException("No backend answered");
+		} finally {
+			/* interrupt until every backend has stopped; an interrupt can come before the check starts */
+			do {
+				interrupt();
+			} while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.sat4j.specs.TimeoutException;
+
+import automata.fst.FSTMove;
+import automata.fst.FSTTemplate;
+import automata.sfa.SFA;
+import automata.sfa.SFAMove;
+import theory.characters.CharConstant;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+import transducers.sft.SFTMove;
+import utilities.Pair;
+import utilities.Triple;
+
+/*
+ * On-disk cache of the results of Driver.runAlgorithm, one file per problem in a directory. A problem is keyed by
+ * the SHA-256 hash of a canonical text of the finite source and target (states renumbered in BFS order), the
+ * minterms, the finite examples, the bounds, the search options and the templates. A result is the two finite transducers that were
+ * found, before minterm expansion, and the witness on which they differ. At most maxEntries results are kept;
+ * the least recently used ones are evicted, by file modification time, which a hit updates.
+ */
+public class ResultCache {
+	/* Fields/instance variables */
+	File dir;
+	int maxEntries;
+
+	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
+
+	/* Constructor */
+	public ResultCache(String dir, int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("The cache must hold at least one result");
+		}
+
+		this.dir = new File(dir);
+		this.maxEntries = maxEntries;
+		this.dir.mkdirs();
+	}
+
+	/*
+	 * Key of a problem as runAlgorithm states it to the ConstraintsSolver and SolutionEnumerator: initialExamples
+	 * is the number of examples that CEGIS starts with, 0 without CEGIS, as CEGIS can find other solutions
+	 */
+	public static String mkKey(SFA<CharPred, Character> sourceFinite, SFA<CharPred, Character> targetFinite,
+			Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm, List<Pair<String, String>> examplesFinite,
+			int numStates, int outputBound, int[] fraction, SFA<CharPred, Character> template, FSTTemplate ftTemplate,
+			ArrayList<Boolean> config, int initialExamples) throws TimeoutException {
+		StringBuilder text = new StringBuilder();
+
+		text.append("source\n");
+		appendSFA(text, sourceFinite);
+		text.append("target\n");
+		appendSFA(text, targetFinite);
+
+		/* minterms by the character that stands for them */
+		text.append("minterms\n");
+		List<String> minterms = new ArrayList<String>();
+		if (idToMinterm != null) {
+			for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
+				minterms.add(entry.getKey() + " " + entry.getValue().first + " " + entry.getValue().second);
+			}
+		}
+		Collections.sort(minterms);
+		for (String minterm : minterms) {
+			text.append(minterm).append("\n");
+		}
+
+		/* examples in order, with lengths so that no two lists have the same text */
+		text.append("examples\n");
+		for (Pair<String, String> example : examplesFinite) {
+			text.append(example.first.length()).append(":").append(example.first).append(" ");
+			text.append(example.second.length()).append(":").append(example.second).append("\n");
+		}
+
+		text.append("bounds ").append(numStates).append(" ").append(outputBound).append(" ").append(Arrays.toString(fraction)).append("\n");
+		text.append("config ").append(config).append("\n");
+		text.append("cegis ").append(initialExamples).append("\n");
+
+		/* template states are the states of the transducer, so they keep their numbers */
+		text.append("template\n");
+		if (template != null) {
+			List<String> moves = new ArrayList<String>();
+			for (SFAMove<CharPred, Character> move : template.getTransitions()) {
+				moves.add(move.from + " " + (int) move.getWitness(ba) + " " + move.to);
+			}
+			Collections.sort(moves);
+			text.append(String.join("\n", moves)).append("\n");
+		}
+
+		text.append("ftTemplate\n");
+		if (ftTemplate != null) {
+			appendFSTMoves(text, "good", ftTemplate.getGoodTransitions());
+			appendFSTMoves(text, "bad", ftTemplate.getBadTransitions());
+		}
+
+		return sha256(text.toString());
+	}
+
+	/* Transitions and final states, with the states numbered in BFS order from the initial state */
+	static void appendSFA(StringBuilder text, SFA<CharPred, Character> aut) throws TimeoutException {
+		Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		ids.put(aut.getInitialState(), 0);
+		queue.add(aut.getInitialState());
+
+		List<Integer> order = new ArrayList<Integer>();
+		while (!queue.isEmpty()) {
+			Integer state = queue.poll();
+			order.add(state);
+
+			List<Pair<Character, Integer>> moves = new ArrayList<Pair<Character, Integer>>();
+			for (SFAMove<CharPred, Character> move : aut.getTransitionsFrom(state)) {
+				moves.add(new Pair<Character, Integer>(move.getWitness(ba), move.to));
+			}
+			Collections.sort(moves, Comparator.comparing((Pair<Character, Integer> move) -> move.first));
+
+			for (Pair<Character, Integer> move : moves) {
+				if (!ids.containsKey(move.second)) {
+					ids.put(move.second, ids.size());
+					queue.add(move.second);
+				}
+				text.append(ids.get(state)).append(" ").append((int) move.first).append(" ").append(ids.get(move.second)).append("\n");
+			}
+		}
+
+		text.append("final");
+		for (Integer state : order) {
+			if (aut.isFinalState(state)) text.append(" ").append(ids.get(state));
+		}
+		text.append("\n");
+	}
+
+	static void appendFSTMoves(StringBuilder text, String name, Iterable<FSTMove<Character, Character>> transitions) {
+		List<String> moves = new ArrayList<String>();
+		for (FSTMove<Character, Character> move : transitions) {
+			moves.add(move.from + " " + (int) move.input + " " + move.outputs + " " + move.to);
+		}
+		Collections.sort(moves);
+		text.append(name).append("\n").append(String.join("\n", moves)).append("\n");
+	}
+
+	static String sha256(String text) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); 	// every JVM has SHA-256
+		}
+	}
+
+	/* The two transducers (the second may be null) and the witness of key, or null if not cached */
+	public synchronized Triple<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>, String> get(String key) throws TimeoutException {
+		File file = new File(dir, key);
+		if (!file.isFile()) return null;
+
+		try {
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+			Triple<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>, String> result = parse(lines);
+			file.setLastModified(System.currentTimeMillis());
+			return result;
+		} catch (IOException | RuntimeException e) {
+			/* a result that cannot be read is solved again */
+			file.delete();
+			return null;
+		}
+	}
+
+	public synchronized void put(String key, SFT<CharPred, CharFunc, Character> first, SFT<CharPred, CharFunc, Character> second,
+			String witness) throws TimeoutException, IOException {
+		StringBuilder text = new StringBuilder();
+		text.append("witness ").append(witness == null ? "-" : encodeChars(witness)).append("\n");
+		appendSFT(text, first);
+		appendSFT(text, second);
+
+		/* written to a temporary file first, so that a reader never sees half a result */
+		File tmp = File.createTempFile(key, ".tmp", dir);
+		Files.write(tmp.toPath(), text.toString().getBytes(StandardCharsets.US_ASCII));
+		Files.move(tmp.toPath(), new File(dir, key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		evict();
+	}
+
+	/* Delete the least recently used results until at most maxEntries are left */
+	void evict() {
+		File[] files = dir.listFiles((File file) -> file.isFile() && !file.getName().endsWith(".tmp"));
+		if (files == null || files.length <= maxEntries) return;
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length - maxEntries; i++) {
+			files[i].delete();
+		}
+	}
+
+	/*
+	 * A finite transducer as "sft <initial> <transitions>" followed by one line per transition: from, to, the
+	 * input character and the output characters, characters as numbers; "none" for null
+	 */
+	static void appendSFT(StringBuilder text, SFT<CharPred, CharFunc, Character> sft) throws TimeoutException {
+		if (sft == null) {
+			text.append("none\n");
+			return;
+		}
+
+		List<SFTInputMove<CharPred, CharFunc, Character>> moves = new ArrayList<SFTInputMove<CharPred, CharFunc, Character>>(
+				sft.getInputMovesFrom(sft.getStates()));
+		text.append("sft ").append(sft.getInitialState()).append(" ").append(moves.size()).append("\n");
+
+		for (SFTInputMove<CharPred, CharFunc, Character> move : moves) {
+			text.append(move.from).append(" ").append(move.to).append(" ").append((int) move.getWitness(ba));
+			for (CharFunc f : move.outputFunctions) {
+				text.append(" ").append((int) ((CharConstant) f).c); 	// finite transducers only output constants
+			}
+			text.append("\n");
+		}
+	}
+
+	static Triple<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>, String> parse(List<String> lines) throws TimeoutException {
+		int[] next = new int[] { 0 };
+
+		String witness = lines.get(next[0]++).substring("witness ".length());
+		witness = witness.equals("-") ? null : decodeChars(witness);
+
+		SFT<CharPred, CharFunc, Character> first = parseSFT(lines, next);
+		SFT<CharPred, CharFunc, Character> second = parseSFT(lines, next);
+
+		return new Triple<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>, String>(first, second, witness);
+	}
+
+	static SFT<CharPred, CharFunc, Character> parseSFT(List<String> lines, int[] next) throws TimeoutException {
+		String[] header = lines.get(next[0]++).split(" ");
+		if (header[0].equals("none")) return null;
+
+		int initial = Integer.parseInt(header[1]);
+		int count = Integer.parseInt(header[2]);
+
+		Set<SFTMove<CharPred, CharFunc, Character>> transitions = new HashSet<SFTMove<CharPred, CharFunc, Character>>();
+		for (int i = 0; i < count; i++) {
+			String[] fields = lines.get(next[0]++).split(" ");
+			int from = Integer.parseInt(fields[0]);
+			int to = Integer.parseInt(fields[1]);
+			Character input = (char) Integer.parseInt(fields[2]);
+
+			List<CharFunc> outputFunc = new ArrayList<CharFunc>();
+			for (int j = 3; j < fields.length; j++) {
+				outputFunc.add(new CharConstant((char) Integer.parseInt(fields[j])));
+			}
+			transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(from, to, new CharPred(input), outputFunc));
+		}
+
+		return SFT.MkSFT(transitions, initial, new HashMap<Integer, Set<List<Character>>>(), ba);
+	}
+
+	static String encodeChars(String str) {
+		List<String> codes = new ArrayList<String>();
+		for (int i = 0; i < str.length(); i++) {
+			codes.add(String.valueOf((int) str.charAt(i)));
+		}
+		return String.join(",", codes);
+	}
+
+	static String decodeChars(String codes) {
+		if (codes.isEmpty()) return "";
+		
+		StringBuilder str = new StringBuilder();
+		for (String code : codes.split(",")) {
+			str.append((char) Integer.parseInt(code));
+		}
+		return str.toString();
+	}
+}
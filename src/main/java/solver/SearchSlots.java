@@ -0,0 +1,84 @@
+package solver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.Context;
+
+/*
+ * Bookkeeping of the parallel searches of Portfolio and CubeAndConquer, each on its own Context: per search, its
+ * Context while it is solving and whether it has been stopped. Context.interrupt() only stops a check that is
+ * already running, and a search can be stopped just before its check starts, so awaitStopped keeps interrupting
+ * the stopped searches until they have left their Contexts.
+ */
+class SearchSlots {
+	/* Fields/instance variables */
+	Context[] contexts;
+	boolean[] stopped;
+
+	/* Constructor */
+	SearchSlots(int n) {
+		this.contexts = new Context[n];
+		this.stopped = new boolean[n];
+	}
+
+	/* Search index starts solving on ctx; false if it has been stopped already */
+	synchronized boolean enter(int index, Context ctx) {
+		if (stopped[index]) return false;
+		contexts[index] = ctx;
+		return true;
+	}
+
+	/* Search index no longer uses its Context */
+	synchronized void leave(int index) {
+		contexts[index] = null;
+	}
+
+	synchronized boolean isStopped(int index) {
+		return stopped[index];
+	}
+
+	/* Stop the searches from index onwards */
+	synchronized void stopFrom(int index) {
+		for (int i = index; i < stopped.length; i++) {
+			stopped[i] = true;
+			if (contexts[i] != null) {
+				contexts[i].interrupt();
+			}
+		}
+	}
+
+	/* Interrupt the stopped searches that are still solving */
+	synchronized boolean interruptStopped() {
+		boolean solving = false;
+		for (int i = 0; i < stopped.length; i++) {
+			if (stopped[i] && contexts[i] != null) {
+				contexts[i].interrupt();
+				solving = true;
+			}
+		}
+		return solving;
+	}
+
+	/*
+	 * Interrupt the stopped searches every 100 ms until none of them is solving, for at most grace seconds;
+	 * returns whether they all stopped. A search that is still in Java code (e.g. encoding) when the time is up is
+	 * left to stop by itself at its next check, as its solver timeout ends it anyway.
+	 */
+	boolean awaitStopped(long grace) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(grace);
+		while (interruptStopped()) {
+			if (System.nanoTime() - deadline >= 0) return false;
+			Thread.sleep(100);
+		}
+		return true;
+	}
+
+	/* Milliseconds left until deadline (in System.nanoTime); throws TimeoutException if there are none */
+	static long remainingMillis(long deadline) throws TimeoutException {
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if (remaining <= 0) throw new TimeoutException("No time left before the deadline");
+		return remaining;
+	}
+}
@@ -0,0 +1,106 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sat4j.specs.TimeoutException;
+
+import automata.SFTOperations;
+import automata.sfa.SFA;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+import transducers.sft.SFT;
+import utilities.Pair;
+
+/*
+ * Enumerates distinct solutions of a ConstraintsSolver on the same solver: after each candidate a blocking clause
+ * over d2, out_len and d1 is added (blockSolution) and the solver is checked again, keeping what it learned.
+ * Candidates that are equivalent to an earlier solution after minterm expansion, on the inputs of domain, are
+ * blocked and skipped.
+ */
+public class SolutionEnumerator {
+	/* Fields/instance variables */
+	ConstraintsSolver c;
+	SFA<CharPred, Character> domain;
+	int initialExamples; 	// CEGIS (see mkConstraintsCEGIS) if > 0
+
+	boolean encoded;
+
+	/* Solutions so far, expanded and restricted to domain */
+	List<SFT<CharPred, CharFunc, Character>> found;
+
+	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
+
+	/* Constructors */
+	public SolutionEnumerator(ConstraintsSolver c, SFA<CharPred, Character> domain) {
+		this(c, domain, 0);
+	}
+
+	/* domain is the (non-finite) source, or null for the source of c; the constraints are encoded by next */
+	public SolutionEnumerator(ConstraintsSolver c, SFA<CharPred, Character> domain, int initialExamples) {
+		this.c = c;
+		this.domain = (domain != null) ? domain : c.source;
+		this.initialExamples = initialExamples;
+		this.encoded = false;
+		this.found = new ArrayList<SFT<CharPred, CharFunc, Character>>();
+	}
+
+	/*
+	 * The next solution (over the finite alphabet) and the solving time of all candidates checked for it; the
+	 * SFT has no transitions if there are no more solutions
+	 */
+	public Pair<SFT<CharPred, CharFunc, Character>, Long> next(boolean debug) throws TimeoutException {
+		if (!encoded) {
+			if (initialExamples > 0) c.encodeCEGIS(initialExamples);
+			else c.encode();
+			encoded = true;
+		}
+
+		long solvingTime = 0;
+		while (true) {
+			Pair<SFT<CharPred, CharFunc, Character>, Long> res = (c.pendingExamples != null) ? c.solveCEGIS(debug) : c.constructSFT(debug);
+			solvingTime += res.second;
+
+			SFT<CharPred, CharFunc, Character> candidate = res.first;
+			if (candidate.getTransitions().isEmpty()) return new Pair<SFT<CharPred, CharFunc, Character>, Long>(candidate, solvingTime);
+
+			c.blockSolution(candidate);
+
+			SFT<CharPred, CharFunc, Character> restricted = restrict(candidate);
+			boolean duplicate = false;
+			for (SFT<CharPred, CharFunc, Character> earlier : found) {
+				if (SFT.decide1equality(earlier, restricted, ba)) {
+					duplicate = true;
+					break;
+				}
+			}
+
+			if (!duplicate) {
+				found.add(restricted);
+				return new Pair<SFT<CharPred, CharFunc, Character>, Long>(candidate, solvingTime);
+			}
+			if (debug) System.out.println("Skipping a solution equivalent to an earlier one");
+		}
+	}
+
+	/* Up to k more solutions; fewer if the solver runs out */
+	public List<SFT<CharPred, CharFunc, Character>> next(int k, boolean debug) throws TimeoutException {
+		List<SFT<CharPred, CharFunc, Character>> solutions = new ArrayList<SFT<CharPred, CharFunc, Character>>();
+		while (solutions.size() < k) {
+			SFT<CharPred, CharFunc, Character> solution = next(debug).first;
+			if (solution.getTransitions().isEmpty()) break;
+			solutions.add(solution);
+		}
+
+		return solutions;
+	}
+
+	/* The candidate as Driver compares solutions: minterms expanded, all states final and restricted to domain */
+	SFT<CharPred, CharFunc, Character> restrict(SFT<CharPred, CharFunc, Character> candidate) throws TimeoutException {
+		SFT<CharPred, CharFunc, Character> expanded = candidate;
+		if (c.idToMinterms != null) expanded = SFTOperations.mintermExpansion(candidate, c.idToMinterms);
+
+		return SFTOperations.mkAllStatesFinal(expanded).domainRestriction(domain, ba);
+	}
+}
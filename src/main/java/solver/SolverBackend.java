@@ -0,0 +1,19 @@
+package solver;
+
+import java.util.concurrent.Callable;
+
+import com.microsoft.z3.BoolExpr;
+
+/*
+ * A solver that checks the constraints of a ConstraintsSolver. A check has two phases: prepare runs on the
+ * calling thread and is the only phase that may build terms in the Context of the ConstraintsSolver; the task
+ * it returns does the actual check, possibly on another thread. The task returns the values of d2, out_len
+ * and d1, or null if the constraints are UNSAT, and throws a TimeoutException if the solver gives up.
+ */
+public interface SolverBackend {
+	/* Prepare a check of the constraints of c under the assumptions */
+	Callable<TransducerModel> prepare(ConstraintsSolver c, BoolExpr... assumptions);
+
+	/* Stop the check that is running, if any */
+	void interrupt();
+}
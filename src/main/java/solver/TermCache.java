@@ -0,0 +1,105 @@
+package solver;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.microsoft.z3.BitVecNum;
+import com.microsoft.z3.BitVecSort;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Sort;
+
+/*
+ * Hash-consed numerals and function applications of a single Context. An encoder keeps one cache for all
+ * of its encode phases, so that every numeral and every application f(args) is built once through JNI.
+ * Applications are keyed by the identity of the FuncDecl and of the arguments, which is stable as long as
+ * the arguments themselves come from the cache.
+ */
+public class TermCache {
+	/* Fields/instance variables */
+	Context ctx;
+	Map<Sort, HashMap<Integer, BitVecNum>> numerals;
+	HashMap<Application, Expr<?>> applications;
+
+	/* Key of an application: a FuncDecl and its arguments, compared by identity */
+	static class Application {
+		final Object[] parts;
+		final int hash;
+
+		Application(FuncDecl<?> f, Expr<?>[] args) {
+			this.parts = new Object[args.length + 1];
+			this.parts[0] = f;
+			System.arraycopy(args, 0, parts, 1, args.length);
+
+			int h = 1;
+			for (Object o : parts) {
+				h = 31 * h + System.identityHashCode(o);
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Application)) return false;
+			Object[] other = ((Application) o).parts;
+			if (other.length != parts.length) return false;
+
+			for (int i = 0; i < parts.length; i++) {
+				if (other[i] != parts[i]) return false;
+			}
+			return true;
+		}
+	}
+
+	/* Constructor */
+	public TermCache(Context ctx) {
+		this.ctx = ctx;
+		this.numerals = new IdentityHashMap<Sort, HashMap<Integer, BitVecNum>>();
+		this.applications = new HashMap<Application, Expr<?>>();
+	}
+
+	/* The numeral value of sort s */
+	public BitVecNum num(int value, BitVecSort s) {
+		HashMap<Integer, BitVecNum> sortNumerals = numerals.get(s);
+		if (sortNumerals == null) {
+			sortNumerals = new HashMap<Integer, BitVecNum>();
+			numerals.put(s, sortNumerals);
+		}
+
+		BitVecNum num = sortNumerals.get(value);
+		if (num == null) {
+			num = (BitVecNum) ctx.mkNumeral(value, s);
+			sortNumerals.put(value, num);
+		}
+		return num;
+	}
+
+	/* The application f(args) */
+	@SuppressWarnings("unchecked")
+	public <R extends Sort> Expr<R> apply(FuncDecl<R> f, Expr<?>... args) {
+		Application key = new Application(f, args);
+
+		Expr<R> app = (Expr<R>) applications.get(key);
+		if (app == null) {
+			app = f.apply(args);
+			applications.put(key, app);
+		}
+		return app;
+	}
+
+	/* Number of cached terms, for statistics */
+	public int size() {
+		int size = applications.size();
+		for (HashMap<Integer, BitVecNum> sortNumerals : numerals.values()) {
+			size += sortNumerals.size();
+		}
+		return size;
+	}
+}
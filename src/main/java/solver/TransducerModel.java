@@ -0,0 +1,16 @@
+package solver;
+
+/*
+ * The values of d2, out_len and d1 in a satisfying assignment, independent of the backend that found it.
+ * States and characters are the integers used by the encodings (characters through the alphabet map).
+ */
+public interface TransducerModel {
+	/* d2(q, a): successor state */
+	int d2(int q, int a);
+
+	/* out_len(q, a): length of the output */
+	int outLen(int q, int a);
+
+	/* d1(q, a, index): output character at position index */
+	int d1(int q, int a, int index);
+}
@@ -0,0 +1,31 @@
+package solver;
+
+import java.util.concurrent.Callable;
+
+import org.sat4j.specs.TimeoutException;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Status;
+
+/* Checks the constraints with the Z3 solver of the ConstraintsSolver itself */
+public class Z3Backend implements SolverBackend {
+	/* Context of the check that is running, to interrupt it */
+	volatile Context ctx;
+
+	public Callable<TransducerModel> prepare(final ConstraintsSolver c, final BoolExpr... assumptions) {
+		ctx = c.ctx;
+
+		return () -> {
+			Status status = c.solver.check(assumptions);
+			if (status == Status.SATISFIABLE) return c.z3Model(c.solver.getModel());
+			if (status == Status.UNSATISFIABLE) return null;
+			throw new TimeoutException("z3: " + c.solver.getReasonUnknown());
+		};
+	}
+
+	public void interrupt() {
+		Context current = ctx;
+		if (current != null) current.interrupt();
+	}
+}
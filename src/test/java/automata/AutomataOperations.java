@@ -2,7 +2,14 @@ package automata;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -12,11 +19,18 @@ import java.util.Set;
 
 import org.sat4j.specs.TimeoutException;
 
+import automata.fsa.CompiledFSA;
+import automata.fsa.FSA;
+import automata.fsa.FSAMove;
+import automata.fst.CompiledFST;
+import automata.fst.FST;
+import automata.fst.FSTMove;
 import automata.sfa.SFA;
 import automata.sfa.SFAInputMove;
 import automata.sfa.SFAMove;
 import theory.characters.CharConstant;
 import theory.characters.CharFunc;
+import theory.characters.CharOffset;
 import theory.characters.CharPred;
 import theory.intervals.UnaryCharIntervalSolver;
 import transducers.sft.SFT;
@@ -143,7 +157,130 @@ private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 		System.out.println(newSFA.toDotString(ba));
 	}
 	
-	public static void main(String[] args) throws TimeoutException {
+	public static void compiledFSTTest() {
+		List<FSTMove<Character, Character>> transitions = new LinkedList<FSTMove<Character, Character>>();
+		transitions.add(new FSTMove<Character, Character>(0, 1, 'a', Arrays.asList('b')));
+		transitions.add(new FSTMove<Character, Character>(1, 0, 'a', Arrays.asList('c', 'c')));
+		transitions.add(new FSTMove<Character, Character>(1, 1, 'b', new ArrayList<Character>()));
+		FST<Character, Character> fst = FST.MkFST(transitions, 0, Arrays.asList(1));
+		CompiledFST compiled = CompiledFST.compile(fst);
+		
+		for (String input : Arrays.asList("", "a", "aa", "abba", "aba", "ca")) {
+			List<Character> inputs = new ArrayList<Character>();
+			for (char c : input.toCharArray()) inputs.add(c);
+			
+			StringBuilder expected = new StringBuilder();
+			for (Character c : fst.outputOn(inputs)) expected.append(c);
+			assertTrue(compiled.outputOn(input).equals(expected.toString()));
+		}
+		
+		StringBuilder out = new StringBuilder();
+		int state = compiled.transduce("ab", out);
+		assertTrue(compiled.isFinal(state) && compiled.getStateId(state) == 1);
+		
+		List<FSAMove<Character>> moves = new LinkedList<FSAMove<Character>>();
+		moves.add(new FSAMove<Character>(0, 1, 'a'));
+		moves.add(new FSAMove<Character>(1, 1, 'b'));
+		CompiledFSA compiledFSA = CompiledFSA.compile(FSA.MkFSA(moves, 0, Arrays.asList(1)));
+		assertTrue(compiledFSA.accepts("abb"));
+		assertTrue(!compiledFSA.accepts("ba"));
+		assertTrue(!compiledFSA.accepts(""));
+	}
+	
+	public static void intervalIndexTest() throws TimeoutException {
+		List<CharPred> guards = Arrays.asList(new CharPred('a', 'c'), ba.MkOr(new CharPred('e'), new CharPred('x', 'z')));
+		IntervalIndex<Integer> index = IntervalIndex.build(guards, Arrays.asList(1, 2));
+		assertTrue(index.get('a') == 1 && index.get('c') == 1);
+		assertTrue(index.get('e') == 2 && index.get('y') == 2);
+		assertTrue(index.get('d') == null && index.get('A') == null && index.get('{') == null);
+		
+		guards = Arrays.asList(new CharPred('a', 'c'), new CharPred('c', 'd'));
+		assertTrue(IntervalIndex.build(guards, Arrays.asList(1, 2)) == null);
+	}
+	
+	public static void mintermIndexTest() throws TimeoutException {
+		Map<CharPred, Pair<CharPred, ArrayList<Integer>>> idToMinterm = SFA.MkFiniteSFA(mySFA01, mySFA02, ba).third;
+		MintermIndex index = new MintermIndex(idToMinterm);
+		
+		for (char c = 'A'; c <= 'z'; c++) {
+			assertTrue(index.getMinterm(c) == SFAOperations.findSatisfyingMinterm(c, idToMinterm));
+		}
+		
+		String str = "abcab";
+		StringBuilder linear = new StringBuilder();
+		for (char c : str.toCharArray()) {
+			for (Map.Entry<CharPred, Pair<CharPred, ArrayList<Integer>>> entry : idToMinterm.entrySet()) {
+				if (entry.getValue().first.isSatisfiedBy(c)) linear.append(ba.generateWitness(entry.getKey()));
+			}
+		}
+		assertTrue(SFAOperations.finitizeStringMinterms(str, index, ba).equals(linear.toString()));
+	}
+	
+	public static void sftStreamTest() throws TimeoutException, IOException {
+		for (String input : Arrays.asList("", "a", "aaaaa", "abab")) {
+			StringWriter out = new StringWriter();
+			boolean accepted = SFTStream.transduce(mySFT01, new StringReader(input), out, 2);
+			assertTrue(out.toString().equals(SFTOperations.getOutputString(mySFT01, input)));
+			assertTrue(accepted);
+		}
+	}
+	
+	public static void transduceFileTest() throws TimeoutException, IOException {
+		String input = "aabaa";
+		Path in = Files.createTempFile("input", "");
+		Path out = Files.createTempFile("output", "");
+		Files.write(in, input.getBytes(StandardCharsets.UTF_8));
+		
+		assertTrue(SFTStream.transduceFile(mySFT01, in, out, StandardCharsets.UTF_8, 6));
+		String output = new String(Files.readAllBytes(out), StandardCharsets.UTF_8);
+		assertTrue(output.equals(SFTOperations.getOutputString(mySFT01, input)));
+		
+		assertTrue(SFTStream.transduceFile(mySFT01, in, out, StandardCharsets.ISO_8859_1));
+		output = new String(Files.readAllBytes(out), StandardCharsets.ISO_8859_1);
+		assertTrue(output.equals(SFTOperations.getOutputString(mySFT01, input)));
+		
+		Files.delete(in);
+		Files.delete(out);
+	}
+	
+	/* 
+	 * Characters of 2, 3 and 4 bytes in UTF-8 (the last one a surrogate pair) straddle the region boundaries, 
+	 * read with the smallest chunks and regions; smaller ones cannot hold a surrogate pair and are rejected
+	 */
+	public static void transduceFileRegionsTest() throws TimeoutException, IOException {
+		List<SFTMove<CharPred, CharFunc, Character>> transitions = new LinkedList<SFTMove<CharPred, CharFunc, Character>>();
+		List<CharFunc> identity = new ArrayList<CharFunc>();
+		identity.add(CharOffset.IDENTITY);
+		transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(0, 0, new CharPred(Character.MIN_VALUE, Character.MAX_VALUE), identity));
+		Map<Integer, Set<List<Character>>> finStatesAndTails = new HashMap<Integer, Set<List<Character>>>();
+		finStatesAndTails.put(0, new HashSet<List<Character>>());
+		SFT<CharPred, CharFunc, Character> copy = SFT.MkSFT(transitions, 0, finStatesAndTails, ba);
+		
+		String input = "aaaaa\u00e9aaaa\u20acaaa\ud83d\ude00aa";
+		Path in = Files.createTempFile("input", "");
+		Path out = Files.createTempFile("output", "");
+		Files.write(in, input.getBytes(StandardCharsets.UTF_8));
+		
+		int minSize = SFTStream.minChunkSize(StandardCharsets.UTF_8);
+		for (long regionSize = minSize; regionSize < minSize + 4; regionSize++) {
+			assertTrue(SFTStream.transduceFile(copy, in, out, StandardCharsets.UTF_8, minSize, regionSize));
+			assertTrue(new String(Files.readAllBytes(out), StandardCharsets.UTF_8).equals(input));
+		}
+		
+		boolean rejected = false;
+		try {
+			SFTStream.transduceFile(copy, in, out, StandardCharsets.UTF_8, minSize - 1);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		assertTrue(rejected);
+		assertTrue(SFTStream.minChunkSize(StandardCharsets.ISO_8859_1) == 1);
+		
+		Files.delete(in);
+		Files.delete(out);
+	}
+	
+	public static void main(String[] args) throws TimeoutException, IOException {
 		mkSFAs();
 		mkSFTs();
 		
@@ -152,6 +289,12 @@ private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
 		getPositionTest();
 		getOutputTest();
 		transformTest();
+		compiledFSTTest();
+		intervalIndexTest();
+		mintermIndexTest();
+		sftStreamTest();
+		transduceFileTest();
+		transduceFileRegionsTest();
 		
 		Triple<SFA<CharPred, Character>, SFA<CharPred, Character>, Map<CharPred, Pair<CharPred, ArrayList<Integer>>>> triple = 
 				 SFA.MkFiniteSFA(mySFA01, mySFA02, ba);
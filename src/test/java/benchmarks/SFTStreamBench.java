@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sat4j.specs.TimeoutException;
+
+import automata.SFTOperations;
+import automata.SFTStream;
+import theory.characters.CharFunc;
+import theory.characters.CharOffset;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+import transducers.sft.SFTMove;
+
+/*
+ * Throughput of SFTStream against SFTOperations.getOutputString, on a transducer that upper-cases letters.
+ * Usage: SFTStreamBench [megabytes of input] [chunk size]
+ */
+public class SFTStreamBench {
+	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
+
+	static final String TEXT = "the quick brown fox jumps over the lazy dog; 0123456789\n";
+
+	/* Reader of n characters of TEXT, repeated, that never holds more than TEXT in memory */
+	static class RepeatingReader extends Reader {
+		long remaining;
+		int pos = 0;
+
+		RepeatingReader(long n) {
+			this.remaining = n;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			if (remaining == 0) return -1;
+
+			int n = (int) Math.min(len, remaining);
+			for (int i = 0; i < n; i++) {
+				cbuf[off + i] = TEXT.charAt(pos);
+				pos = (pos + 1) % TEXT.length();
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/* Writer that only counts characters */
+	static class CountingWriter extends Writer {
+		long count = 0;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public Writer append(CharSequence csq) {
+			count += csq.length();
+			return this;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/* Single state: lower case letters to upper case, everything else to itself */
+	static SFT<CharPred, CharFunc, Character> mkUpperCase() throws TimeoutException {
+		List<SFTMove<CharPred, CharFunc, Character>> transitions = new LinkedList<SFTMove<CharPred, CharFunc, Character>>();
+
+		List<CharFunc> upper = new ArrayList<CharFunc>();
+		upper.add(new CharOffset('A' - 'a'));
+		transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(0, 0, new CharPred('a', 'z'), upper));
+
+		List<CharFunc> identity = new ArrayList<CharFunc>();
+		identity.add(CharOffset.IDENTITY);
+		transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(0, 0, new CharPred(Character.MIN_VALUE, (char) ('a' - 1)), identity));
+		transitions.add(new SFTInputMove<CharPred, CharFunc, Character>(0, 0, new CharPred((char) ('z' + 1), Character.MAX_VALUE), identity));
+
+		Map<Integer, Set<List<Character>>> finStatesAndTails = new HashMap<Integer, Set<List<Character>>>();
+		finStatesAndTails.put(0, new HashSet<List<Character>>());
+		return SFT.MkSFT(transitions, 0, finStatesAndTails, ba);
+	}
+
+	public static void main(String[] args) throws TimeoutException, IOException {
+		long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 64;
+		int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : SFTStream.DEFAULT_CHUNK_SIZE;
+		long n = megabytes * 1024 * 1024;
+
+		SFT<CharPred, CharFunc, Character> upperCase = mkUpperCase();
+
+		/* warm up */
+		SFTStream.transduce(upperCase, new RepeatingReader(1024 * 1024), new CountingWriter(), chunkSize);
+
+		CountingWriter out = new CountingWriter();
+		long start = System.nanoTime();
+		SFTStream.transduce(upperCase, new RepeatingReader(n), out, chunkSize);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("SFTStream: %d chars in %.2fs, %.1f MB/s", out.count, seconds, megabytes / seconds));
+
+		/* getOutputString holds all of input and output, so only compare on a smaller input */
+		long small = Math.min(n, 8 * 1024 * 1024);
+		StringBuilder input = new StringBuilder();
+		while (input.length() < small) input.append(TEXT);
+		input.setLength((int) small);
+
+		start = System.nanoTime();
+		String output = SFTOperations.getOutputString(upperCase, input.toString());
+		seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("getOutputString: %d chars in %.2fs, %.1f MB/s", output.length(), seconds,
+				small / (1024.0 * 1024.0) / seconds));
+	}
+}
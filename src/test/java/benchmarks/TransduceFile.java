@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import automata.SFTStream;
+import automata.sfa.SFA;
+import solver.Driver;
+import theory.characters.CharFunc;
+import theory.characters.CharPred;
+import theory.intervals.UnaryCharIntervalSolver;
+import transducers.sft.SFT;
+import utilities.Pair;
+import utilities.SFAprovider;
+
+/*
+ * Synthesizes the transducer of a benchmark (e.g. Benchmarks/dosToUnix) and applies it to a file.
+ * Usage: TransduceFile <benchmark file> <input file> <output file> [charset, UTF-8 by default]
+ */
+public class TransduceFile {
+	private static UnaryCharIntervalSolver ba = new UnaryCharIntervalSolver();
+
+	public static void main(String[] args) {
+		try {
+			if (args.length < 3) {
+				System.err.println("Usage: TransduceFile <benchmark file> <input file> <output file> [charset]");
+				return;
+			}
+			Charset charset = args.length > 3 ? Charset.forName(args[3]) : StandardCharsets.UTF_8;
+
+			Scanner sc = new Scanner(new File(args[0]));
+			String sourceRegex = sc.nextLine();
+			String targetRegex = sc.nextLine();
+
+			List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+			while (sc.hasNextLine()) {
+				String input = sc.nextLine();
+				if (input.equals("")) break;
+				String output = sc.nextLine();
+
+				examples.add(new Pair<String, String>(input, output));
+			}
+			sc.close();
+
+			SFA<CharPred, Character> source = (new SFAprovider(sourceRegex, ba)).getSFA().removeEpsilonMoves(ba);
+			SFA<CharPred, Character> target = (new SFAprovider(targetRegex, ba)).getSFA().removeEpsilonMoves(ba);
+
+			SFT<CharPred, CharFunc, Character> mySFT = Driver.runBasicAlgorithm(source, target, examples);
+			if (mySFT == null) {
+				System.err.println("No transducer for " + args[0]);
+				return;
+			}
+
+			long start = System.nanoTime();
+			boolean accepted = SFTStream.transduceFile(mySFT, Paths.get(args[1]), Paths.get(args[2]), charset);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			System.out.println(String.format("%s -> %s in %.2fs%s", args[1], args[2], seconds,
+					accepted ? "" : " (input not accepted)"));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}
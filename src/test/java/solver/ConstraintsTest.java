@@ -2,16 +2,28 @@ package solver;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sat4j.specs.TimeoutException;
 
+import com.microsoft.z3.BitVecNum;
+import com.microsoft.z3.BitVecSort;
 import com.microsoft.z3.Context;
+import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Sort;
+import com.microsoft.z3.Status;
 
 import automata.SFAOperations;
 import automata.SFTOperations;
@@ -22,7 +34,10 @@ import theory.characters.CharFunc;
 import theory.characters.CharPred;
 import theory.intervals.UnaryCharIntervalSolver;
 import transducers.sft.SFT;
+import transducers.sft.SFTInputMove;
+import transducers.sft.SFTMove;
 import utilities.Pair;
+import utilities.Triple;
 
 public class ConstraintsTest {
 	
@@ -346,7 +361,614 @@ public class ConstraintsTest {
         System.out.println(synthSFT.toDotString(ba));
 	}
 	
-	public static void main(String[] args) throws TimeoutException {
+	/* 
+	 * The examples that most tests share, for mySFA09 -> mySFA10: b is dropped, a and ; are kept. One state and 
+	 * output length 1 are enough.
+	 */
+	static List<Pair<String, String>> dropBExamples() {
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("b;", ";"));
+		examples.add(new Pair<String, String>("a;", "a;"));
+		examples.add(new Pair<String, String>(";", ";"));
+		return examples;
+	}
+	
+	static void assertExamples(SFT<CharPred, CharFunc, Character> mySFT, List<Pair<String, String>> examples) throws TimeoutException {
+		for (Pair<String, String> example : examples) {
+			assertTrue(SFTOperations.getOutputString(mySFT, example.first).equals(example.second));
+		}
+	}
+	
+	/* Largest number of output characters of a transition of mySFT */
+	static int maxOutputLength(SFT<CharPred, CharFunc, Character> mySFT) {
+		int max = 0;
+		for (SFTMove<CharPred, CharFunc, Character> transition : mySFT.getTransitions()) {
+			max = Math.max(max, ((SFTInputMove<CharPred, CharFunc, Character>) transition).outputFunctions.size());
+		}
+		return max;
+	}
+	
+	/* 
+	 * incremental and non-incremental search must agree on SAT and UNSAT: with one state, with b -> a; (which needs 
+	 * output length 2), and with two outputs for the same input
+	 */
+	static void incrementalSearchTest() throws TimeoutException {
+		List<List<Pair<String, String>>> instances = new ArrayList<List<Pair<String, String>>>();
+		instances.add(dropBExamples());
+		
+		List<Pair<String, String>> longer = new ArrayList<Pair<String, String>>();
+		longer.add(new Pair<String, String>("b;", "a;;"));
+		longer.add(new Pair<String, String>("a;", "a;"));
+		instances.add(longer);
+		
+		List<Pair<String, String>> conflicting = dropBExamples();
+		conflicting.add(new Pair<String, String>(";", "a;"));
+		instances.add(conflicting);
+		
+		for (List<Pair<String, String>> examples : instances) {
+			SFT<CharPred, CharFunc, Character> incrementalSFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, examples, true);
+			SFT<CharPred, CharFunc, Character> coldSFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, examples, false);
+			
+			assertTrue((incrementalSFT == null) == (coldSFT == null));
+			if (incrementalSFT != null) {
+				assertExamples(incrementalSFT, examples);
+				assertExamples(coldSFT, examples);
+			}
+		}
+		assertTrue(Driver.runBasicAlgorithm(mySFA09, mySFA10, conflicting, true) == null);
+		
+		SFT<CharPred, CharFunc, Character> incrementalSFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, dropBExamples(), true);
+		assertTrue(incrementalSFT.stateCount() == 1);
+	}
+	
+	/* 
+	 * The bounds of solveWithBounds are assumptions on one solver: each round sees exactly its own bounds, so a 
+	 * bound that was UNSAT before is UNSAT again after a SAT round with larger bounds
+	 */
+	static void incrementalBoundsTest(Context ctx) throws TimeoutException {
+		Driver.FiniteProblem finite = Driver.mkFiniteProblem(mySFA09, mySFA10, dropBExamples(), null);
+		ConstraintsSolver c = new ConstraintsSolver(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, 2, 2, 
+				finite.examplesFinite, "mean", new int[] {1, 1}, null, null, null, null, null, ba);
+		c.mkIncrementalConstraints();
+		
+		/* a; -> a; needs some output */
+		assertTrue(c.solveWithBounds(1, 0, false).first.getTransitions().isEmpty());
+		
+		SFT<CharPred, CharFunc, Character> wide = c.solveWithBounds(2, 2, false).first;
+		assertTrue(!wide.getTransitions().isEmpty());
+		
+		SFT<CharPred, CharFunc, Character> narrow = c.solveWithBounds(1, 1, false).first;
+		assertTrue(narrow.stateCount() == 1);
+		assertTrue(maxOutputLength(narrow) <= 1);
+		
+		assertTrue(c.solveWithBounds(1, 0, false).first.getTransitions().isEmpty());
+	}
+	
+	/* The examples of dropBExamples, except that b; -> a;; needs output length 2 */
+	static List<Pair<String, String>> longerExamples() {
+		List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+		examples.add(new Pair<String, String>("b;", "a;;"));
+		examples.add(new Pair<String, String>("a;", "a;"));
+		examples.add(new Pair<String, String>(";", ";"));
+		return examples;
+	}
+	
+	/* 
+	 * The portfolio returns the first SAT configuration in the given order, not the first one to finish: output 
+	 * bound 1 is UNSAT for longerExamples, and the larger of the two SAT configurations after it comes first
+	 */
+	static void portfolioTest() throws TimeoutException, InterruptedException {
+		List<Pair<String, String>> examples = longerExamples();
+		int[] fraction = new int[] {1, 1};
+		
+		List<Portfolio.Configuration> configurations = new ArrayList<Portfolio.Configuration>();
+		configurations.add(new Portfolio.Configuration(2, 1, fraction));
+		configurations.add(new Portfolio.Configuration(2, 3, fraction));
+		configurations.add(new Portfolio.Configuration(1, 2, fraction));
+		
+		Pair<SFT<CharPred, CharFunc, Character>, Portfolio.Configuration> res = 
+				Driver.runPortfolio(mySFA09, mySFA10, examples, configurations, 3, Driver.SOLVE_TIMEOUT);
+		assertTrue(res.second == configurations.get(1));
+		assertExamples(res.first, examples);
+		
+		/* every configuration UNSAT */
+		assertTrue(Driver.runPortfolio(mySFA09, mySFA10, examples, configurations.subList(0, 1), 3, Driver.SOLVE_TIMEOUT) == null);
+		
+		/* the default configurations start from the smallest bounds */
+		res = Driver.runPortfolio(mySFA09, mySFA10, dropBExamples());
+		assertTrue(res.second.numStates == 1 && res.second.outputBound == 1);
+	}
+	
+	/* SFA of c*: one state, final, with a loop on c */
+	static SFA<CharPred, Character> mkLoop(char c) throws TimeoutException {
+		List<SFAMove<CharPred, Character>> transitions = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred(c)));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(0);
+		return SFA.MkSFA(transitions, 0, finStates, ba, false, false);
+	}
+	
+	/* 
+	 * The SAT backend agrees with Z3 on SAT and UNSAT, also where only the distance constraints decide: a* to b* 
+	 * costs 1 per character, which is within a mean of 1/1 but not of 1/2 (see costlyLoopTest)
+	 */
+	static void satBackendTest() throws TimeoutException {
+		List<List<Pair<String, String>>> instances = new ArrayList<List<Pair<String, String>>>();
+		instances.add(dropBExamples());
+		instances.add(longerExamples());
+		
+		for (List<Pair<String, String>> examples : instances) {
+			SFT<CharPred, CharFunc, Character> satSFT = Driver.runBasicAlgorithmSAT(mySFA09, mySFA10, examples);
+			SFT<CharPred, CharFunc, Character> z3SFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, examples);
+			
+			assertTrue(satSFT != null && z3SFT != null);
+			assertExamples(satSFT, examples);
+		}
+		
+		SFA<CharPred, Character> source = mkLoop('a');
+		SFA<CharPred, Character> target = mkLoop('b');
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(source, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(target, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(target, alphabetSet, ba);
+		List<Pair<String, String>> none = new ArrayList<Pair<String, String>>();
+		
+		ConstraintsSAT within = new ConstraintsSAT(source, targetTotal, alphabetMap, 1, 1, none, "mean", new int[] {1, 1}, 
+				null, null, null, null, null, ba);
+		assertTrue(!within.mkConstraints(false).first.getTransitions().isEmpty());
+		
+		ConstraintsSAT beyond = new ConstraintsSAT(source, targetTotal, alphabetMap, 2, 2, none, "mean", new int[] {1, 2}, 
+				null, null, null, null, null, ba);
+		assertTrue(beyond.mkConstraints(false).first.getTransitions().isEmpty());
+	}
+
+	/* 
+	 * racing Z3 against cvc4 should give the same answer as Z3 alone, also if cvc4 is not available; a backend 
+	 * that fails does not win, so a race with a cvc4 that cannot even start is won by Z3
+	 */
+	static void raceBackendTest() throws TimeoutException {
+		List<Pair<String, String>> examples = dropBExamples();
+		
+		RaceBackend race = new RaceBackend(new Z3Backend(), new CVC4Backend());
+		SFT<CharPred, CharFunc, Character> raceSFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, examples, true, race);
+		System.out.println("Race winner: " + race.getWinner().getClass().getSimpleName());
+		assertExamples(raceSFT, examples);
+		
+		RaceBackend broken = new RaceBackend(new CVC4Backend("/nonexistent/cvc4", 0), new Z3Backend());
+		SFT<CharPred, CharFunc, Character> brokenSFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, examples, true, broken);
+		assertTrue(broken.getWinner() instanceof Z3Backend);
+		assertExamples(brokenSFT, examples);
+		
+		/* UNSAT is an answer too */
+		List<Pair<String, String>> conflicting = dropBExamples();
+		conflicting.add(new Pair<String, String>(";", "a;"));
+		assertTrue(Driver.runBasicAlgorithm(mySFA09, mySFA10, conflicting, true, broken) == null);
+	}
+	
+	/* 
+	 * cvc4 on its own, on mean-distance problems: the assertions it reads must be plain SMT-LIB, the guards of the 
+	 * energy arithmetic included. Skipped if there is no cvc4 binary (see CVC4Backend.findBinary).
+	 */
+	static void cvc4BackendTest() throws TimeoutException {
+		CVC4Backend cvc4 = new CVC4Backend();
+		if (!cvc4.isAvailable()) {
+			System.out.println("cvc4BackendTest skipped: no cvc4 binary");
+			return;
+		}
+		
+		for (List<Pair<String, String>> examples : Arrays.asList(dropBExamples(), longerExamples())) {
+			SFT<CharPred, CharFunc, Character> cvc4SFT = Driver.runBasicAlgorithm(mySFA09, mySFA10, examples, true, cvc4);
+			assertExamples(cvc4SFT, examples);
+		}
+		
+		List<Pair<String, String>> conflicting = dropBExamples();
+		conflicting.add(new Pair<String, String>(";", "a;"));
+		assertTrue(Driver.runBasicAlgorithm(mySFA09, mySFA10, conflicting, true, cvc4) == null);
+	}
+	
+	/* CEGIS starts from a subset of the examples, but the result must still be correct on all of them */
+	static void cegisTest() throws TimeoutException, IOException {
+        List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+        examples.add(new Pair<String, String>("b;", ";"));
+        examples.add(new Pair<String, String>("a;", "a;"));
+        examples.add(new Pair<String, String>(";", ";"));
+        examples.add(new Pair<String, String>("ab;", "a;"));
+        examples.add(new Pair<String, String>("ba;", "a;"));
+        
+        int[] fraction = new int[] {1, 2};
+        SFT<CharPred, CharFunc, Character> cegisSFT = 
+        		Driver.runAlgorithm(mySFA09, mySFA10, 2, 2, 0, fraction, examples, null, null, null, null, null, null, true).first.second;
+        
+        for (Pair<String, String> example : examples) {
+        	assertTrue(SFTOperations.getOutputString(cegisSFT, example.first).equals(example.second));
+        }
+	}
+	
+	/* two outputs for the same input: the core has no bounds in it, so the search stops without escalating */
+	static void unsatCoreTest() throws TimeoutException {
+        List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+        examples.add(new Pair<String, String>("a;", "a;"));
+        examples.add(new Pair<String, String>(";", ";"));
+        examples.add(new Pair<String, String>("a;", ";"));
+        
+        /* the two outputs of a; contradict each other at any bounds, so every core of the last round has both */
+        List<String> core = new ArrayList<String>();
+        assertTrue(Driver.runBasicAlgorithm(mySFA09, mySFA10, examples, true, null, 2, core) == null);
+        assertTrue(core.contains("example 0") && core.contains("example 2"));
+        
+        core = new ArrayList<String>();
+        core.add("types");
+        core.add("example 2");
+        assertTrue(Driver.describeCore(core, examples).equals("types, example (a;, ;)"));
+	}
+	
+	/* with few examples there are several solutions; the second one found must not be equivalent to the first */
+	/* (a|b)*: with "a" -> "a" and output bound 1, b can go to "", "a" or "b", so there are three inequivalent solutions */
+	static SFA<CharPred, Character> mkABStar() throws TimeoutException {
+		List<SFAMove<CharPred, Character>> transitions = new LinkedList<SFAMove<CharPred, Character>>();
+		transitions.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred('a')));
+		transitions.add(new SFAInputMove<CharPred, Character>(0, 0, new CharPred('b')));
+		List<Integer> finStates = new LinkedList<Integer>();
+		finStates.add(0);
+		return SFA.MkSFA(transitions, 0, finStates, ba);
+	}
+	
+	static void solutionEnumeratorTest() throws TimeoutException, IOException {
+        List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+        examples.add(new Pair<String, String>("a", "a"));
+        
+        SFA<CharPred, Character> abStar = mkABStar();
+        int[] fraction = new int[] {1, 1};
+        Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> res = 
+        		Driver.runAlgorithm(abStar, abStar, 1, 1, 0, fraction, examples, null, null, null, null, null, null);
+        
+        SFT<CharPred, CharFunc, Character> first = res.first.second;
+        SFT<CharPred, CharFunc, Character> second = res.second.second;
+        assertTrue(second != null);
+        assertTrue(SFTOperations.getOutputString(first, "a").equals("a"));
+        assertTrue(SFTOperations.getOutputString(second, "a").equals("a"));
+        assertTrue(!SFT.decide1equality(first, second, ba));
+        assertTrue(res.third != null);
+        assertTrue(!SFTOperations.getOutputString(first, res.third).equals(SFTOperations.getOutputString(second, res.third)));
+	}
+	
+	/* next(k) stops after the three classes of solutions, and no two of them are equivalent */
+	static void enumerateSolutionsTest(Context ctx) throws TimeoutException {
+        List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+        examples.add(new Pair<String, String>("a", "a"));
+        
+        SFA<CharPred, Character> abStar = mkABStar();
+		Set<Character> alphabetSet = new HashSet<Character>(SFAOperations.alphabetSet(abStar, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(abStar, alphabetSet, ba);
+		
+		int[] fraction = new int[] {1, 1};
+		ConstraintsSolver c = new ConstraintsSolver(ctx, abStar, targetTotal, alphabetMap, 1, 1, examples, "mean", fraction, 
+				null, null, null, null, null, ba);
+		SolutionEnumerator enumerator = new SolutionEnumerator(c, abStar);
+		List<SFT<CharPred, CharFunc, Character>> solutions = enumerator.next(4, false);
+		assertTrue(solutions.size() == 3);
+		
+		for (int i = 0; i < solutions.size(); i++) {
+			assertTrue(SFTOperations.getOutputString(solutions.get(i), "a").equals("a"));
+			for (int j = i + 1; j < solutions.size(); j++) {
+				assertTrue(!SFT.decide1equality(enumerator.restrict(solutions.get(i)), enumerator.restrict(solutions.get(j)), ba));
+			}
+		}
+	}
+	
+	/* the second run of the same problem is answered from the cache, with the same transducers */
+	static void resultCacheTest() throws TimeoutException, IOException {
+        List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+        examples.add(new Pair<String, String>("a;", "a;"));
+        examples.add(new Pair<String, String>(";", ";"));
+        
+        ResultCache cache = new ResultCache(Files.createTempDirectory("astra-cache").toString(), 1);
+        int[] fraction = new int[] {1, 2};
+        Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> solved = 
+        		Driver.runAlgorithm(mySFA09, mySFA10, 2, 2, 0, fraction, examples, null, null, null, null, null, null, false, cache);
+        Triple<Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, Pair<SFT<CharPred, CharFunc, Character>, SFT<CharPred, CharFunc, Character>>, String> cached = 
+        		Driver.runAlgorithm(mySFA09, mySFA10, 2, 2, 0, fraction, examples, null, null, null, null, null, null, false, cache);
+        
+        assertTrue(SFT.decide1equality(solved.first.second, cached.first.second, ba));
+        assertTrue(solved.third == null ? cached.third == null : solved.third.equals(cached.third));
+        
+        /* CEGIS can find other solutions, so its results are kept apart */
+        Driver.FiniteProblem finite = Driver.mkFiniteProblem(mySFA09, mySFA10, examples, null);
+        String plainKey = ResultCache.mkKey(finite.sourceFinite, finite.targetTotal, finite.idToMinterm, finite.examplesFinite, 
+        		2, 2, fraction, null, null, null, 0);
+        String cegisKey = ResultCache.mkKey(finite.sourceFinite, finite.targetTotal, finite.idToMinterm, finite.examplesFinite, 
+        		2, 2, fraction, null, null, null, Driver.CEGIS_INITIAL_EXAMPLES);
+        assertTrue(!plainKey.equals(cegisKey));
+        assertTrue(cache.get(plainKey) != null && cache.get(cegisKey) == null);
+	}
+	
+	/* with one example, only the type constraints keep the outputs in the target; lazily encoded, they still must */
+	static void lazyTypesTest(Context ctx) throws TimeoutException {
+        List<Pair<String, String>> examples = new ArrayList<Pair<String, String>>();
+        examples.add(new Pair<String, String>(";", ";"));
+        
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA09, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(mySFA10, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(mySFA10, alphabetSet, ba);
+		
+		int[] fraction = new int[] {1, 2};
+		ConstraintsSolver c = new ConstraintsSolver(ctx, mySFA09, targetTotal, alphabetMap, 2, 2, examples, "mean", fraction, 
+				null, null, null, null, null, ba);
+		c.setLazyTypes(true);
+		SFT<CharPred, CharFunc, Character> lazySFT = c.mkConstraints(null, false).first;
+		
+		String[] inputs = new String[] {";", "a;", "b;", "a;b;;"};
+		for (String input : inputs) {
+			assertTrue(SFAOperations.isAcceptedBy(SFTOperations.getOutputString(lazySFT, input), mySFA10, ba));
+		}
+	}
+	
+	/* 
+	 * Numbering the states in BFS order keeps one of the numberings of every transducer, so it changes no answer. 
+	 * Each instance has more states than its smallest solution needs, so some states are unreachable: 
+	 * { source, target, examples, numStates, outputBound, fraction numerator, denominator, SAT }
+	 */
+	static void symmetryBreakingTest(Context ctx) throws TimeoutException {
+		List<Pair<String, String>> noExamples = new ArrayList<Pair<String, String>>();
+		Object[][] instances = new Object[][] {
+			{ mySFA09, mySFA10, dropBExamples(), 3, 1, 1, 1, true },
+			{ mySFA09, mySFA10, longerExamples(), 3, 1, 1, 1, false },
+			{ mySFA09, mySFA10, longerExamples(), 3, 2, 1, 1, true },
+			{ mkLoop('a'), mkLoop('b'), noExamples, 3, 1, 1, 1, true },
+			{ mkLoop('a'), mkLoop('b'), noExamples, 3, 1, 1, 2, false },
+			{ mkABStar(), mkABStar(), noExamples, 4, 1, 1, 1, true }
+		};
+		
+		for (Object[] instance : instances) {
+			@SuppressWarnings("unchecked")
+			Driver.FiniteProblem finite = Driver.mkFiniteProblem((SFA<CharPred, Character>) instance[0], 
+					(SFA<CharPred, Character>) instance[1], (List<Pair<String, String>>) instance[2], null);
+			int[] fraction = new int[] { (Integer) instance[5], (Integer) instance[6] };
+			
+			for (boolean symmetryBreaking : new boolean[] { true, false }) {
+				ConstraintsSolver c = new ConstraintsSolver(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, 
+						(Integer) instance[3], (Integer) instance[4], finite.examplesFinite, "mean", fraction, 
+						null, null, null, finite.idToMinterm, null, ba);
+				c.setSymmetryBreaking(symmetryBreaking);
+				SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(null, false).first;
+				assertTrue((mySFT.getTransitions().size() > 0) == (Boolean) instance[7]);
+			}
+		}
+	}
+	
+	/* 
+	 * With room for 2 states and outputs of length 3, minimizing the states and then the output length must come 
+	 * down to the single state and length 1 that dropBExamples needs
+	 */
+	static void optimizeTest() throws TimeoutException {
+		List<Pair<String, String>> examples = dropBExamples();
+		
+		List<String> objectives = new ArrayList<String>();
+		objectives.add("states");
+		objectives.add("length");
+		objectives.add("distance");
+		
+		SFT<CharPred, CharFunc, Character> optSFT = Driver.runOptimizingAlgorithm(mySFA09, mySFA10, examples, objectives, 3);
+		System.out.println(optSFT.toDotString(ba));
+		
+		assertExamples(optSFT, examples);
+		assertTrue(optSFT.stateCount() == 1);
+		assertTrue(maxOutputLength(optSFT) == 1);
+		
+		/* b; -> a;; needs length 2, whatever the states */
+		objectives.clear();
+		objectives.add("length");
+		SFT<CharPred, CharFunc, Character> longerSFT = Driver.runOptimizingAlgorithm(mySFA09, mySFA10, longerExamples(), objectives, 3);
+		assertExamples(longerSFT, longerExamples());
+		assertTrue(maxOutputLength(longerSFT) == 2);
+	}
+	
+	/* the table of a function gives the same values as evaluating each application in the model */
+	static void funcTableTest(Context ctx) {
+		TermCache terms = new TermCache(ctx);
+		BitVecSort bv = ctx.mkBitVecSort(3);
+		FuncDecl<BitVecSort> f = ctx.mkFuncDecl("f", new Sort[] { bv, bv }, bv);
+		
+		Solver solver = ctx.mkSolver();
+		solver.add(ctx.mkEq(terms.apply(f, terms.num(0, bv), terms.num(1, bv)), terms.num(5, bv)));
+		solver.add(ctx.mkEq(terms.apply(f, terms.num(1, bv), terms.num(1, bv)), terms.num(2, bv)));
+		solver.add(ctx.mkBVUGT(terms.apply(f, terms.num(2, bv), terms.num(0, bv)), terms.num(6, bv)));
+		assertTrue(solver.check() == Status.SATISFIABLE);
+		
+		Model m = solver.getModel();
+		FuncTable table = new FuncTable(m, f, terms);
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				int value = ((BitVecNum) m.evaluate(terms.apply(f, terms.num(i, bv), terms.num(j, bv)), true)).getInt();
+				assertTrue(table.get(i, j) == value);
+			}
+		}
+	}
+	
+	/* splitting into cubes must not change the answer of a configuration */
+	/* 
+	 * Each fixed character splits every cube into numStates * (outputBound + 1) cubes, so 2 states with output 
+	 * bound 2 give 6 cubes per character. longerExamples needs 3 output characters for 2 input characters, so it is 
+	 * UNSAT with output bound 1 and SAT with 2: the cubes are all UNSAT only because of the bounds.
+	 */
+	static void cubeAndConquerTest() throws TimeoutException, InterruptedException {
+		Driver.FiniteProblem finite = Driver.mkFiniteProblem(mySFA09, mySFA10, longerExamples(), null);
+		int[] fraction = new int[] {1, 1};
+		
+		int[][] expected = new int[][] { {1, 1}, {6, 6}, {8, 36}, {36, 36} };
+		for (int[] split : expected) {
+			CubeAndConquer cubes = new CubeAndConquer(finite.sourceFinite, finite.targetTotal, finite.alphabetMap, 
+					finite.examplesFinite, finite.idToMinterm, 2, 2, fraction, split[0], ba);
+			assertTrue(cubes.getCubeCount() == split[1]);
+		}
+		
+		SFT<CharPred, CharFunc, Character> cubeSFT = Driver.runCubeAndConquer(mySFA09, mySFA10, longerExamples(), 2, 2, 8, 4, Driver.SOLVE_TIMEOUT);
+		assertExamples(cubeSFT, longerExamples());
+		
+		assertTrue(Driver.runCubeAndConquer(mySFA09, mySFA10, longerExamples(), 2, 1, 8, 4, Driver.SOLVE_TIMEOUT) == null);
+		
+		/* dropBExamples needs a single state, which every cube of one state allows */
+		assertTrue(Driver.runCubeAndConquer(mySFA09, mySFA10, dropBExamples(), 1, 2, 8, 4, Driver.SOLVE_TIMEOUT) != null);
+		
+		boolean rejected = false;
+		try {
+			Driver.runCubeAndConquer(mySFA09, mySFA10, dropBExamples(), 1, 2, 8, 0, Driver.SOLVE_TIMEOUT);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		assertTrue(rejected);
+	}
+	
+	/* 
+	 * a* to b*: every a must be deleted or replaced, so the self-loop costs at least 1 per character and no transducer 
+	 * has mean edit distance 1/2; an energy that wraps around would make this SAT
+	 */
+	static void costlyLoopTest(Context ctx) throws TimeoutException {
+		SFA<CharPred, Character> source = mkLoop('a');
+		SFA<CharPred, Character> target = mkLoop('b');
+		
+		Set<Character> alphabetSet = new HashSet<Character>();
+		alphabetSet.addAll(SFAOperations.alphabetSet(source, ba));
+		alphabetSet.addAll(SFAOperations.alphabetSet(target, ba));
+		HashMap<Character, Integer> alphabetMap = SFAOperations.mkAlphabetMap(alphabetSet);
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(target, alphabetSet, ba);
+		
+		int[] fraction = new int[] {1, 2};
+		ConstraintsSolver c = new ConstraintsSolver(ctx, source, targetTotal, alphabetMap, 2, 2, 
+				new ArrayList<Pair<String, String>>(), "mean", fraction, null, null, null, null, null, ba);
+		SFT<CharPred, CharFunc, Character> mySFT = c.mkConstraints(null, false).first;
+		assertTrue(mySFT.getTransitions().size() == 0);
+	}
+	
+	/* the minterms of a, b and ; are single characters, the rest of the alphabet is one multiple-character minterm */
+	static void fixedChoicesTest() throws TimeoutException {
+		Driver.FiniteProblem finite = Driver.mkFiniteProblem(mySFA09, mySFA10, dropBExamples(), null);
+		FixedChoices choices = new FixedChoices(2, 1, null, null, finite.idToMinterm, finite.alphabetMap, ba);
+		
+		assertTrue(choices.singleChars.size() == 3 && choices.multipleChars.size() == 1);
+		assertTrue(choices.d2.isEmpty() && choices.d1.isEmpty());
+		
+		boolean rejected = false;
+		try {
+			new FixedChoices(2, 1, finite.sourceFinite, null, finite.idToMinterm, finite.alphabetMap, ba);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+		assertTrue(rejected == (finite.sourceFinite.stateCount() != 2));
+	}
+	
+	/* every numeral and application is built once, and applications are told apart by their arguments */
+	static void termCacheTest(Context ctx) {
+		TermCache terms = new TermCache(ctx);
+		BitVecSort sort = ctx.mkBitVecSort(4);
+		FuncDecl<BitVecSort> f = ctx.mkFuncDecl("f", new Sort[] { sort, sort }, sort);
+		
+		BitVecNum three = terms.num(3, sort);
+		BitVecNum four = terms.num(4, sort);
+		assertTrue(terms.num(3, sort) == three && three != four);
+		
+		Expr<BitVecSort> app = terms.apply(f, three, four);
+		assertTrue(terms.apply(f, terms.num(3, sort), terms.num(4, sort)) == app);
+		assertTrue(terms.apply(f, four, three) != app);
+		assertTrue(terms.size() == 4);
+	}
+	
+	/* 
+	 * The source reads a single a and the target is a chain of b's (0, 1, 2, 3, made total with a sink): with 
+	 * output bound 1, the target can only be one step further than its initial state when the source has read a
+	 */
+	static void feasiblePairsTest() throws TimeoutException {
+		List<SFAMove<CharPred, Character>> sourceTransitions = new LinkedList<SFAMove<CharPred, Character>>();
+		sourceTransitions.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('a')));
+		SFA<CharPred, Character> source = SFA.MkSFA(sourceTransitions, 0, Arrays.asList(1), ba, false, false);
+		
+		List<SFAMove<CharPred, Character>> targetTransitions = new LinkedList<SFAMove<CharPred, Character>>();
+		targetTransitions.add(new SFAInputMove<CharPred, Character>(0, 1, new CharPred('b')));
+		targetTransitions.add(new SFAInputMove<CharPred, Character>(1, 2, new CharPred('b')));
+		targetTransitions.add(new SFAInputMove<CharPred, Character>(2, 3, new CharPred('b')));
+		targetTransitions.add(new SFAInputMove<CharPred, Character>(3, 3, new CharPred('b')));
+		SFA<CharPred, Character> target = SFA.MkSFA(targetTransitions, 0, Arrays.asList(3), ba, false, false);
+		
+		Set<Character> alphabet = new HashSet<Character>(Arrays.asList('a', 'b'));
+		SFA<CharPred, Character> targetTotal = SFAOperations.mkTotalFinite(target, alphabet, ba);
+		
+		Map<Integer, Set<Integer>> pairs = ConstraintsSolver.mkFeasiblePairs(source, targetTotal, alphabet, 1, ba);
+		assertTrue(pairs.get(0).equals(new HashSet<Integer>(Arrays.asList(targetTotal.getInitialState()))));
+		assertTrue(pairs.get(1).size() == 3 && pairs.get(1).contains(1) && !pairs.get(1).contains(2));
+		
+		/* with output bound 3, every state of the chain can be reached */
+		pairs = ConstraintsSolver.mkFeasiblePairs(source, targetTotal, alphabet, 3, ba);
+		assertTrue(pairs.get(1).size() == targetTotal.stateCount());
+	}
+	
+	/* 
+	 * Examples are encoded node by node of their trie: an example given twice adds nothing, and one that extends 
+	 * another only adds the nodes of its last 2 characters
+	 */
+	static void exampleEncodingTest(Context ctx) throws TimeoutException {
+		Pair<String, String> first = new Pair<String, String>("a;", "a;");
+		Pair<String, String> extended = new Pair<String, String>("a;b;", "a;;");
+		
+		List<List<Pair<String, String>>> instances = new ArrayList<List<Pair<String, String>>>();
+		instances.add(Arrays.asList(first));
+		instances.add(Arrays.asList(first, first));
+		instances.add(Arrays.asList(first, extended));
+		
+		int[] runs = new int[instances.size()];
+		int[] assertions = new int[instances.size()];
+		for (int k = 0; k < instances.size(); k++) {
+			Driver.FiniteProblem finite = Driver.mkFiniteProblem(mySFA09, mySFA10, instances.get(k), null);
+			ConstraintsSolver c = new ConstraintsSolver(ctx, finite.sourceFinite, finite.targetTotal, finite.alphabetMap, 2, 2, 
+					finite.examplesFinite, "mean", new int[] {1, 1}, null, null, null, finite.idToMinterm, null, ba);
+			c.encode();
+			runs[k] = c.runs.size();
+			assertions[k] = c.solver.getAssertions().length;
+		}
+		
+		assertTrue(runs[1] == runs[0] && assertions[1] == assertions[0]);
+		assertTrue(runs[2] == runs[0] + 2 && assertions[2] > assertions[0]);
+	}
+	
+	/* alignments of a 4-character input with a 5-character output when every character emits at most 2 */
+	static void exampleBandTest() {
+		int[][] band = ConstraintsSolver.exampleBand(4, 5, 2);
+		int[] low = new int[] {0, 0, 1, 3, 5};
+		int[] high = new int[] {0, 2, 4, 5, 5};
+		
+		for (int i = 0; i <= 4; i++) {
+			assertTrue(band[0][i] == low[i]);
+			assertTrue(band[1][i] == high[i]);
+		}
+		
+		/* too long for the output bound: the band is empty somewhere */
+		band = ConstraintsSolver.exampleBand(2, 5, 2);
+		assertTrue(band[0][0] > band[1][0]);
+	}
+	
+	static void exampleTrieTest() {
+		ExampleTrie trie = new ExampleTrie(2);
+		
+		/* "ab" -> "xy" and "ac" -> "xz" share the node of "a", whose output is at most "x" */
+		List<ExampleTrie.Node> changed = trie.insert(new int[] {0, 1}, new int[] {2, 3});
+		assertTrue(changed.size() == 3);
+		changed = trie.insert(new int[] {0, 4}, new int[] {2, 5});
+		assertTrue(trie.size() == 4);
+		
+		ExampleTrie.Node a = trie.getRoot().children.get(0);
+		assertTrue(changed.contains(a));
+		assertTrue(a.lcp == 1 && a.low == 0 && a.high == 1);
+		
+		/* the same example again changes nothing, the same input with another output is a conflict */
+		assertTrue(trie.insert(new int[] {0, 1}, new int[] {2, 3}).isEmpty());
+		trie.insert(new int[] {0, 1}, new int[] {2});
+		assertTrue(a.children.get(1).conflict);
+	}
+	
+	public static void main(String[] args) throws TimeoutException, InterruptedException, IOException {
 		HashMap<String, String> cfg = new HashMap<String, String>();
         cfg.put("model", "true");
         Context ctx = new Context(cfg);
@@ -362,6 +984,29 @@ public class ConstraintsTest {
         constraintsTest7(ctx);
         // constraintsTest8(ctx);
         // constraintsTest9(ctx);
+        incrementalSearchTest();
+        incrementalBoundsTest(ctx);
+        portfolioTest();
+        satBackendTest();
+        raceBackendTest();
+        cvc4BackendTest();
+        exampleBandTest();
+        exampleTrieTest();
+        fixedChoicesTest();
+        termCacheTest(ctx);
+        feasiblePairsTest();
+        exampleEncodingTest(ctx);
+        costlyLoopTest(ctx);
+        cegisTest();
+        unsatCoreTest();
+        solutionEnumeratorTest();
+        enumerateSolutionsTest(ctx);
+        resultCacheTest();
+        lazyTypesTest(ctx);
+        symmetryBreakingTest(ctx);
+        optimizeTest();
+        funcTableTest(ctx);
+        cubeAndConquerTest();
 	}
 	
 }